@@ -0,0 +1,292 @@
+package org.lpz.aiagent.advisor;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.lpz.aiagent.rag.RetrievalCache;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.MessageAggregator;
+import org.springframework.ai.embedding.EmbeddingModel;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 语义缓存 Advisor
+ * 对话没有历史消息时，把用户问题向量化后和缓存的问题比对，相似度达到阈值直接返回缓存的回答，不再调用大模型；
+ * 未命中时调用大模型并缓存回答。流式调用命中时把缓存的回答切成小段按流返回。
+ * 需要排在 MessageChatMemoryAdvisor 之后（默认顺序已保证），这样请求中的消息就是该会话的历史消息，
+ * 命中时回答也会照常写入对话记忆。
+ * 可通过 advisor 参数按接口划分缓存（SCOPE_KEY）或关闭缓存（ENABLED_KEY）。
+ */
+@Slf4j
+public class SemanticCacheAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    /**
+     * advisor 参数：缓存分区，不同接口（系统提示词、知识库等不同）的回答互不命中
+     */
+    public static final String SCOPE_KEY = "semantic_cache_scope";
+
+    /**
+     * advisor 参数：为 false 时本次请求不使用缓存
+     */
+    public static final String ENABLED_KEY = "semantic_cache_enabled";
+
+    /**
+     * advisor 参数：用于匹配缓存的问题文本，默认为用户消息（用户消息中拼接了检索到的文档时需要单独传入问题）
+     */
+    public static final String QUESTION_KEY = "semantic_cache_question";
+
+    private static final String DEFAULT_SCOPE = "default";
+
+    // 流式回放时每段的字符数
+    private static final int REPLAY_CHUNK_SIZE = 8;
+
+    private final EmbeddingModel embeddingModel;
+
+    private final double similarityThreshold;
+
+    // 分区 + 规范化后的问题 → 缓存条目
+    private final LRUCache<String, Entry> cache;
+
+    /**
+     * 缓存条目
+     * @param scope 分区
+     * @param embedding 问题向量（已归一化）
+     * @param answer 回答
+     */
+    private record Entry(String scope, float[] embedding, String answer) {
+    }
+
+    /**
+     * @param embeddingModel 问题向量化使用的模型
+     * @param similarityThreshold 命中所需的最小余弦相似度
+     * @param capacity 最多缓存的回答数
+     * @param ttl 缓存存活时间
+     */
+    public SemanticCacheAdvisor(EmbeddingModel embeddingModel, double similarityThreshold, int capacity, Duration ttl) {
+        this.embeddingModel = embeddingModel;
+        this.similarityThreshold = similarityThreshold;
+        this.cache = CacheUtil.newLRUCache(capacity, ttl.toMillis());
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        // 紧跟在对话记忆之后，命中时跳过后续的知识库检索、日志等 Advisor
+        return Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER + 1;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        if (!cacheable(advisedRequest)) {
+            return chain.nextAroundCall(advisedRequest);
+        }
+        String scope = scope(advisedRequest);
+        String question = question(advisedRequest);
+        String answer = lookupExact(scope, question);
+        float[] embedding = null;
+        if (answer == null) {
+            embedding = embed(question);
+            answer = lookupSimilar(scope, embedding);
+        }
+        if (answer != null) {
+            return new AdvisedResponse(toChatResponse(answer), advisedRequest.adviseContext());
+        }
+        AdvisedResponse advisedResponse = chain.nextAroundCall(advisedRequest);
+        store(scope, question, embedding, advisedResponse);
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        if (!cacheable(advisedRequest)) {
+            return chain.nextAroundStream(advisedRequest);
+        }
+        String scope = scope(advisedRequest);
+        String question = question(advisedRequest);
+        String exactAnswer = lookupExact(scope, question);
+        if (exactAnswer != null) {
+            return replay(exactAnswer, advisedRequest);
+        }
+        // 向量化是阻塞调用，放到弹性线程池执行
+        return Mono.fromCallable(() -> embed(question))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(embedding -> {
+                    String answer = lookupSimilar(scope, embedding);
+                    if (answer != null) {
+                        return replay(answer, advisedRequest);
+                    }
+                    return new MessageAggregator().aggregateAdvisedResponse(chain.nextAroundStream(advisedRequest),
+                            aggregated -> store(scope, question, embedding, aggregated));
+                });
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * 只有开启缓存且会话没有历史消息时才使用缓存，多轮对话的回答依赖上下文，不能复用
+     * @param advisedRequest
+     * @return
+     */
+    private boolean cacheable(AdvisedRequest advisedRequest) {
+        boolean enabled = !Boolean.FALSE.equals(advisedRequest.adviseContext().get(ENABLED_KEY));
+        boolean cacheable = enabled && advisedRequest.messages().isEmpty() && advisedRequest.media().isEmpty();
+        if (!cacheable) {
+            counter(scope(advisedRequest), "bypass").increment();
+        }
+        return cacheable;
+    }
+
+    /**
+     * 规范化后完全相同的问题直接命中，不需要向量化
+     * @param scope
+     * @param question
+     * @return
+     */
+    private String lookupExact(String scope, String question) {
+        Entry entry = cache.get(key(scope, question), false);
+        if (entry == null) {
+            return null;
+        }
+        counter(scope, "hit").increment();
+        log.info("语义缓存命中 [{}]，问题完全相同", scope);
+        return entry.answer();
+    }
+
+    /**
+     * 在同一分区中找相似度最高的问题，达到阈值才算命中
+     * @param scope
+     * @param embedding
+     * @return
+     */
+    private String lookupSimilar(String scope, float[] embedding) {
+        Entry best = null;
+        double bestSimilarity = -1;
+        for (Entry entry : cache) {
+            if (!entry.scope().equals(scope)) {
+                continue;
+            }
+            double similarity = dot(embedding, entry.embedding());
+            if (similarity > bestSimilarity) {
+                best = entry;
+                bestSimilarity = similarity;
+            }
+        }
+        if (best != null && bestSimilarity >= similarityThreshold) {
+            counter(scope, "hit").increment();
+            log.info("语义缓存命中 [{}]，相似度 {}", scope, String.format("%.4f", bestSimilarity));
+            return best.answer();
+        }
+        counter(scope, "miss").increment();
+        return null;
+    }
+
+    private void store(String scope, String question, float[] embedding, AdvisedResponse advisedResponse) {
+        ChatResponse response = advisedResponse.response();
+        if (response == null || response.getResult() == null) {
+            return;
+        }
+        AssistantMessage output = response.getResult().getOutput();
+        // 工具调用的中间结果、空回答不缓存
+        if (output.hasToolCalls() || output.getText() == null || output.getText().isBlank()) {
+            return;
+        }
+        cache.put(key(scope, question), new Entry(scope, embedding, output.getText()));
+    }
+
+    /**
+     * 向量化并归一化，之后用点积即可得到余弦相似度
+     * @param text
+     * @return
+     */
+    private float[] embed(String text) {
+        float[] embedding = embeddingModel.embed(RetrievalCache.normalize(text));
+        double norm = 0;
+        for (float v : embedding) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[embedding.length];
+        for (int i = 0; i < embedding.length; i++) {
+            normalized[i] = norm > 0 ? (float) (embedding[i] / norm) : 0;
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 把缓存的回答按固定字符数切成小段（不拆开代理对）
+     * @param answer
+     * @return
+     */
+    private static Flux<AdvisedResponse> replay(String answer, AdvisedRequest advisedRequest) {
+        List<AdvisedResponse> chunks = new ArrayList<>();
+        int[] codePoints = answer.codePoints().toArray();
+        for (int i = 0; i < codePoints.length; i += REPLAY_CHUNK_SIZE) {
+            String chunk = new String(codePoints, i, Math.min(REPLAY_CHUNK_SIZE, codePoints.length - i));
+            chunks.add(new AdvisedResponse(toChatResponse(chunk), advisedRequest.adviseContext()));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    private static ChatResponse toChatResponse(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static String scope(AdvisedRequest advisedRequest) {
+        Object scope = advisedRequest.adviseContext().get(SCOPE_KEY);
+        return scope != null ? scope.toString() : DEFAULT_SCOPE;
+    }
+
+    private static String question(AdvisedRequest advisedRequest) {
+        Object question = advisedRequest.adviseContext().get(QUESTION_KEY);
+        return question != null ? question.toString() : advisedRequest.userText();
+    }
+
+    private static String key(String scope, String question) {
+        return scope + "|" + RetrievalCache.normalize(question);
+    }
+
+    private static Counter counter(String scope, String result) {
+        return Counter.builder("love_app.semantic_cache.requests")
+                .description("Semantic response cache lookups")
+                .tag("scope", scope)
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+}
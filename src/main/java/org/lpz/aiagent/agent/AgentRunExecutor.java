@@ -0,0 +1,156 @@
+package org.lpz.aiagent.agent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.lpz.aiagent.common.ErrorCode;
+import org.lpz.aiagent.exception.BusinessException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 智能体运行的专用执行器
+ * 智能体的一次运行会长时间阻塞在大模型和工具的网络调用上，不能放在公共的 ForkJoinPool 中执行。
+ * 这里限制同时运行的智能体数量和排队数量，默认使用虚拟线程；
+ * 运行和排队都已满时立即拒绝（TOO_MANY_REQUEST），不让请求无限堆积。
+ * 虚拟线程不池化：每次运行新建一个虚拟线程，用信号量做准入（运行 + 排队的总数）和并发限制，
+ * 排队的运行就是阻塞在并发信号量上的虚拟线程；只有关闭虚拟线程时才使用固定大小的线程池。
+ * 指标：agent.run.active（运行中）、agent.run.queue.depth（排队中）、agent.run.wait（排队耗时）、agent.run.rejected（被拒绝次数）
+ */
+@Component
+@Slf4j
+public class AgentRunExecutor implements Executor {
+
+    private final ExecutorService delegate;
+
+    // 准入许可：运行中 + 排队中的总数上限，线程池模式下由有界队列限制，为 null
+    private final Semaphore admission;
+
+    // 运行许可：同时运行的数量上限，线程池模式下由线程数限制，为 null
+    private final Semaphore runSlots;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final Timer waitTimer;
+
+    private final Counter rejectedCounter;
+
+    /**
+     * @param maxConcurrentRuns 同时运行的智能体数量上限
+     * @param queueCapacity 排队等待的数量上限
+     * @param virtualThreads 是否使用虚拟线程
+     */
+    public AgentRunExecutor(@Value("${agent.executor.max-concurrent-runs:16}") int maxConcurrentRuns,
+                            @Value("${agent.executor.queue-capacity:64}") int queueCapacity,
+                            @Value("${agent.executor.virtual-threads:true}") boolean virtualThreads) {
+        if (virtualThreads) {
+            this.delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("agent-run-", 0).factory());
+            this.admission = new Semaphore(maxConcurrentRuns + queueCapacity);
+            // 公平模式，排队的运行按提交顺序开始
+            this.runSlots = new Semaphore(maxConcurrentRuns, true);
+        } else {
+            // 核心线程数等于最大线程数，超出的请求进入有界队列，队列满时抛出 RejectedExecutionException
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxConcurrentRuns, maxConcurrentRuns,
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                    Thread.ofPlatform().name("agent-run-", 0).daemon(true).factory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            this.delegate = threadPoolExecutor;
+            this.admission = null;
+            this.runSlots = null;
+        }
+
+        Gauge.builder("agent.run.active", active, AtomicInteger::get)
+                .description("Agent runs currently executing")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("agent.run.queue.depth", queued, AtomicInteger::get)
+                .description("Agent runs waiting for a free slot")
+                .register(Metrics.globalRegistry);
+        this.waitTimer = Timer.builder("agent.run.wait")
+                .description("Time agent runs spent waiting in the queue")
+                .register(Metrics.globalRegistry);
+        this.rejectedCounter = Counter.builder("agent.run.rejected")
+                .description("Agent runs rejected because the executor was full")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 提交一次智能体运行
+     * @param command
+     * @throws BusinessException 运行和排队都已满时抛出 TOO_MANY_REQUEST
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (admission != null && !admission.tryAcquire()) {
+            throw reject();
+        }
+        long enqueuedAt = System.nanoTime();
+        queued.incrementAndGet();
+        try {
+            delegate.execute(() -> run(command, enqueuedAt));
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            if (admission != null) {
+                admission.release();
+            }
+            throw reject();
+        }
+    }
+
+    private void run(Runnable command, long enqueuedAt) {
+        try {
+            if (runSlots != null) {
+                runSlots.acquireUninterruptibly();
+            }
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            waitTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+            try {
+                command.run();
+            } finally {
+                active.decrementAndGet();
+                if (runSlots != null) {
+                    runSlots.release();
+                }
+            }
+        } finally {
+            if (admission != null) {
+                admission.release();
+            }
+        }
+    }
+
+    private BusinessException reject() {
+        rejectedCounter.increment();
+        log.warn("智能体执行器已满，拒绝请求：运行中 {}，排队 {}", active.get(), queued.get());
+        return new BusinessException(ErrorCode.TOO_MANY_REQUEST, "当前运行的智能体过多，请稍后重试");
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        delegate.shutdownNow();
+    }
+}
@@ -3,7 +3,9 @@ package org.lpz.aiagent.agent;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.lpz.aiagent.agent.context.ContextManager;
 import org.lpz.aiagent.agent.model.AgentState;
+import org.lpz.aiagent.tools.SearchQuota;
 import org.lpz.aiagent.tools.WebSearchTool;
 import org.lpz.aiagent.utils.ResponseCleanupUtil;
 import org.springframework.ai.chat.client.ChatClient;
@@ -15,6 +17,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -48,6 +51,15 @@ public abstract class BaseAgent {
     //Memory (需要自出维护会话上下文)
     private List<Message> messageList = new ArrayList<>();
 
+    //上下文管理器，每次调用大模型前整理消息上下文，为 null 时发送完整的上下文
+    private ContextManager contextManager;
+
+    //执行流式运行的执行器（通常是 AgentRunExecutor），限制并发运行数和排队数，未设置时拒绝流式运行
+    private Executor executor;
+
+    //取消标记，客户端断开或超时后置为取消，运行循环在步骤之间检查
+    private final CancellationToken cancellationToken = new CancellationToken();
+
     public String run(String userPrompt) {
 
         if (this.state != AgentState.IDLE) {
@@ -61,6 +73,9 @@ public abstract class BaseAgent {
         //更改状态
         state = AgentState.RUNNING;
 
+        //本次运行的搜索次数配额（工具线程继承）
+        SearchQuota.begin(WebSearchTool.MAX_SEARCH_CALLS);
+
         //记录消息上下文
         messageList.add(new UserMessage(userPrompt));
 
@@ -105,10 +120,14 @@ public abstract class BaseAgent {
      * @return
      */
     public SseEmitter runStream(String userPrompt) {
+        // 没有执行器时不退回无界的线程，避免绕过并发控制
+        if (executor == null) {
+            throw new IllegalStateException("Agent " + name + " has no executor for streaming runs");
+        }
         // 创建SseEmitter，设置较长的超时时间
         SseEmitter sseEmitter = new SseEmitter(300000L);// 5分钟超时时间
 
-        // 使用线程异步处理，防止阻塞主线程
+        // 使用线程异步处理，防止阻塞主线程（执行器已满时直接抛出异常，拒绝本次请求）
         CompletableFuture.runAsync(() -> {
 
             try {
@@ -127,6 +146,9 @@ public abstract class BaseAgent {
                 //更改状态
                 state = AgentState.RUNNING;
 
+                //本次运行的搜索次数配额（工具线程继承）
+                SearchQuota.begin(WebSearchTool.MAX_SEARCH_CALLS);
+
                 //记录消息上下文
                 messageList.add(new UserMessage(userPrompt));
 
@@ -134,18 +156,37 @@ public abstract class BaseAgent {
                 List<String> results = new ArrayList<>();
 
                 try {
-                    for (int i = 0;i < maxSteps && state != AgentState.FINISHED;i++) {
-                        int stepNumber = i + 1;
-                        currentStep = stepNumber;
-                        log.info("Executing step " + stepNumber + "/" + maxSteps);
-
-                        // 单步执行
-                        String stepResult = step();
-                        String result = "Step " + stepNumber + ": " + stepResult;
-                        results.add(result);
-                        //发送每一步的结果
-                        sseEmitter.send(result);
+                    // 取消时中断当前线程，让阻塞中的大模型调用和工具调用尽快返回
+                    Thread worker = Thread.currentThread();
+                    try (CancellationToken.Registration ignored = cancellationToken.onCancel(worker::interrupt)) {
+                        for (int i = 0; i < maxSteps && state != AgentState.FINISHED && !cancellationToken.isCancelled(); i++) {
+                            int stepNumber = i + 1;
+                            currentStep = stepNumber;
+                            log.info("Executing step " + stepNumber + "/" + maxSteps);
+
+                            // 单步执行
+                            String stepResult = step();
+                            if (cancellationToken.isCancelled()) {
+                                break;
+                            }
+                            String result = "Step " + stepNumber + ": " + stepResult;
+                            results.add(result);
+                            //发送每一步的结果，发送失败说明客户端已断开
+                            try {
+                                sseEmitter.send(result);
+                            } catch (IOException e) {
+                                cancellationToken.cancel();
+                            }
+                        }
+                    } finally {
+                        // 注销后清除可能残留的中断标记，避免影响线程池中的后续任务
+                        Thread.interrupted();
+                    }
 
+                    if (cancellationToken.isCancelled()) {
+                        state = AgentState.CANCELLED;
+                        log.info("Agent run cancelled at step {}", currentStep);
+                        return;
                     }
 
                     // 检查是否超过步骤限制
@@ -175,17 +216,25 @@ public abstract class BaseAgent {
                 sseEmitter.completeWithError(e);
             }
 
-        });
+        }, executor);
 
         // 设置超时回调
         sseEmitter.onTimeout(() -> {
+            cancellationToken.cancel();
             this.state = AgentState.ERROR;
             this.cleanup();
             log.warn("SSE connection timed out");
         });
 
-        // 设置完成回调
+        // 设置错误回调（客户端断开连接等）
+        sseEmitter.onError(e -> {
+            cancellationToken.cancel();
+            log.warn("SSE connection error: {}", e.getMessage());
+        });
+
+        // 设置完成回调，运行中的智能体随之取消
         sseEmitter.onCompletion(() -> {
+            cancellationToken.cancel();
             if (this.state == AgentState.RUNNING) {
                 this.state = AgentState.FINISHED;
             }
@@ -363,9 +412,9 @@ public abstract class BaseAgent {
      * 清理资源
      */
     protected void cleanup() {
-        // 重置WebSearchTool的搜索次数计数器
-        WebSearchTool.resetSearchCallCount();
-        log.debug("清理资源：已重置WebSearchTool的搜索次数计数器");
+        // 解除本次运行的搜索次数配额
+        SearchQuota.end();
+        log.debug("清理资源：已解除本次运行的搜索次数配额");
         // 子类可以重写该方法来清理资源
     }
 }
@@ -0,0 +1,65 @@
+package org.lpz.aiagent.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 协作式取消标记
+ * 客户端断开、超时等情况下调用 cancel()，运行中的智能体在步骤之间检查 isCancelled() 后主动退出；
+ * 通过 onCancel 注册的回调（如中断正在执行网络调用的线程）会在取消时立即执行。
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    private final List<Runnable> callbacks = new ArrayList<>();
+
+    /**
+     * 取消，重复调用无副作用
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            // 在锁内执行回调，保证 Registration.close() 返回后不会再有回调执行
+            callbacks.forEach(Runnable::run);
+            callbacks.clear();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 注册取消回调，已取消时立即执行
+     * @param callback
+     * @return 用于注销回调的句柄，关闭后回调不会再被执行
+     */
+    public Registration onCancel(Runnable callback) {
+        synchronized (this) {
+            if (cancelled) {
+                callback.run();
+                return () -> {
+                };
+            }
+            callbacks.add(callback);
+        }
+        return () -> {
+            synchronized (this) {
+                callbacks.remove(callback);
+            }
+        };
+    }
+
+    /**
+     * 取消回调的注册句柄
+     */
+    public interface Registration extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
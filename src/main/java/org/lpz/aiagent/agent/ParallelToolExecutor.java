@@ -0,0 +1,122 @@
+package org.lpz.aiagent.agent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.execution.ToolExecutionException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 并行执行同一步中的多个工具调用
+ * 大模型在一条助手消息中同时发起的工具调用彼此独立，这里为每个调用分配一个虚拟线程并发执行，
+ * 整步共享一个截止时间，超时未完成的调用会被中断并以超时说明作为结果。
+ * 工具结果按调用顺序写入 ToolResponseMessage，返回的上下文和 ToolCallingManager 的格式一致，
+ * 一步的耗时约等于其中最慢的一个调用。
+ */
+@Slf4j
+public class ParallelToolExecutor {
+
+    private static final ExecutorService TOOL_EXECUTOR =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("tool-call-", 0).factory());
+
+    // 一步中所有工具调用的总截止时间
+    private final Duration stepTimeout;
+
+    public ParallelToolExecutor(Duration stepTimeout) {
+        this.stepTimeout = stepTimeout;
+    }
+
+    /**
+     * 执行模型响应中的所有工具调用
+     * @param prompt 发起本次调用的提示词
+     * @param chatResponse 包含工具调用的模型响应
+     * @param toolCallbacks 可用的工具
+     * @return 追加了助手消息和工具结果的上下文
+     */
+    public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse, ToolCallback[] toolCallbacks) {
+        AssistantMessage assistantMessage = chatResponse.getResults().stream()
+                .map(Generation::getOutput)
+                .filter(AssistantMessage::hasToolCalls)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No tool call requested by the chat model"));
+        List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getToolCalls();
+
+        // 1.先找到所有工具，有不存在的工具时直接失败，不启动任何调用
+        List<ToolCallback> callbacks = new ArrayList<>(toolCalls.size());
+        boolean returnDirect = true;
+        for (AssistantMessage.ToolCall toolCall : toolCalls) {
+            ToolCallback callback = Arrays.stream(toolCallbacks)
+                    .filter(tool -> toolCall.name().equals(tool.getToolDefinition().name()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No ToolCallback found for tool name: " + toolCall.name()));
+            callbacks.add(callback);
+            returnDirect = returnDirect && callback.getToolMetadata().returnDirect();
+        }
+
+        // 2.并发执行
+        ToolContext toolContext = new ToolContext(Map.of());
+        List<Future<String>> futures = new ArrayList<>(toolCalls.size());
+        for (int i = 0; i < toolCalls.size(); i++) {
+            ToolCallback callback = callbacks.get(i);
+            String arguments = toolCalls.get(i).arguments();
+            futures.add(TOOL_EXECUTOR.submit(() -> callback.call(arguments, toolContext)));
+        }
+
+        // 3.按调用顺序收集结果，所有调用共享同一个截止时间
+        long deadline = System.nanoTime() + stepTimeout.toNanos();
+        List<ToolResponseMessage.ToolResponse> toolResponses = new ArrayList<>(toolCalls.size());
+        for (int i = 0; i < toolCalls.size(); i++) {
+            AssistantMessage.ToolCall toolCall = toolCalls.get(i);
+            String result = awaitResult(toolCall, futures.get(i), deadline);
+            toolResponses.add(new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), result));
+        }
+
+        List<Message> conversationHistory = new ArrayList<>(prompt.getInstructions());
+        conversationHistory.add(assistantMessage);
+        conversationHistory.add(new ToolResponseMessage(toolResponses, Map.of()));
+        return ToolExecutionResult.builder()
+                .conversationHistory(conversationHistory)
+                .returnDirect(returnDirect)
+                .build();
+    }
+
+    private String awaitResult(AssistantMessage.ToolCall toolCall, Future<String> future, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            log.warn("工具 {} 执行超时，已取消", toolCall.name());
+            return "工具执行超时（本步限时 " + stepTimeout.toSeconds() + " 秒），已取消";
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            log.error("工具 {} 执行失败", toolCall.name(), cause);
+            if (cause instanceof ToolExecutionException) {
+                return cause.getMessage();
+            }
+            return "工具执行失败: " + cause.getMessage();
+        } catch (InterruptedException e) {
+            // 调用方被中断（如请求被取消），取消尚未完成的调用
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return "工具执行被中断";
+        }
+    }
+}
@@ -41,6 +41,10 @@ public abstract class ReActAgent extends BaseAgent {
             if (!shouldAct) {
                 return "思考完成 - 无需行动";
             }
+            // 思考期间运行已被取消，不再执行工具调用
+            if (getCancellationToken().isCancelled()) {
+                return "运行已取消 - 跳过行动";
+            }
             return act();
         } catch (Exception e) {
             // 记录异常日志
@@ -18,6 +18,7 @@ import org.springframework.ai.model.tool.ToolCallingManager;
 import org.springframework.ai.model.tool.ToolExecutionResult;
 import org.springframework.ai.tool.ToolCallback;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -41,6 +42,9 @@ public class ToolCallAgent extends ReActAgent{
     //禁用内置的工具调用机制，自己维护上下文
     private final ChatOptions chatOptions;
 
+    //并行执行同一步中的多个工具调用，为 null 时由 toolCallManager 依次执行
+    private ParallelToolExecutor parallelToolExecutor = new ParallelToolExecutor(Duration.ofSeconds(120));
+
     public ToolCallAgent(ToolCallback[] availableTools) {
         super();
         this.availableTools = availableTools;
@@ -64,7 +68,11 @@ public class ToolCallAgent extends ReActAgent{
             UserMessage userMessage = new UserMessage(getNextStepPrompt());
             getMessageList().add(userMessage);
         }
-        // 2.调用AI大模型，获取调用结果
+        // 2.控制上下文规模，压缩较早的工具结果
+        if (getContextManager() != null) {
+            setMessageList(getContextManager().apply(getMessageList(), getSystemPrompt()));
+        }
+        // 3.调用AI大模型，获取调用结果
         List<Message> messageList = getMessageList();
         Prompt prompt = new Prompt(messageList,chatOptions);
         try {
@@ -78,7 +86,7 @@ public class ToolCallAgent extends ReActAgent{
             this.toolCallResponse = chatResponse;
             AssistantMessage assistantMessage = chatResponse.getResult().getOutput();
 
-            //3.解析工具调用结果，获取所调用的工具
+            //4.解析工具调用结果，获取所调用的工具
             // 输出提示信息
             String result = assistantMessage.getText();
             List<AssistantMessage.ToolCall> toolCallList = assistantMessage.getToolCalls();
@@ -120,7 +128,9 @@ public class ToolCallAgent extends ReActAgent{
 
         //调用工具
         Prompt prompt = new Prompt(getMessageList(),chatOptions);
-        ToolExecutionResult toolExecutionResult = toolCallManager.executeToolCalls(prompt, toolCallResponse);
+        ToolExecutionResult toolExecutionResult = parallelToolExecutor != null
+                ? parallelToolExecutor.executeToolCalls(prompt, toolCallResponse, availableTools)
+                : toolCallManager.executeToolCalls(prompt, toolCallResponse);
 
         //记录消息上下文，conversationHistory 已经包含了助手消息和工具调用返回的结果
         setMessageList(toolExecutionResult.conversationHistory());
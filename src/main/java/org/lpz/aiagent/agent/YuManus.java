@@ -1,6 +1,7 @@
 package org.lpz.aiagent.agent;
 
 import org.lpz.aiagent.advisor.MyLoggerAdvisor;
+import org.lpz.aiagent.agent.context.TokenBudgetContextManager;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.tool.ToolCallback;
@@ -11,9 +12,15 @@ import org.springframework.stereotype.Component;
  */
 @Component
 public class YuManus extends ToolCallAgent{
-    public YuManus(ToolCallback[] allTools, ChatModel dashscopeChatModel) {
+
+    // 上下文的 token 预算
+    private static final int MAX_CONTEXT_TOKENS = 16000;
+
+    public YuManus(ToolCallback[] allTools, ChatModel dashscopeChatModel, AgentRunExecutor agentRunExecutor) {
         super(allTools);
         this.setName("yuManus");
+        // 流式运行在专用执行器上，并发数和排队数超限时直接拒绝
+        this.setExecutor(agentRunExecutor);
 
         String SYSTEM_PROMPT = """  
                 You are YuManus, an all-capable AI assistant, aimed at solving any task presented by the user.  
@@ -30,6 +37,9 @@ public class YuManus extends ToolCallAgent{
 
         this.setMaxSteps(20);
 
+        // 控制每次发送给大模型的上下文规模，较早的网页、搜索等工具结果会被截断或省略
+        this.setContextManager(new TokenBudgetContextManager(MAX_CONTEXT_TOKENS));
+
         // 初始化客户端
         ChatClient chatClient = ChatClient.builder(dashscopeChatModel)
                 .defaultAdvisors(new MyLoggerAdvisor())
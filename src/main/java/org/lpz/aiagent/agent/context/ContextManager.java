@@ -0,0 +1,20 @@
+package org.lpz.aiagent.agent.context;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 智能体上下文管理器
+ * 每次调用大模型前对消息上下文进行整理（截断、摘要、丢弃旧消息等），控制发送给模型的提示词规模
+ */
+public interface ContextManager {
+
+    /**
+     * 整理消息上下文
+     * @param messages 当前的消息上下文（不含系统提示词）
+     * @param systemPrompt 系统提示词，会随每次请求一起发送，需要计入预算
+     * @return 整理后的消息上下文（可修改的列表）
+     */
+    List<Message> apply(List<Message> messages, String systemPrompt);
+}
@@ -0,0 +1,183 @@
+package org.lpz.aiagent.agent.context;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * 基于 token 预算的上下文管理器
+ * 估算的 token 数超出预算时，按以下顺序逐步压缩，直到回到预算内：
+ * 1. 把较早的工具结果去掉 HTML 标签，并截断为开头 + 结尾的片段；
+ * 2. 把较早的工具结果替换为一行占位说明；
+ * 3. 从最早的一轮开始整轮丢弃（工具调用和对应的工具结果一起丢弃）。
+ * 系统提示词、第一条用户消息（任务本身）和最近一轮（最后一次工具调用及之后的消息）始终保留原样。
+ */
+@Slf4j
+public class TokenBudgetContextManager implements ContextManager {
+
+    private static final String TRUNCATED_MARK = "[已截断]";
+
+    private static final String OMITTED_MARK = "[已省略]";
+
+    private static final Pattern HTML_PATTERN = Pattern.compile("<(html|body|div|p|span|a|script|style)[\\s>]",
+            Pattern.CASE_INSENSITIVE);
+
+    // 上下文的 token 预算（含系统提示词）
+    private final int maxTokens;
+
+    // 截断后每个工具结果保留的字符数
+    private final int truncatedChars;
+
+    public TokenBudgetContextManager(int maxTokens) {
+        this(maxTokens, 800);
+    }
+
+    /**
+     * @param maxTokens 上下文的 token 预算（含系统提示词）
+     * @param truncatedChars 截断后每个工具结果保留的字符数
+     */
+    public TokenBudgetContextManager(int maxTokens, int truncatedChars) {
+        if (maxTokens <= 0 || truncatedChars <= 0) {
+            throw new IllegalArgumentException("maxTokens and truncatedChars must be positive");
+        }
+        this.maxTokens = maxTokens;
+        this.truncatedChars = truncatedChars;
+    }
+
+    @Override
+    public List<Message> apply(List<Message> messages, String systemPrompt) {
+        List<Message> result = new ArrayList<>(messages);
+        int[] tokens = new int[result.size()];
+        int total = TokenEstimator.estimate(systemPrompt);
+        for (int i = 0; i < result.size(); i++) {
+            tokens[i] = TokenEstimator.estimate(result.get(i));
+            total += tokens[i];
+        }
+        if (total <= maxTokens) {
+            return result;
+        }
+        int before = total;
+        int protectedFrom = latestTurnStart(result);
+
+        // 1.截断较早的工具结果
+        for (int i = 0; i < protectedFrom && total > maxTokens; i++) {
+            if (result.get(i) instanceof ToolResponseMessage toolResponseMessage) {
+                Message compacted = rewrite(toolResponseMessage, this::truncate);
+                total += replace(result, tokens, i, compacted);
+            }
+        }
+        // 2.用占位说明替换较早的工具结果
+        for (int i = 0; i < protectedFrom && total > maxTokens; i++) {
+            if (result.get(i) instanceof ToolResponseMessage toolResponseMessage) {
+                Message compacted = rewrite(toolResponseMessage, data -> OMITTED_MARK + " 历史工具结果已省略以节省上下文");
+                total += replace(result, tokens, i, compacted);
+            }
+        }
+        // 3.从最早的一轮开始整轮丢弃，保留第一条用户消息
+        int firstUser = firstUserMessage(result);
+        List<Message> kept = new ArrayList<>(result.size());
+        for (int i = 0; i < result.size(); i++) {
+            boolean droppable = i < protectedFrom && i != firstUser;
+            if (droppable && total > maxTokens) {
+                total -= tokens[i];
+                // 工具调用消息和紧随其后的工具结果必须一起丢弃，否则模型接口会报错
+                while (i + 1 < protectedFrom && result.get(i + 1) instanceof ToolResponseMessage) {
+                    i++;
+                    total -= tokens[i];
+                }
+                continue;
+            }
+            kept.add(result.get(i));
+        }
+        if (total > maxTokens) {
+            log.warn("最近一轮的上下文已超出预算：约 {} tokens，预算 {}", total, maxTokens);
+        }
+        log.info("上下文约 {} tokens，超出预算 {}，压缩后约 {} tokens，消息数 {} -> {}",
+                before, maxTokens, total, messages.size(), kept.size());
+        return kept;
+    }
+
+    /**
+     * 最近一轮的起始位置：最后一条工具结果对应的工具调用消息，没有工具调用时为最后一条用户消息
+     * @param messages
+     * @return
+     */
+    private int latestTurnStart(List<Message> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            Message message = messages.get(i);
+            if (message instanceof ToolResponseMessage) {
+                while (i > 0 && messages.get(i - 1) instanceof ToolResponseMessage) {
+                    i--;
+                }
+                if (i > 0 && messages.get(i - 1) instanceof AssistantMessage assistantMessage
+                        && assistantMessage.hasToolCalls()) {
+                    return i - 1;
+                }
+                return i;
+            }
+        }
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof UserMessage) {
+                return i;
+            }
+        }
+        return messages.size();
+    }
+
+    private int firstUserMessage(List<Message> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i) instanceof UserMessage) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 替换第 index 条消息
+     * @return token 数的变化量
+     */
+    private int replace(List<Message> messages, int[] tokens, int index, Message message) {
+        int newTokens = TokenEstimator.estimate(message);
+        int delta = newTokens - tokens[index];
+        messages.set(index, message);
+        tokens[index] = newTokens;
+        return delta;
+    }
+
+    private ToolResponseMessage rewrite(ToolResponseMessage message, UnaryOperator<String> rewriter) {
+        List<ToolResponseMessage.ToolResponse> responses = message.getResponses().stream()
+                .map(response -> new ToolResponseMessage.ToolResponse(response.id(), response.name(),
+                        rewriter.apply(response.responseData())))
+                .toList();
+        return new ToolResponseMessage(responses, message.getMetadata());
+    }
+
+    /**
+     * 去掉 HTML 标签后保留开头和结尾的片段
+     * @param data
+     * @return
+     */
+    private String truncate(String data) {
+        if (data == null || data.startsWith(TRUNCATED_MARK) || data.startsWith(OMITTED_MARK)) {
+            return data;
+        }
+        String text = HTML_PATTERN.matcher(data).find() ? Jsoup.parse(data).text() : data;
+        if (text.length() <= truncatedChars) {
+            return text;
+        }
+        int head = truncatedChars * 3 / 4;
+        int tail = truncatedChars - head;
+        return TRUNCATED_MARK + " " + text.substring(0, head)
+                + " ……（中间约 " + TokenEstimator.estimate(text.substring(head, text.length() - tail)) + " tokens 已省略）…… "
+                + text.substring(text.length() - tail);
+    }
+}
@@ -1,12 +1,19 @@
 package org.lpz.aiagent.app;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.lpz.aiagent.advisor.MyLoggerAdvisor;
 import org.lpz.aiagent.advisor.ReReadingAdvisor;
+import org.lpz.aiagent.advisor.SemanticCacheAdvisor;
+import org.lpz.aiagent.chatmemory.CachingChatMemory;
 import org.lpz.aiagent.chatmemory.FileBasedChatMemory;
 import org.lpz.aiagent.rag.LoveAppRagCustomAdvisorFactory;
 import org.lpz.aiagent.rag.QueryRewriter;
+import org.lpz.aiagent.rag.RagPipeline;
+import org.lpz.aiagent.tools.SearchQuota;
+import org.lpz.aiagent.tools.WebSearchTool;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
@@ -14,17 +21,26 @@ import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.FunctionPromptTemplate;
 import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbackProvider;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
 
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_RETRIEVE_SIZE_KEY;
@@ -35,6 +51,18 @@ public class LoveApp {
 
     private final ChatClient chatClient;
 
+    // 带写回缓存的对话记忆，应用关闭时需要刷出待写入的消息
+    private final CachingChatMemory chatMemory;
+
+    // 不使用语义缓存的接口
+    private final Set<String> semanticCacheDisabledEndpoints;
+
+    // 知识库问答专用的 ChatClient：对话历史由 ragPipeline 并行加载，不挂对话记忆 Advisor
+    private final ChatClient ragChatClient;
+
+    // 知识库问答的准备流水线（查询重写、历史加载、检索并行执行）
+    private RagPipeline ragPipeline;
+
 //    private static final String SYSTEM_PROMPT = "扮演深耕恋爱心理领域的专家。开场向用户表明身份，告知用户可倾诉恋爱\n" +
 //            "难题。围绕单身、恋爱、已婚三种状态提问：单身状态询问社交圈拓展及追\n" +
 //            "求心仪对象的困扰；恋爱状态询问沟通、习惯差异引发的矛盾；已婚状态询\n" +
@@ -51,26 +79,102 @@ public class LoveApp {
     /**
      * 初始化 ChatClient（AI客户端）
      * @param dashscopeChatModel
+     * @param idleTtl 会话空闲过期时间
+     * @param sweepInterval 过期会话的清理间隔
+     * @param sweepBatchSize 每轮最多清理的会话数
+     * @param dashscopeEmbeddingModel 语义缓存的问题向量化模型
+     * @param semanticCacheEnabled 是否开启语义缓存
+     * @param similarityThreshold 语义缓存命中所需的相似度
+     * @param semanticCacheCapacity 语义缓存的回答数上限
+     * @param semanticCacheTtl 语义缓存存活时间
+     * @param semanticCacheDisabledEndpoints 不使用语义缓存的接口
      */
     //这里是直接根据名称dashscopeChatModel查找
-    public LoveApp(ChatModel dashscopeChatModel) {
-
-        //初始化基于文件的对话记忆
+    public LoveApp(ChatModel dashscopeChatModel,
+                   @Value("${chat-memory.idle-ttl:7d}") Duration idleTtl,
+                   @Value("${chat-memory.sweep-interval:1m}") Duration sweepInterval,
+                   @Value("${chat-memory.sweep-batch-size:500}") int sweepBatchSize,
+                   EmbeddingModel dashscopeEmbeddingModel,
+                   @Value("${semantic-cache.enabled:true}") boolean semanticCacheEnabled,
+                   @Value("${semantic-cache.similarity-threshold:0.95}") double similarityThreshold,
+                   @Value("${semantic-cache.capacity:1000}") int semanticCacheCapacity,
+                   @Value("${semantic-cache.ttl:1h}") Duration semanticCacheTtl,
+                   @Value("${semantic-cache.disabled-endpoints:report,tools,mcp}") Set<String> semanticCacheDisabledEndpoints) {
+
+        //初始化基于文件的对话记忆（按会话 id 哈希分目录存放，空闲过期的会话由后台清理）
         String fileDir = System.getProperty("user.dir") + "/tmp/chat-memory";
-        ChatMemory chatMemory = new FileBasedChatMemory(fileDir);
+        ChatMemory fileChatMemory = new FileBasedChatMemory(fileDir, idleTtl, sweepInterval, sweepBatchSize);
+
+//        //初始化基于追加写日志的对话记忆（每轮只追加新消息，过长的活动段由后台滚动为历史段，保留全部消息）
+//        ChatMemory fileChatMemory = new AppendOnlyFileChatMemory(fileDir);
+
+//        //初始化基于内存映射文件的对话记忆（所有会话追加到大段文件中，索引放在堆外，适合大量活跃会话）
+//        ChatMemory fileChatMemory = new MappedChatMemory(fileDir);
+
+        // 热点会话缓存在内存中，后台线程批量写回文件
+        chatMemory = new CachingChatMemory(fileChatMemory);
+        // 缓存中的会话不经过文件读写，过期清理要先经过缓存层确认
+        if (fileChatMemory instanceof FileBasedChatMemory fileBasedChatMemory) {
+            fileBasedChatMemory.setExpiryGuard(chatMemory::expireIfIdle);
+        }
 
 //       //初始化基于内存的对话记忆
 //        ChatMemory chatMemory = new InMemoryChatMemory();
+        List<Advisor> advisors = new ArrayList<>(List.of(
+                new MessageChatMemoryAdvisor(chatMemory),
+                //自定义日志Advisor，可按需开启
+                new MyLoggerAdvisor()
+//                //自定义推理增强Advisor，可按需开启
+//                ,new ReReadingAdvisor()
+        ));
+        List<Advisor> ragAdvisors = new ArrayList<>(List.of(new MyLoggerAdvisor()));
+        // 语义缓存：没有历史消息的会话中，相似的问题直接返回缓存的回答
+        if (semanticCacheEnabled) {
+            SemanticCacheAdvisor semanticCacheAdvisor = new SemanticCacheAdvisor(dashscopeEmbeddingModel,
+                    similarityThreshold, semanticCacheCapacity, semanticCacheTtl);
+            advisors.add(semanticCacheAdvisor);
+            ragAdvisors.add(semanticCacheAdvisor);
+        }
+        this.semanticCacheDisabledEndpoints = semanticCacheDisabledEndpoints;
         chatClient = ChatClient.builder(dashscopeChatModel)
                 .defaultSystem(SYSTEM_PROMPT)
-                .defaultAdvisors(
-                        new MessageChatMemoryAdvisor(chatMemory),
-                        //自定义日志Advisor，可按需开启
-                        new MyLoggerAdvisor()
-//                        //自定义推理增强Advisor，可按需开启
-//                        ,new ReReadingAdvisor()
-                )
+                .defaultAdvisors(advisors)
                 .build();
+        ragChatClient = ChatClient.builder(dashscopeChatModel)
+                .defaultSystem(SYSTEM_PROMPT)
+                .defaultAdvisors(ragAdvisors)
+                .build();
+    }
+
+    /**
+     * 依赖注入完成后创建知识库问答流水线
+     */
+    @PostConstruct
+    public void init() {
+        ragPipeline = RagPipeline.builder()
+                // 使用查询重写器
+                .queryRewriter(queryRewriter::doQueryRewriter)
+                .chatMemory(chatMemory)
+                // 混合检索（pgVector 向量检索 + BM25 关键词检索，RRF 融合），可通过 rag.multi-query 开启多查询扩展
+                .documentRetriever(loveAppRagRetriever)
+                .build();
+    }
+
+    /**
+     * 应用关闭时刷出缓存中还未写入文件的对话记忆
+     */
+    @PreDestroy
+    public void destroy() {
+        chatMemory.close();
+    }
+
+    /**
+     * 接口是否使用语义缓存
+     * @param endpoint 接口名（chat、stream、report、rag、tools、mcp）
+     * @return
+     */
+    private boolean semanticCacheEnabled(String endpoint) {
+        return !semanticCacheDisabledEndpoints.contains(endpoint);
     }
 
     /**
@@ -83,7 +187,9 @@ public class LoveApp {
         ChatResponse chatResponse = chatClient.prompt()
                 .user(message)
                 .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 1)) //支持记忆的对话条数为10
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 1) //支持记忆的对话条数为10
+                        .param(SemanticCacheAdvisor.SCOPE_KEY, "chat")
+                        .param(SemanticCacheAdvisor.ENABLED_KEY, semanticCacheEnabled("chat")))
                 .call()
                 .chatResponse();
 
@@ -102,7 +208,9 @@ public class LoveApp {
         return chatClient.prompt()
                 .user(message)
                 .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 1)) //支持记忆的对话条数为10
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 1) //支持记忆的对话条数为10
+                        .param(SemanticCacheAdvisor.SCOPE_KEY, "chat")
+                        .param(SemanticCacheAdvisor.ENABLED_KEY, semanticCacheEnabled("stream")))
                 .stream()
                 .content();
     }
@@ -123,7 +231,9 @@ public class LoveApp {
                 .system(SYSTEM_PROMPT + "每次对话后都要生成恋爱结果，标题为{用户名}的恋爱报告，内容为建议列表")
                 .user(message)
                 .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10)) //支持记忆的对话条数为10
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10) //支持记忆的对话条数为10
+                        .param(SemanticCacheAdvisor.SCOPE_KEY, "report")
+                        .param(SemanticCacheAdvisor.ENABLED_KEY, semanticCacheEnabled("report")))
                 .call()
                 .entity(LoveReport.class);
 
@@ -144,6 +254,9 @@ public class LoveApp {
     @Resource
     private QueryRewriter queryRewriter;
 
+    @Resource
+    private DocumentRetriever loveAppRagRetriever;
+
 
     /**
      * 和 RAG 知识库进行对话
@@ -153,33 +266,39 @@ public class LoveApp {
      */
     public String doChatWithRag(String message,String chatId){
 
-        String rewriterMessage = queryRewriter.doQueryRewriter(message);
+        // 查询重写和对话历史加载并行，重写完成后检索
+        RagPipeline.Prepared prepared = ragPipeline.prepare(message, chatId, 10);
 
-        ChatResponse chatResponse = chatClient
+        ChatResponse chatResponse = prepared.timings().time("generation", () -> ragChatClient
                 .prompt()
-                // 使用查询重写器
-                .user(rewriterMessage)
+                // 支持多轮对话（历史由流水线加载）
+                .messages(prepared.history())
+                // 拼接了检索文档的重写查询
+                .user(prepared.augmentedQuery())
 //                .user(message)
-                // 支持多轮对话
-                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
-                // 开启日志，便于观察效果
-                .advisors(new MyLoggerAdvisor())
+                .advisors(spec -> spec.param(SemanticCacheAdvisor.SCOPE_KEY, "rag")
+                        .param(SemanticCacheAdvisor.ENABLED_KEY, semanticCacheEnabled("rag"))
+                        .param(SemanticCacheAdvisor.QUESTION_KEY, prepared.query()))
                 // 应用RAG知识库问答
 //                .advisors(new QuestionAnswerAdvisor(loveAppVectorStore))
                 //应用 RAG 检索增强服务（基于云知识库）
 //                .advisors(loveAppRagCloudAdvisor)
                 // 应用 RAG 检索增强服务 （基于pgVector）
-                .advisors(new QuestionAnswerAdvisor(pgVectorVectorStore))
+//                .advisors(new QuestionAnswerAdvisor(pgVectorVectorStore))
                 // 应用自定义的RAG检索增强服务（文档查询器 + 上下文文本增强）
 //                .advisors(
 //                        LoveAppRagCustomAdvisorFactory.createLoveAppRagCustomAdvisor(
 //                                loveAppVectorStore,"单身")
 //                )
                 .call()
-                .chatResponse();
+                .chatResponse());
 
-        String content = chatResponse.getResult().getOutput().getText();
+        // 写入对话记忆（记录重写后的问题，不含检索文档）
+        AssistantMessage output = chatResponse.getResult().getOutput();
+        chatMemory.add(chatId, List.of(new UserMessage(prepared.query()), output));
+
+        String content = output.getText();
+        log.info("RAG 各阶段耗时(ms): {}", prepared.timings());
         log.info("content: {}",content);
         return content;
     }
@@ -195,17 +314,19 @@ public class LoveApp {
      */
     public String doChatWithTools(String message,String chatId){
 
-        ChatResponse chatResponse = chatClient
+        ChatResponse chatResponse = withSearchQuota(() -> chatClient
                 .prompt()
                 // 支持多轮对话
                 .user(message)
                 .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10)
+                        .param(SemanticCacheAdvisor.SCOPE_KEY, "tools")
+                        .param(SemanticCacheAdvisor.ENABLED_KEY, semanticCacheEnabled("tools")))
                 // 开启日志，便于观察效果
                 .advisors(new MyLoggerAdvisor())
                 .tools(allTools)
                 .call()
-                .chatResponse();
+                .chatResponse());
 
         String content = chatResponse.getResult().getOutput().getText();
         log.info("content: {}",content);
@@ -222,21 +343,37 @@ public class LoveApp {
      */
     public String doChatWithMcp(String message,String chatId){
 
-        ChatResponse chatResponse = chatClient
+        ChatResponse chatResponse = withSearchQuota(() -> chatClient
                 .prompt()
                 // 支持多轮对话
                 .user(message)
                 .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10)
+                        .param(SemanticCacheAdvisor.SCOPE_KEY, "mcp")
+                        .param(SemanticCacheAdvisor.ENABLED_KEY, semanticCacheEnabled("mcp")))
                 // 开启日志，便于观察效果
                 .advisors(new MyLoggerAdvisor())
                 .tools(toolCallbackProvider)
                 .call()
-                .chatResponse();
+                .chatResponse());
 
         String content = chatResponse.getResult().getOutput().getText();
         log.info("content: {}",content);
         return content;
     }
 
+    /**
+     * 一轮带工具的对话使用一份搜索次数配额，和智能体的一次运行相同
+     * @param call
+     * @return
+     */
+    private <T> T withSearchQuota(Supplier<T> call) {
+        SearchQuota.begin(WebSearchTool.MAX_SEARCH_CALLS);
+        try {
+            return call.get();
+        } finally {
+            SearchQuota.end();
+        }
+    }
+
 }
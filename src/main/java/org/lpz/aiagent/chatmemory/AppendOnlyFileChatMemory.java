@@ -0,0 +1,350 @@
+package org.lpz.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 基于追加写日志的对话记忆
+ * 每个会话对应一个活动段文件（.log）和一个索引文件（.idx），格式和读写方式见 RecordLog，
+ * 写入只追加新消息，读取最近 N 条时通过索引直接定位到尾部。
+ * 活动段的消息条数超过上限后由后台线程滚动为只读的历史段（.log.n / .idx.n，n 越大越新），
+ * 历史段的范围记录在 .seg 文件中；滚动只是重命名文件，不丢弃任何消息，活动段的大小因此保持有界。
+ * 默认保留全部历史，设置了保留条数（retention）时才会删除超出保留范围的最旧历史段。
+ */
+@Slf4j
+public class AppendOnlyFileChatMemory implements ChatMemory, AutoCloseable {
+
+    private static final String LOG_SUFFIX = ".log";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    // 历史段范围文件（内容为 "最旧段号 最新段号"）
+    private static final String SEGMENTS_SUFFIX = ".seg";
+
+    // 滚动进行中的标记文件
+    private static final String ROLLING_SUFFIX = ".rolling";
+
+    private final String BASE_DIR;
+
+    // 活动段消息条数超过该值时滚动为历史段
+    private final int segmentMessages;
+
+    // 每个会话至少保留的消息条数，0 表示保留全部
+    private final int retentionMessages;
+
+    // 按会话分段的读写锁，保证同一会话的追加和滚动互斥
+    private final ConversationLocks conversationLocks = new ConversationLocks();
+
+    // 等待滚动的会话
+    private final Set<String> pendingCompaction = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService compactionExecutor;
+
+    public AppendOnlyFileChatMemory(String dir) {
+        this(dir, 1000, 30);
+    }
+
+    /**
+     * 保留全部历史
+     * @param dir 文件保存目录
+     * @param segmentMessages 活动段的消息条数上限，超过后滚动为历史段
+     * @param compactIntervalSeconds 后台滚动的执行间隔（秒）
+     */
+    public AppendOnlyFileChatMemory(String dir, int segmentMessages, long compactIntervalSeconds) {
+        this(dir, segmentMessages, compactIntervalSeconds, 0);
+    }
+
+    /**
+     * @param dir 文件保存目录
+     * @param segmentMessages 活动段的消息条数上限，超过后滚动为历史段
+     * @param compactIntervalSeconds 后台滚动的执行间隔（秒）
+     * @param retentionMessages 每个会话至少保留的消息条数，超出部分所在的历史段整段删除；0 表示保留全部
+     */
+    public AppendOnlyFileChatMemory(String dir, int segmentMessages, long compactIntervalSeconds, int retentionMessages) {
+        if (segmentMessages <= 0 || retentionMessages < 0) {
+            throw new IllegalArgumentException("segmentMessages must be positive and retentionMessages non-negative");
+        }
+        this.BASE_DIR = dir;
+        this.segmentMessages = segmentMessages;
+        this.retentionMessages = retentionMessages;
+        File baseDir = new File(dir);
+        if (!baseDir.exists()) {
+            baseDir.mkdirs();
+        }
+        this.compactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-memory-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactionExecutor.scheduleWithFixedDelay(this::compactPending,
+                compactIntervalSeconds, compactIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            recoverRoll(conversationId);
+            long messageCount = RecordLog.append(getLogFile(conversationId), getIndexFile(conversationId), messages);
+            if (messageCount > segmentMessages) {
+                pendingCompaction.add(conversationId);
+            }
+        } catch (IOException e) {
+            log.error("追加会话记录失败: {}", conversationId, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        if (lastN <= 0) {
+            return List.of();
+        }
+        try {
+            if (hasUnfinishedRoll(conversationId)) {
+                Lock writeLock = conversationLocks.writeLock(conversationId);
+                writeLock.lock();
+                try {
+                    recoverRoll(conversationId);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+            Lock lock = conversationLocks.readLock(conversationId);
+            lock.lock();
+            try {
+                return readTail(conversationId, lastN);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            log.error("读取会话记录失败: {}", conversationId, e);
+            return List.of();
+        }
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            pendingCompaction.remove(conversationId);
+            long[] range = readSegmentRange(conversationId);
+            getIndexFile(conversationId).delete();
+            getLogFile(conversationId).delete();
+            for (long n = range[0]; n <= range[1]; n++) {
+                getSealedIndexFile(conversationId, n).delete();
+                getSealedLogFile(conversationId, n).delete();
+            }
+            getSegmentsFile(conversationId).delete();
+            getRollingFile(conversationId).delete();
+        } catch (IOException e) {
+            log.error("清除会话记录失败: {}", conversationId, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 立即滚动所有待滚动的会话（后台线程定时调用）
+     */
+    public void compactPending() {
+        for (String conversationId : pendingCompaction) {
+            pendingCompaction.remove(conversationId);
+            Lock lock = conversationLocks.writeLock(conversationId);
+            lock.lock();
+            try {
+                recoverRoll(conversationId);
+                roll(conversationId);
+            } catch (IOException e) {
+                log.error("滚动会话记录失败: {}", conversationId, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        compactionExecutor.shutdownNow();
+    }
+
+    /**
+     * 读取最近的 lastN 条记录：先读活动段，不够时再从新到旧读历史段
+     * @param conversationId
+     * @param lastN
+     * @return
+     * @throws IOException
+     */
+    private List<Message> readTail(String conversationId, int lastN) throws IOException {
+        List<List<Message>> parts = new ArrayList<>();
+        List<Message> active = RecordLog.readTail(getLogFile(conversationId), getIndexFile(conversationId), lastN, null);
+        parts.add(active);
+        int remaining = lastN - active.size();
+        if (remaining > 0 && getSegmentsFile(conversationId).exists()) {
+            long[] range = readSegmentRange(conversationId);
+            for (long n = range[1]; n >= range[0] && remaining > 0; n--) {
+                List<Message> sealed = RecordLog.readTail(getSealedLogFile(conversationId, n),
+                        getSealedIndexFile(conversationId, n), remaining, null);
+                parts.add(sealed);
+                remaining -= sealed.size();
+            }
+        }
+        List<Message> messages = new ArrayList<>(parts.stream().mapToInt(List::size).sum());
+        for (int i = parts.size() - 1; i >= 0; i--) {
+            messages.addAll(parts.get(i));
+        }
+        return messages;
+    }
+
+    /**
+     * 把活动段滚动为最新的历史段：只重命名文件，不拷贝也不丢弃消息
+     * 开启保留条数时，再删除完全落在保留范围之外的最旧历史段
+     * @param conversationId
+     * @throws IOException
+     */
+    private void roll(String conversationId) throws IOException {
+        Path logPath = getLogFile(conversationId).toPath();
+        Path indexPath = getIndexFile(conversationId).toPath();
+        if (!Files.exists(logPath) || !Files.exists(indexPath)
+                || RecordLog.count(indexPath.toFile()) <= segmentMessages) {
+            return;
+        }
+        // 先写标记再重命名，中途崩溃由 recoverRoll 补完
+        Files.createFile(getRollingFile(conversationId).toPath());
+        recoverRoll(conversationId);
+        log.info("会话 {} 的活动段已滚动为历史段", conversationId);
+        if (retentionMessages > 0) {
+            applyRetention(conversationId);
+        }
+    }
+
+    /**
+     * 删除保留范围之外的最旧历史段（先更新段范围再删文件，崩溃只会留下无人引用的文件）
+     * @param conversationId
+     * @throws IOException
+     */
+    private void applyRetention(String conversationId) throws IOException {
+        long[] range = readSegmentRange(conversationId);
+        long total = RecordLog.count(getIndexFile(conversationId));
+        for (long n = range[0]; n <= range[1]; n++) {
+            total += RecordLog.count(getSealedIndexFile(conversationId, n));
+        }
+        long oldest = range[0];
+        while (oldest <= range[1]) {
+            long count = RecordLog.count(getSealedIndexFile(conversationId, oldest));
+            if (total - count < retentionMessages) {
+                break;
+            }
+            total -= count;
+            oldest++;
+        }
+        if (oldest == range[0]) {
+            return;
+        }
+        writeSegmentRange(conversationId, oldest, range[1]);
+        for (long n = range[0]; n < oldest; n++) {
+            getSealedIndexFile(conversationId, n).delete();
+            getSealedLogFile(conversationId, n).delete();
+        }
+        log.info("会话 {} 删除了 {} 个超出保留范围的历史段", conversationId, oldest - range[0]);
+    }
+
+    /**
+     * 完成上次中断的滚动：把活动段的文件移动为下一个历史段，全部就位后更新段范围并删除标记
+     * @param conversationId
+     * @throws IOException
+     */
+    private void recoverRoll(String conversationId) throws IOException {
+        if (!hasUnfinishedRoll(conversationId)) {
+            return;
+        }
+        long[] range = readSegmentRange(conversationId);
+        long next = range[1] + 1;
+        Path sealedLog = getSealedLogFile(conversationId, next).toPath();
+        Path sealedIndex = getSealedIndexFile(conversationId, next).toPath();
+        Path logPath = getLogFile(conversationId).toPath();
+        Path indexPath = getIndexFile(conversationId).toPath();
+        if (Files.exists(logPath) && !Files.exists(sealedLog)) {
+            Files.move(logPath, sealedLog, StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (Files.exists(indexPath) && !Files.exists(sealedIndex)) {
+            Files.move(indexPath, sealedIndex, StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (Files.exists(sealedLog) && Files.exists(sealedIndex)) {
+            writeSegmentRange(conversationId, range[1] < range[0] ? next : range[0], next);
+        }
+        Files.deleteIfExists(getRollingFile(conversationId).toPath());
+    }
+
+    private boolean hasUnfinishedRoll(String conversationId) {
+        return getRollingFile(conversationId).exists();
+    }
+
+    /**
+     * 读取历史段范围，没有历史段时返回 {1, 0}
+     * @param conversationId
+     * @return {最旧段号, 最新段号}
+     * @throws IOException
+     */
+    private long[] readSegmentRange(String conversationId) throws IOException {
+        Path segmentsPath = getSegmentsFile(conversationId).toPath();
+        if (!Files.exists(segmentsPath)) {
+            return new long[]{1, 0};
+        }
+        String[] parts = Files.readString(segmentsPath, StandardCharsets.UTF_8).strip().split(" ");
+        return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+    }
+
+    private void writeSegmentRange(String conversationId, long oldest, long newest) throws IOException {
+        Path segmentsPath = getSegmentsFile(conversationId).toPath();
+        Path tmpPath = Path.of(segmentsPath + ".tmp");
+        Files.writeString(tmpPath, oldest + " " + newest, StandardCharsets.UTF_8);
+        Files.move(tmpPath, segmentsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File getLogFile(String conversationId) {
+        return new File(BASE_DIR, conversationId + LOG_SUFFIX);
+    }
+
+    private File getIndexFile(String conversationId) {
+        return new File(BASE_DIR, conversationId + INDEX_SUFFIX);
+    }
+
+    private File getSealedLogFile(String conversationId, long segment) {
+        return new File(BASE_DIR, conversationId + LOG_SUFFIX + "." + segment);
+    }
+
+    private File getSealedIndexFile(String conversationId, long segment) {
+        return new File(BASE_DIR, conversationId + INDEX_SUFFIX + "." + segment);
+    }
+
+    private File getSegmentsFile(String conversationId) {
+        return new File(BASE_DIR, conversationId + SEGMENTS_SUFFIX);
+    }
+
+    private File getRollingFile(String conversationId) {
+        return new File(BASE_DIR, conversationId + ROLLING_SUFFIX);
+    }
+}
@@ -0,0 +1,432 @@
+package org.lpz.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 带写回（write-behind）的 LRU 对话记忆缓存
+ * 热点会话的最近消息保存在内存中，读写都直接命中内存；新增的消息先记为待写入，
+ * 由后台写线程按固定间隔批量刷到被装饰的 ChatMemory。
+ * 缓存按消息总条数限制容量，淘汰会话时同步刷盘，关闭时刷出全部待写入的消息。
+ */
+@Slf4j
+public class CachingChatMemory implements ChatMemory, AutoCloseable {
+
+    private final ChatMemory delegate;
+
+    // 缓存中最多保存的消息总条数
+    private final long maxCachedMessages;
+
+    // 每个会话在内存中最多保留的最近消息条数
+    private final int maxMessagesPerConversation;
+
+    // 保护 cache、evicting、cachedMessages 及会话条目内容的锁，临界区内不做 IO
+    private final Lock cacheLock = new ReentrantLock();
+
+    // 按访问顺序排列的会话缓存
+    private final LinkedHashMap<String, CachedConversation> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 已被淘汰但待写入消息还未刷完的会话，期间再次访问可以直接取回
+    private final Map<String, CachedConversation> evicting = new HashMap<>();
+
+    private long cachedMessages = 0;
+
+    // 同一会话的加载和刷盘串行执行，保证写入被装饰存储的顺序
+    private final ConversationLocks conversationLocks = new ConversationLocks();
+
+    // 有待写入消息的会话
+    private final LinkedBlockingQueue<String> dirtyQueue = new LinkedBlockingQueue<>();
+
+    private final ScheduledExecutorService writerExecutor;
+
+    public CachingChatMemory(ChatMemory delegate) {
+        this(delegate, 100_000, 200, 1000);
+    }
+
+    /**
+     * @param delegate 被装饰的对话记忆（实际的持久化存储）
+     * @param maxCachedMessages 缓存的消息总条数上限
+     * @param maxMessagesPerConversation 每个会话缓存的最近消息条数
+     * @param flushIntervalMillis 后台批量写入的间隔（毫秒）
+     */
+    public CachingChatMemory(ChatMemory delegate, long maxCachedMessages, int maxMessagesPerConversation,
+                             long flushIntervalMillis) {
+        if (maxCachedMessages <= 0 || maxMessagesPerConversation <= 0) {
+            throw new IllegalArgumentException("cache capacity must be positive");
+        }
+        this.delegate = delegate;
+        this.maxCachedMessages = maxCachedMessages;
+        this.maxMessagesPerConversation = maxMessagesPerConversation;
+        this.writerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-memory-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writerExecutor.scheduleWithFixedDelay(this::flushDirty,
+                flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<CachedConversation> evicted;
+        while (true) {
+            cacheLock.lock();
+            try {
+                CachedConversation conversation = lookup(conversationId);
+                if (conversation != null) {
+                    conversation.append(messages);
+                    cachedMessages += messages.size() - conversation.trim(maxMessagesPerConversation);
+                    if (!conversation.dirty) {
+                        conversation.dirty = true;
+                        dirtyQueue.offer(conversationId);
+                    }
+                    evicted = evictIfNeeded(conversationId);
+                    break;
+                }
+            } finally {
+                cacheLock.unlock();
+            }
+            load(conversationId);
+        }
+        flushEvicted(evicted);
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        if (lastN <= 0) {
+            return List.of();
+        }
+        while (true) {
+            cacheLock.lock();
+            try {
+                CachedConversation conversation = lookup(conversationId);
+                if (conversation != null) {
+                    if (lastN <= conversation.messages.size() || !conversation.truncated) {
+                        List<Message> messages = conversation.messages;
+                        return new ArrayList<>(messages.subList(Math.max(0, messages.size() - lastN), messages.size()));
+                    }
+                    // 请求的条数超出缓存的范围，刷出待写入的消息后直接读底层存储
+                    break;
+                }
+            } finally {
+                cacheLock.unlock();
+            }
+            load(conversationId);
+        }
+        flush(conversationId);
+        return delegate.get(conversationId, lastN);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            cacheLock.lock();
+            try {
+                CachedConversation conversation = cache.remove(conversationId);
+                if (conversation == null) {
+                    conversation = evicting.remove(conversationId);
+                } else {
+                    cachedMessages -= conversation.messages.size();
+                }
+                if (conversation != null) {
+                    conversation.pending.clear();
+                    conversation.dirty = false;
+                }
+            } finally {
+                cacheLock.unlock();
+            }
+            delegate.clear(conversationId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 底层存储清理过期会话前的确认（FileBasedChatMemory.ExpiryGuard）
+     * 缓存中的会话（包括还没写回的）读写都不经过底层文件，文件的修改时间不代表会话是否活跃，不能删除；
+     * 确认和删除都在会话锁内进行，期间不会有加载或写回穿插进来
+     * @param conversationId
+     * @param delete 删除底层存储中会话的操作
+     * @return 是否删除
+     */
+    public boolean expireIfIdle(String conversationId, BooleanSupplier delete) {
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            cacheLock.lock();
+            try {
+                if (cache.containsKey(conversationId) || evicting.containsKey(conversationId)) {
+                    return false;
+                }
+            } finally {
+                cacheLock.unlock();
+            }
+            return delete.getAsBoolean();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 同步刷出所有待写入的消息
+     */
+    public void flushAll() {
+        List<String> conversationIds;
+        cacheLock.lock();
+        try {
+            conversationIds = new ArrayList<>(cache.keySet());
+            conversationIds.addAll(evicting.keySet());
+        } finally {
+            cacheLock.unlock();
+        }
+        dirtyQueue.clear();
+        conversationIds.forEach(this::flush);
+    }
+
+    /**
+     * 停止后台写线程并同步刷出所有待写入的消息，随后关闭被装饰的存储
+     */
+    @Override
+    public void close() {
+        writerExecutor.shutdown();
+        try {
+            writerExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+        if (delegate instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.error("关闭会话记忆存储失败", e);
+            }
+        }
+    }
+
+    /**
+     * 后台写线程：批量刷出本轮积累的脏会话
+     */
+    private void flushDirty() {
+        List<String> batch = new ArrayList<>();
+        dirtyQueue.drainTo(batch);
+        for (String conversationId : batch) {
+            try {
+                flush(conversationId);
+            } catch (Exception e) {
+                log.error("写入会话记忆失败: {}", conversationId, e);
+            }
+        }
+    }
+
+    /**
+     * 把会话的待写入消息刷到底层存储
+     * @param conversationId
+     */
+    private void flush(String conversationId) {
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            List<Message> pending;
+            cacheLock.lock();
+            try {
+                CachedConversation conversation = cache.get(conversationId);
+                if (conversation == null) {
+                    conversation = evicting.get(conversationId);
+                }
+                if (conversation == null || conversation.pending.isEmpty()) {
+                    return;
+                }
+                pending = conversation.pending;
+                conversation.pending = new ArrayList<>();
+                conversation.dirty = false;
+            } finally {
+                cacheLock.unlock();
+            }
+            try {
+                delegate.add(conversationId, pending);
+            } catch (RuntimeException e) {
+                // 写入失败时放回待写入列表，等待下一轮重试
+                requeue(conversationId, pending);
+                throw e;
+            }
+            cacheLock.lock();
+            try {
+                CachedConversation conversation = evicting.get(conversationId);
+                if (conversation != null && conversation.pending.isEmpty()) {
+                    evicting.remove(conversationId);
+                }
+            } finally {
+                cacheLock.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void requeue(String conversationId, List<Message> pending) {
+        cacheLock.lock();
+        try {
+            CachedConversation conversation = cache.get(conversationId);
+            if (conversation == null) {
+                conversation = evicting.get(conversationId);
+            }
+            if (conversation != null) {
+                conversation.pending.addAll(0, pending);
+                if (!conversation.dirty) {
+                    conversation.dirty = true;
+                    dirtyQueue.offer(conversationId);
+                }
+            }
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    /**
+     * 缓存未命中时从底层存储加载会话
+     * @param conversationId
+     */
+    private void load(String conversationId) {
+        List<CachedConversation> evicted;
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            cacheLock.lock();
+            try {
+                if (lookup(conversationId) != null) {
+                    return;
+                }
+            } finally {
+                cacheLock.unlock();
+            }
+            // 多读一条，用来判断底层存储中是否还有更早的消息
+            List<Message> stored = delegate.get(conversationId, maxMessagesPerConversation + 1);
+            CachedConversation conversation = new CachedConversation(conversationId, stored);
+            conversation.truncated = conversation.trim(maxMessagesPerConversation) > 0;
+            cacheLock.lock();
+            try {
+                cache.put(conversationId, conversation);
+                cachedMessages += conversation.messages.size();
+                evicted = evictIfNeeded(conversationId);
+            } finally {
+                cacheLock.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+        flushEvicted(evicted);
+    }
+
+    /**
+     * 在缓存中查找会话，正在淘汰的会话会被放回缓存（需持有 cacheLock）
+     * @param conversationId
+     * @return
+     */
+    private CachedConversation lookup(String conversationId) {
+        CachedConversation conversation = cache.get(conversationId);
+        if (conversation == null) {
+            conversation = evicting.remove(conversationId);
+            if (conversation != null) {
+                cache.put(conversationId, conversation);
+                cachedMessages += conversation.messages.size();
+            }
+        }
+        return conversation;
+    }
+
+    /**
+     * 超出容量时按 LRU 顺序淘汰会话，刚访问的会话不会被淘汰（需持有 cacheLock）
+     * @param currentConversationId
+     * @return 需要同步刷盘的会话
+     */
+    private List<CachedConversation> evictIfNeeded(String currentConversationId) {
+        List<CachedConversation> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, CachedConversation>> iterator = cache.entrySet().iterator();
+        while (cachedMessages > maxCachedMessages && iterator.hasNext()) {
+            Map.Entry<String, CachedConversation> entry = iterator.next();
+            if (entry.getKey().equals(currentConversationId)) {
+                continue;
+            }
+            iterator.remove();
+            CachedConversation conversation = entry.getValue();
+            cachedMessages -= conversation.messages.size();
+            if (!conversation.pending.isEmpty()) {
+                evicting.put(entry.getKey(), conversation);
+                evicted.add(conversation);
+            }
+        }
+        return evicted;
+    }
+
+    private void flushEvicted(List<CachedConversation> evicted) {
+        for (CachedConversation conversation : evicted) {
+            flush(conversation.id);
+        }
+    }
+
+    /**
+     * 缓存中的单个会话
+     */
+    private static class CachedConversation {
+
+        private final String id;
+
+        // 最近的消息
+        private final List<Message> messages;
+
+        // 还未写入底层存储的消息
+        private List<Message> pending = new ArrayList<>();
+
+        // 是否已在待写入队列中
+        private boolean dirty;
+
+        // 底层存储中是否还有比 messages 更早的消息
+        private boolean truncated;
+
+        private CachedConversation(String id, List<Message> messages) {
+            this.id = id;
+            this.messages = new ArrayList<>(messages);
+        }
+
+        private void append(List<Message> newMessages) {
+            messages.addAll(newMessages);
+            pending.addAll(newMessages);
+        }
+
+        /**
+         * 只保留最近的 limit 条消息
+         * @param limit
+         * @return 被裁掉的条数
+         */
+        private int trim(int limit) {
+            int overflow = messages.size() - limit;
+            if (overflow <= 0) {
+                return 0;
+            }
+            messages.subList(0, overflow).clear();
+            truncated = true;
+            return overflow;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.lpz.aiagent.chatmemory;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 按会话分段的读写锁
+ * 会话 id 经哈希映射到固定数量的读写锁上：同一会话的写操作串行执行，
+ * 不同会话大概率落在不同的锁上并行执行，锁的数量固定，不会随会话数增长
+ */
+public class ConversationLocks {
+
+    private final ReadWriteLock[] stripes;
+
+    private final int mask;
+
+    public ConversationLocks() {
+        this(256);
+    }
+
+    /**
+     * @param stripeCount 锁的数量，会向上取整为 2 的幂
+     */
+    public ConversationLocks(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("stripeCount must be positive");
+        }
+        int size = Integer.highestOneBit(stripeCount - 1) << 1;
+        if (stripeCount == 1) {
+            size = 1;
+        }
+        this.stripes = new ReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    public Lock readLock(String conversationId) {
+        return stripeOf(conversationId).readLock();
+    }
+
+    public Lock writeLock(String conversationId) {
+        return stripeOf(conversationId).writeLock();
+    }
+
+    private ReadWriteLock stripeOf(String conversationId) {
+        int h = conversationId.hashCode();
+        // 打散高位，避免相近的 id 落到同一把锁上
+        h ^= (h >>> 16);
+        return stripes[h & mask];
+    }
+}
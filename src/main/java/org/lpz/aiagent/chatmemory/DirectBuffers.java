@@ -0,0 +1,53 @@
+package org.lpz.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * 立即释放直接内存和内存映射
+ * JDK 没有公开的释放接口，直接缓冲区要等 GC 回收后才释放，映射文件在此之前一直占用地址空间和文件句柄。
+ * 这里通过 sun.misc.Unsafe#invokeCleaner 主动释放；不可用时退回到等待 GC。
+ * 释放后缓冲区不能再被访问，否则会导致 JVM 崩溃，调用方必须保证已经没有读写。
+ */
+@Slf4j
+final class DirectBuffers {
+
+    private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * 释放直接缓冲区（包括 MappedByteBuffer）
+     * @param buffer 通过 allocateDirect 或 FileChannel#map 得到的原始缓冲区，不能是切片
+     */
+    static void release(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null || buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+        } catch (Throwable e) {
+            log.warn("释放直接内存失败，等待 GC 回收", e);
+        }
+    }
+
+    private static MethodHandle findInvokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("无法主动释放直接内存，将等待 GC 回收: {}", e.toString());
+            return null;
+        }
+    }
+}
@@ -1,112 +1,436 @@
 package org.lpz.aiagent.chatmemory;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-import org.objenesis.strategy.StdInstantiatorStrategy;
+import cn.hutool.crypto.digest.DigestUtil;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
 
-public class FileBasedChatMemory implements ChatMemory {
+/**
+ * 基于文件的对话记忆
+ * 每个会话一个记录文件（.kryo）和一个索引文件（.idx），格式和读写方式见 RecordLog：
+ * 每轮追加的开销与会话总长度无关，读取最近 N 条时通过索引直接定位，开销只和 N 有关。
+ * 会话文件按 id 的哈希分散到两级子目录（如 3f/a2/chatId.kryo），配置了空闲过期时间时，
+ * 后台线程按批次清理长时间未写入的会话；前面有缓存层时，删除前先经过 ExpiryGuard 确认会话不在缓存中。
+ */
+@Slf4j
+public class FileBasedChatMemory implements ChatMemory, AutoCloseable {
+
+    private static final String FILE_SUFFIX = ".kryo";
+
+    // 一级分片目录的数量（00 ~ ff），每个一级目录下同样有 256 个二级目录
+    private static final int SHARD_COUNT = 256;
+
+    // 二级分片目录的总数
+    private static final int LEAF_SHARD_COUNT = SHARD_COUNT * SHARD_COUNT;
+
+    // 每轮清理最多检查的二级分片目录数，一圈需要 LEAF_SHARD_COUNT / SWEEP_DIRS_PER_ROUND 轮
+    private static final int SWEEP_DIRS_PER_ROUND = 1024;
+
+    private static final String INDEX_SUFFIX = ".idx";
 
     private final String BASE_DIR;
-    private static final Kryo kryo = new Kryo();
 
-    static {
-        // 动态注册
-        kryo.setRegistrationRequired(false);
-        // 设置实例化策略
-        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
-    }
+    // 按会话分段的读写锁，同一会话的读改写串行执行
+    private final ConversationLocks conversationLocks = new ConversationLocks();
+
+    // 会话空闲过期时间，为 null 时不清理
+    private final Duration idleTtl;
+
+    // 每轮清理最多删除的会话数
+    private final int sweepBatchSize;
+
+    // 下一轮清理从哪个二级分片目录开始（一级目录号 * 256 + 二级目录号）
+    private int sweepCursor = 0;
+
+    // 删除过期会话前的确认，默认直接删除
+    private volatile ExpiryGuard expiryGuard = (conversationId, delete) -> delete.getAsBoolean();
+
+    // 磁盘上的会话数和总字节数（构造时扫描一次，之后增量维护）
+    private final AtomicLong conversationCount = new AtomicLong();
+
+    private final AtomicLong bytesOnDisk = new AtomicLong();
+
+    // 读取会话累计读取的字节数
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private final ScheduledExecutorService sweepExecutor;
 
     // 构造对象时，指定文件保存目录
     public FileBasedChatMemory(String dir) {
+        this(dir, null, Duration.ofMinutes(1), 500);
+    }
+
+    /**
+     * @param dir 文件保存目录
+     * @param idleTtl 会话空闲过期时间，为 null 时不清理
+     * @param sweepInterval 后台清理的执行间隔
+     * @param sweepBatchSize 每轮清理最多删除的会话数
+     */
+    public FileBasedChatMemory(String dir, Duration idleTtl, Duration sweepInterval, int sweepBatchSize) {
         this.BASE_DIR = dir;
+        this.idleTtl = idleTtl;
+        this.sweepBatchSize = sweepBatchSize;
         File baseDir = new File(dir);
         if (!baseDir.exists()) {
             baseDir.mkdirs();
         }
+        // 只列目录、读文件长度，不读文件内容，启动时同步统计一次
+        scanUsage();
+        this.sweepExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-memory-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (idleTtl != null) {
+            this.sweepExecutor.scheduleWithFixedDelay(this::sweepExpired,
+                    sweepInterval.toMillis(), sweepInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        Gauge.builder("chat.memory.conversations", conversationCount, AtomicLong::get)
+                .description("Conversations stored on disk")
+                .tag("dir", dir)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("chat.memory.disk.bytes", bytesOnDisk, AtomicLong::get)
+                .description("Bytes of conversation files on disk")
+                .baseUnit("bytes")
+                .tag("dir", dir)
+                .register(Metrics.globalRegistry);
+    }
+
+    public long getConversationCount() {
+        return conversationCount.get();
+    }
+
+    public long getBytesOnDisk() {
+        return bytesOnDisk.get();
+    }
+
+    long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * 过期会话删除前的确认
+     * 缓存层持有会话时（读写都不经过文件，文件的修改时间不会更新）应拒绝删除，
+     * 否则缓存写回时会用只含新消息的文件覆盖掉完整的历史
+     */
+    @FunctionalInterface
+    public interface ExpiryGuard {
+
+        /**
+         * @param conversationId 过期的会话
+         * @param delete 实际删除文件的操作，返回是否删除
+         * @return 是否删除
+         */
+        boolean expire(String conversationId, BooleanSupplier delete);
+    }
+
+    public void setExpiryGuard(ExpiryGuard expiryGuard) {
+        this.expiryGuard = expiryGuard;
     }
 
 
 
     @Override
     public void add(String conversationId, Message message) {
-        List<Message> messages = getOrCreateConversation(conversationId);
-        messages.add(message);
-        saveConversation(conversationId,messages);
+        add(conversationId, List.of(message));
     }
 
     @Override
     public void add(String conversationId, List<Message> messages) {
-        List<Message> messagesList = getOrCreateConversation(conversationId);
-        messagesList.addAll(messages);
-        saveConversation(conversationId,messagesList);
-
+        if (messages.isEmpty()) {
+            return;
+        }
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            long count = ensureFormat(conversationId);
+            File file = getConversationFile(conversationId);
+            long sizeBefore = diskSize(file);
+            if (count < 0) {
+                RecordLog.write(file, getIndexFile(file), messages);
+                conversationCount.incrementAndGet();
+            } else {
+                RecordLog.append(file, getIndexFile(file), messages);
+            }
+            bytesOnDisk.addAndGet(diskSize(file) - sizeBefore);
+        } catch (IOException e) {
+            log.error("保存会话文件失败: {}", conversationId, e);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public List<Message> get(String conversationId, int lastN) {
-        List<Message> messages = getOrCreateConversation(conversationId);
-        return messages.stream().skip(Math.max(0, messages.size() -  lastN))
-                .toList();
+        if (lastN <= 0) {
+            return List.of();
+        }
+        File file = getConversationFile(conversationId);
+        try {
+            Lock lock = conversationLocks.readLock(conversationId);
+            lock.lock();
+            try {
+                if (file.exists()) {
+                    if (getIndexFile(file).exists()) {
+                        return RecordLog.readTail(file, getIndexFile(file), lastN, bytesRead);
+                    }
+                } else if (!getFlatConversationFile(conversationId).exists()) {
+                    return List.of();
+                }
+            } finally {
+                lock.unlock();
+            }
+            // 旧格式、缺少索引或仍在根目录下的文件，加写锁转换后再读
+            Lock writeLock = conversationLocks.writeLock(conversationId);
+            writeLock.lock();
+            try {
+                if (ensureFormat(conversationId) < 0) {
+                    return List.of();
+                }
+                return RecordLog.readTail(file, getIndexFile(file), lastN, bytesRead);
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (IOException e) {
+            log.error("读取会话文件失败: {}", file, e);
+            return List.of();
+        }
     }
 
-    
+
     @Override
     public void clear(String conversationId) {
-        File file = getConversationFile(conversationId);
-        if (file.exists()) {
-            file.delete();
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            deleteConversationFile(getConversationFile(conversationId));
+            deleteConversationFile(getFlatConversationFile(conversationId));
+        } finally {
+            lock.unlock();
         }
     }
 
+    @Override
+    public void close() {
+        sweepExecutor.shutdownNow();
+    }
+
     /**
-     * 获取或创建会话信息的列表
-     * @param conversationId
-     * @return
+     * 清理一批空闲过期的会话：从上一轮停下的二级分片目录继续，
+     * 每轮最多删除 sweepBatchSize 个、检查 SWEEP_DIRS_PER_ROUND 个目录，剩余的留到下一轮
      */
-    private List<Message> getOrCreateConversation(String conversationId) {
-        File file = getConversationFile(conversationId);
-        List<Message> messages = new ArrayList<>();
-        if (file.exists()) {
-            try (Input input = new Input(new FileInputStream(file))) {
+    void sweepExpired() {
+        long deadline = System.currentTimeMillis() - idleTtl.toMillis();
+        int deleted = 0;
+        try {
+            for (int i = 0; i < SWEEP_DIRS_PER_ROUND && deleted < sweepBatchSize; i++) {
+                if (sweepCursor == 0) {
+                    // 每一圈顺带清理旧版本平铺在根目录下的会话文件
+                    deleted += sweepDirectory(new File(BASE_DIR), deadline, sweepBatchSize - deleted);
+                }
+                File leafShard = new File(new File(BASE_DIR, String.format("%02x", sweepCursor / SHARD_COUNT)),
+                        String.format("%02x", sweepCursor % SHARD_COUNT));
+                deleted += sweepDirectory(leafShard, deadline, sweepBatchSize - deleted);
+                // 本目录没清理完时下一轮从这里继续
+                if (deleted < sweepBatchSize) {
+                    sweepCursor = (sweepCursor + 1) % LEAF_SHARD_COUNT;
+                }
+            }
+        } catch (Exception e) {
+            log.error("清理过期会话失败", e);
+        }
+        if (deleted > 0) {
+            log.info("已清理 {} 个空闲超过 {} 的会话", deleted, idleTtl);
+        }
+    }
 
-                messages = kryo.readObject(input, ArrayList.class);
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * 删除目录下空闲过期的会话文件
+     * @param dir
+     * @param deadline 最后修改时间早于该时间戳的会话视为过期
+     * @param limit 最多删除的个数
+     * @return 实际删除的个数
+     */
+    private int sweepDirectory(File dir, long deadline, int limit) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return 0;
+        }
+        int deleted = 0;
+        for (File file : files) {
+            if (deleted >= limit) {
+                break;
+            }
+            if (file.lastModified() >= deadline) {
+                continue;
+            }
+            String conversationId = file.getName().substring(0, file.getName().length() - FILE_SUFFIX.length());
+            boolean expired = expiryGuard.expire(conversationId, () -> {
+                Lock lock = conversationLocks.writeLock(conversationId);
+                lock.lock();
+                try {
+                    // 加锁后再次确认，避免删掉刚写入的会话
+                    return file.lastModified() < deadline && deleteConversationFile(file);
+                } finally {
+                    lock.unlock();
+                }
+            });
+            if (expired) {
+                deleted++;
             }
         }
-        return messages;
+        return deleted;
+    }
 
+    /**
+     * 统计磁盘上已有的会话数和字节数
+     */
+    private void scanUsage() {
+        long count = 0;
+        long bytes = 0;
+        List<File> dirs = new ArrayList<>();
+        dirs.add(new File(BASE_DIR));
+        File[] shards = new File(BASE_DIR).listFiles(File::isDirectory);
+        if (shards != null) {
+            for (File shard : shards) {
+                File[] subShards = shard.listFiles(File::isDirectory);
+                if (subShards != null) {
+                    dirs.addAll(List.of(subShards));
+                }
+            }
+        }
+        for (File dir : dirs) {
+            File[] files = dir.listFiles((d, name) -> name.endsWith(FILE_SUFFIX));
+            if (files != null) {
+                for (File file : files) {
+                    count++;
+                    bytes += diskSize(file);
+                }
+            }
+        }
+        conversationCount.addAndGet(count);
+        bytesOnDisk.addAndGet(bytes);
+    }
+
+    private boolean deleteConversationFile(File file) {
+        long size = diskSize(file);
+        File indexFile = getIndexFile(file);
+        // 先删索引，中途失败时剩下的记录文件会在下次访问时重建索引
+        indexFile.delete();
+        if (file.exists() && file.delete()) {
+            conversationCount.decrementAndGet();
+            bytesOnDisk.addAndGet(-size);
+            return true;
+        }
+        return false;
+    }
+
+    private long diskSize(File file) {
+        return file.length() + getIndexFile(file).length();
     }
 
     /**
-     * 保存会话信息
+     * 确保会话有索引文件（需持有写锁）：旧的整表格式会被转换，
+     * 缺少索引（写入中断）的记录文件会从头扫描出完整的记录后重建索引
      * @param conversationId
-     * @param messages
+     * @return 记录条数，会话不存在时返回 -1
+     * @throws IOException
      */
-
-    private void saveConversation(String conversationId, List<Message> messages) {
+    private long ensureFormat(String conversationId) throws IOException {
         File file = getConversationFile(conversationId);
-        try (Output output = new Output(new FileOutputStream(file))) {
-            kryo.writeObject(output, messages);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!file.exists()) {
+            // 旧版本平铺在根目录下的会话文件，挪到分片目录中
+            File flatFile = getFlatConversationFile(conversationId);
+            if (!flatFile.exists()) {
+                return -1;
+            }
+            file.getParentFile().mkdirs();
+            Files.move(flatFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
         }
+        File indexFile = getIndexFile(file);
+        if (indexFile.exists()) {
+            return RecordLog.count(indexFile);
+        }
+        List<Message> messages;
+        if (startsWithRecord(file)) {
+            messages = RecordLog.scan(file);
+            log.warn("会话文件 {} 缺少索引，已扫描恢复 {} 条记录", file.getName(), messages.size());
+        } else {
+            messages = readLegacyConversation(file);
+            log.info("会话文件 {} 由旧格式转换为带索引的格式", file.getName());
+        }
+        RecordLog.write(file, indexFile, messages);
+        return messages.size();
     }
 
     /**
-     * 每个会话文件单独保存
+     * 新格式的文件以 4 字节大端长度开头，单条记录远小于 16MB，首字节必为 0；
+     * 旧格式以 Kryo 变长编码的列表长度开头，非空列表的首字节不为 0
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private boolean startsWithRecord(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return inputStream.read() == 0;
+        }
+    }
+
+    /**
+     * 读取旧格式（整个 ArrayList 序列化）的会话文件
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private List<Message> readLegacyConversation(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return KryoSerializer.readObject(inputStream, ArrayList.class);
+        }
+    }
+
+    /**
+     * 每个会话文件单独保存，按 id 的 MD5 前两个字节分到两级子目录中
      * @param conversationId
      * @return
      */
     private File getConversationFile(String conversationId) {
-        return new File(BASE_DIR ,conversationId + ".kryo");
+        String hash = DigestUtil.md5Hex(conversationId);
+        File shardDir = new File(new File(BASE_DIR, hash.substring(0, 2)), hash.substring(2, 4));
+        return new File(shardDir, conversationId + FILE_SUFFIX);
+    }
+
+    /**
+     * 旧版本平铺在根目录下的会话文件
+     * @param conversationId
+     * @return
+     */
+    private File getFlatConversationFile(String conversationId) {
+        return new File(BASE_DIR, conversationId + FILE_SUFFIX);
+    }
+
+    /**
+     * 会话的索引文件，和记录文件放在同一目录
+     * @param file 记录文件
+     * @return
+     */
+    private File getIndexFile(File file) {
+        String name = file.getName();
+        return new File(file.getParentFile(), name.substring(0, name.length() - FILE_SUFFIX.length()) + INDEX_SUFFIX);
     }
 }
@@ -0,0 +1,102 @@
+package org.lpz.aiagent.chatmemory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 线程安全的 Kryo 序列化工具
+ * Kryo 实例本身不是线程安全的，这里通过对象池为每次序列化借出独立的实例，用完归还
+ */
+public class KryoSerializer {
+
+    // 池中最多保留的 Kryo 实例数，超出的实例用完直接丢弃
+    private static final int MAX_POOLED_INSTANCES = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+
+    private static final Pool<Kryo> kryoPool = new Pool<>(true, true, MAX_POOLED_INSTANCES) {
+        @Override
+        protected Kryo create() {
+            Kryo kryo = new Kryo();
+            // 动态注册
+            kryo.setRegistrationRequired(false);
+            // 设置实例化策略
+            kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+            return kryo;
+        }
+    };
+
+    private KryoSerializer() {
+    }
+
+    /**
+     * 序列化对象（不写入类型信息）到输出流
+     * @param outputStream
+     * @param object
+     */
+    public static void writeObject(OutputStream outputStream, Object object) {
+        Kryo kryo = kryoPool.obtain();
+        try (Output output = new Output(outputStream)) {
+            kryo.writeObject(output, object);
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    /**
+     * 从输入流反序列化指定类型的对象
+     * @param inputStream
+     * @param type
+     * @return
+     * @param <T>
+     */
+    public static <T> T readObject(InputStream inputStream, Class<T> type) {
+        Kryo kryo = kryoPool.obtain();
+        try (Input input = new Input(inputStream)) {
+            return kryo.readObject(input, type);
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    /**
+     * 序列化对象（带类型信息）为字节数组
+     * @param object
+     * @return
+     */
+    public static byte[] toBytes(Object object) {
+        Kryo kryo = kryoPool.obtain();
+        try (Output output = new Output(256, -1)) {
+            kryo.writeClassAndObject(output, object);
+            return output.toBytes();
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    /**
+     * 从 toBytes 生成的字节中反序列化对象
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     * @param <T>
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T fromBytes(byte[] bytes, int offset, int length) {
+        Kryo kryo = kryoPool.obtain();
+        try (Input input = new Input(bytes, offset, length)) {
+            return (T) kryo.readClassAndObject(input);
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    public static <T> T fromBytes(byte[] bytes) {
+        return fromBytes(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,611 @@
+package org.lpz.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的对话记忆
+ * 所有会话的消息依次追加到预分配的大段文件（segment-00000.dat ...）中，每个段整体映射到内存，
+ * 读写都是内存拷贝，不会为每个会话打开文件、产生系统调用。
+ * 会话 → 记录位置的索引保存在堆外内存中（见 OffHeapPositionIndex），重启时顺序扫描各段重建。
+ * 记录格式：[长度 int][CRC32 int][类型 byte][id 长度 short][id][Kryo 字节]，长度最后写入，
+ * 扫描时遇到长度为 0 或校验失败的记录即认为到达段尾。
+ * 清空会话时追加一条清空记录；最旧的段中已没有存活记录时整段删除。
+ * 最旧的段大部分已失效（或历史段整体大部分已失效）时进行压缩：把在该段中还有存活记录的会话整体搬到段尾
+ * （搬移记录 + 搬移完成记录，完成记录之前崩溃则搬移作废），之后旧段没有存活记录即可删除。
+ * 回收和压缩在后台线程中进行，清空会话的请求只追加清空记录，不承担整理其他会话的开销；
+ * 删除的段和 close 时的全部段、堆外索引都会立即解除映射、释放内存，不等 GC。
+ * 数据写入页缓存即返回，进程崩溃不会丢失，机器掉电可能丢失最近未落盘的部分（close 时会强制落盘）。
+ * close 之后不能再使用。
+ */
+@Slf4j
+public class MappedChatMemory implements ChatMemory, AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    private static final byte TYPE_MESSAGE = 1;
+
+    private static final byte TYPE_CLEAR = 2;
+
+    // 压缩时搬移的消息，只有后面出现对应的搬移完成记录才生效
+    private static final byte TYPE_MOVED = 3;
+
+    // 搬移完成记录，内容为搬移的条数，会话的消息替换为最近搬移的这些条
+    private static final byte TYPE_MOVE_DONE = 4;
+
+    private final File baseDir;
+
+    private final int segmentSize;
+
+    // 存活字节占比低于该值时压缩
+    private final double compactLiveRatio;
+
+    // 回收和压缩只在这个线程中执行，段的解除映射也只在这里和 close 中进行
+    private final ExecutorService maintenanceExecutor;
+
+    // 已经提交、还没开始执行的整理任务，多次清空只触发一次
+    private final AtomicBoolean maintenancePending = new AtomicBoolean();
+
+    private volatile boolean closed;
+
+    // 段号 → 段，按段号有序，便于从最旧的段开始回收
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private final Map<String, OffHeapPositionIndex.Chain> chains = new ConcurrentHashMap<>();
+
+    private final OffHeapPositionIndex index = new OffHeapPositionIndex();
+
+    private final ConversationLocks conversationLocks = new ConversationLocks();
+
+    // 保护当前段和写入位置，预留空间和写入在同一临界区内完成，保证段内没有空洞
+    private final Lock appendLock = new ReentrantLock();
+
+    private Segment activeSegment;
+
+    private int writePosition;
+
+    public MappedChatMemory(String dir) {
+        this(dir, 64 * 1024 * 1024);
+    }
+
+    /**
+     * @param dir 段文件保存目录
+     * @param segmentSize 每个段文件的大小（字节），单条消息不能超过该大小
+     */
+    public MappedChatMemory(String dir, int segmentSize) {
+        this(dir, segmentSize, 0.5);
+    }
+
+    /**
+     * @param dir 段文件保存目录
+     * @param segmentSize 每个段文件的大小（字节），单条消息不能超过该大小
+     * @param compactLiveRatio 最旧的段（或全部历史段）中存活字节占比低于该值时压缩，0 表示不压缩
+     */
+    public MappedChatMemory(String dir, int segmentSize, double compactLiveRatio) {
+        this.baseDir = new File(dir);
+        this.segmentSize = segmentSize;
+        this.compactLiveRatio = compactLiveRatio;
+        if (!baseDir.exists()) {
+            baseDir.mkdirs();
+        }
+        this.maintenanceExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-memory-mapped-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuild();
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        ensureOpen();
+        byte[] id = conversationId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > 0xFFFF) {
+            throw new IllegalArgumentException("conversationId too long");
+        }
+        List<byte[]> payloads = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            payloads.add(KryoSerializer.toBytes(message));
+        }
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            OffHeapPositionIndex.Chain chain = chains.computeIfAbsent(conversationId, key -> new OffHeapPositionIndex.Chain());
+            for (byte[] payload : payloads) {
+                index.append(chain, appendRecord(TYPE_MESSAGE, id, payload));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        if (lastN <= 0) {
+            return List.of();
+        }
+        ensureOpen();
+        Lock lock = conversationLocks.readLock(conversationId);
+        lock.lock();
+        try {
+            OffHeapPositionIndex.Chain chain = chains.get(conversationId);
+            if (chain == null) {
+                return List.of();
+            }
+            long[] positions = index.tail(chain, lastN);
+            List<Message> messages = new ArrayList<>(positions.length);
+            for (long position : positions) {
+                messages.add(readMessage(position));
+            }
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        ensureOpen();
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            OffHeapPositionIndex.Chain chain = chains.remove(conversationId);
+            if (chain == null) {
+                return;
+            }
+            appendRecord(TYPE_CLEAR, conversationId.getBytes(StandardCharsets.UTF_8), new byte[0]);
+            index.release(chain, this::markDead);
+        } finally {
+            lock.unlock();
+        }
+        scheduleMaintenance();
+    }
+
+    /**
+     * 提交一次后台整理（回收空段 + 压缩），已有待执行的整理时不重复提交
+     */
+    private void scheduleMaintenance() {
+        if (maintenancePending.compareAndSet(false, true)) {
+            maintenanceExecutor.execute(() -> {
+                maintenancePending.set(false);
+                try {
+                    reclaimSegments();
+                    compact();
+                } catch (RuntimeException e) {
+                    log.error("会话记忆段整理失败", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * 等待已提交的后台整理执行完（测试用）
+     */
+    void awaitMaintenance() throws Exception {
+        maintenanceExecutor.submit(() -> { }).get();
+    }
+
+    /**
+     * 压缩大部分已失效的最旧段，直到最旧的段不再满足压缩条件
+     */
+    private void compact() {
+        if (compactLiveRatio <= 0) {
+            return;
+        }
+        Segment oldest;
+        while ((oldest = compactionCandidate()) != null) {
+            int moved = 0;
+            for (String conversationId : conversationsIn(oldest)) {
+                moved += moveConversation(conversationId, oldest.id);
+            }
+            log.info("会话记忆段 {} 压缩完成，搬移 {} 条消息", oldest.file.getName(), moved);
+            int before = segments.size();
+            reclaimSegments();
+            if (segments.size() == before) {
+                // 没能回收（正常不会发生），避免反复搬移
+                break;
+            }
+        }
+    }
+
+    /**
+     * 当前保存在磁盘上的段数
+     * @return
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 停止后台整理，强制把所有段落盘，然后解除映射并释放堆外索引
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        maintenanceExecutor.shutdown();
+        try {
+            if (!maintenanceExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("等待会话记忆段整理结束超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        appendLock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                DirectBuffers.release(segment.buffer);
+            }
+            segments.clear();
+            chains.clear();
+            activeSegment = null;
+            index.close();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("MappedChatMemory is closed");
+        }
+    }
+
+    /**
+     * 追加一条记录
+     * @param type
+     * @param id 会话 id 的 UTF-8 字节
+     * @param payload
+     * @return 记录位置（高 32 位为段号，低 32 位为段内偏移）
+     */
+    private long appendRecord(byte type, byte[] id, byte[] payload) {
+        int bodyLength = 1 + Short.BYTES + id.length + payload.length;
+        int recordLength = HEADER_SIZE + bodyLength;
+        if (recordLength + Integer.BYTES > segmentSize) {
+            throw new IllegalArgumentException("message too large for segment: " + recordLength + " bytes");
+        }
+        byte[] body = new byte[bodyLength];
+        body[0] = type;
+        body[1] = (byte) (id.length >>> 8);
+        body[2] = (byte) id.length;
+        System.arraycopy(id, 0, body, 3, id.length);
+        System.arraycopy(payload, 0, body, 3 + id.length, payload.length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        appendLock.lock();
+        try {
+            // 留出 4 字节的 0 作为段尾标记，当前段剩余空间不足时切到新段
+            if (activeSegment == null || writePosition + recordLength + Integer.BYTES > segmentSize) {
+                activeSegment = openSegment(activeSegment == null ? 0 : activeSegment.id + 1);
+                writePosition = 0;
+            }
+            MappedByteBuffer buffer = activeSegment.buffer;
+            int offset = writePosition;
+            buffer.put(offset + HEADER_SIZE, body);
+            buffer.putInt(offset + Integer.BYTES, (int) crc.getValue());
+            // 长度最后写入，扫描时看到非 0 长度就说明整条记录已经写完
+            buffer.putInt(offset, bodyLength);
+            writePosition += recordLength;
+            if (type == TYPE_MESSAGE || type == TYPE_MOVED) {
+                activeSegment.liveRecords.incrementAndGet();
+                activeSegment.liveBytes.addAndGet(recordLength);
+            }
+            return position(activeSegment.id, offset);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private Message readMessage(long position) {
+        return KryoSerializer.fromBytes(readPayload(position));
+    }
+
+    private byte[] readPayload(long position) {
+        MappedByteBuffer buffer = segments.get(segmentId(position)).buffer;
+        int offset = offset(position);
+        int bodyLength = buffer.getInt(offset);
+        int idLength = buffer.getShort(offset + HEADER_SIZE + 1) & 0xFFFF;
+        int payloadOffset = offset + HEADER_SIZE + 1 + Short.BYTES + idLength;
+        byte[] payload = new byte[bodyLength - 1 - Short.BYTES - idLength];
+        buffer.get(payloadOffset, payload);
+        return payload;
+    }
+
+    /**
+     * 记录失效（会话被清空或已搬移），更新所在段的存活统计
+     * @param position
+     */
+    private void markDead(long position) {
+        Segment segment = segments.get(segmentId(position));
+        segment.liveRecords.decrementAndGet();
+        segment.liveBytes.addAndGet(-(HEADER_SIZE + segment.buffer.getInt(offset(position))));
+    }
+
+    /**
+     * 需要压缩的段：最旧的历史段存活占比过低，或者全部历史段合计存活占比过低
+     * （后者避免一个存活较多的最旧段挡住后面大量已失效的段）
+     * @return 没有需要压缩的段时返回 null
+     */
+    private Segment compactionCandidate() {
+        appendLock.lock();
+        try {
+            if (segments.isEmpty() || segments.firstEntry().getValue() == activeSegment) {
+                return null;
+            }
+            Segment oldest = segments.firstEntry().getValue();
+            long sealedLiveBytes = 0;
+            int sealedCount = 0;
+            for (Segment segment : segments.values()) {
+                if (segment != activeSegment) {
+                    sealedLiveBytes += segment.liveBytes.get();
+                    sealedCount++;
+                }
+            }
+            if (oldest.liveBytes.get() < compactLiveRatio * segmentSize
+                    || sealedLiveBytes < compactLiveRatio * segmentSize * sealedCount) {
+                return oldest;
+            }
+            return null;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 段中出现过消息的会话
+     * @param segment
+     * @return
+     */
+    private Set<String> conversationsIn(Segment segment) {
+        Set<String> conversationIds = new LinkedHashSet<>();
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_SIZE <= segmentSize) {
+            int bodyLength = buffer.getInt(offset);
+            if (bodyLength <= 0 || offset + HEADER_SIZE + bodyLength > segmentSize) {
+                break;
+            }
+            byte type = buffer.get(offset + HEADER_SIZE);
+            if (type == TYPE_MESSAGE || type == TYPE_MOVED) {
+                int idLength = buffer.getShort(offset + HEADER_SIZE + 1) & 0xFFFF;
+                byte[] id = new byte[idLength];
+                buffer.get(offset + HEADER_SIZE + 1 + Short.BYTES, id);
+                conversationIds.add(new String(id, StandardCharsets.UTF_8));
+            }
+            offset += HEADER_SIZE + bodyLength;
+        }
+        return conversationIds;
+    }
+
+    /**
+     * 会话在指定段中还有存活记录时，把它的全部消息按顺序搬到段尾
+     * @param conversationId
+     * @param segmentId
+     * @return 搬移的条数
+     */
+    private int moveConversation(String conversationId, int segmentId) {
+        Lock lock = conversationLocks.writeLock(conversationId);
+        lock.lock();
+        try {
+            OffHeapPositionIndex.Chain chain = chains.get(conversationId);
+            if (chain == null) {
+                return 0;
+            }
+            long[] positions = index.tail(chain, (int) chain.size());
+            if (Arrays.stream(positions).noneMatch(position -> segmentId(position) == segmentId)) {
+                return 0;
+            }
+            byte[] id = conversationId.getBytes(StandardCharsets.UTF_8);
+            OffHeapPositionIndex.Chain moved = new OffHeapPositionIndex.Chain();
+            for (long position : positions) {
+                index.append(moved, appendRecord(TYPE_MOVED, id, readPayload(position)));
+            }
+            appendRecord(TYPE_MOVE_DONE, id, ByteBuffer.allocate(Integer.BYTES).putInt(positions.length).array());
+            chains.put(conversationId, moved);
+            index.release(chain, this::markDead);
+            return positions.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从最旧的段开始删除已经没有存活记录的段（当前写入的段除外）
+     * 只删除最旧的连续段，保证清空记录不会先于它所清空的消息被删除。
+     * 没有存活记录的段不会再被读取，可以立即解除映射；只在后台整理线程和启动重建时调用
+     */
+    private void reclaimSegments() {
+        appendLock.lock();
+        try {
+            while (!segments.isEmpty()) {
+                Segment oldest = segments.firstEntry().getValue();
+                if (oldest == activeSegment || oldest.liveRecords.get() > 0) {
+                    break;
+                }
+                segments.remove(oldest.id);
+                DirectBuffers.release(oldest.buffer);
+                if (!oldest.file.delete()) {
+                    log.warn("删除会话记忆段文件失败: {}", oldest.file);
+                }
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 启动时顺序扫描所有段，重建会话索引和写入位置
+     */
+    private void rebuild() {
+        File[] files = baseDir.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        int[] ids = Arrays.stream(files)
+                .mapToInt(file -> Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length(),
+                        file.getName().length() - SEGMENT_SUFFIX.length())))
+                .sorted()
+                .toArray();
+        // 还没遇到搬移完成记录的搬移记录
+        Map<String, List<Long>> moving = new HashMap<>();
+        for (int id : ids) {
+            Segment segment = openSegment(id);
+            int offset = scanSegment(segment, moving);
+            activeSegment = segment;
+            writePosition = offset;
+        }
+        // 没有完成的搬移作废
+        moving.values().forEach(positions -> positions.forEach(this::markDead));
+        long records = segments.values().stream().mapToLong(segment -> segment.liveRecords.get()).sum();
+        log.info("会话记忆索引重建完成: {} 个段, {} 个会话, {} 条消息", ids.length, chains.size(), records);
+        reclaimSegments();
+    }
+
+    /**
+     * 扫描单个段中的记录
+     * @param segment
+     * @param moving 各会话还没完成的搬移记录位置
+     * @return 最后一条完整记录之后的偏移
+     */
+    private int scanSegment(Segment segment, Map<String, List<Long>> moving) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_SIZE <= segmentSize) {
+            int bodyLength = buffer.getInt(offset);
+            if (bodyLength <= 0 || offset + HEADER_SIZE + bodyLength > segmentSize) {
+                break;
+            }
+            byte[] body = new byte[bodyLength];
+            buffer.get(offset + HEADER_SIZE, body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+                log.warn("会话记忆段 {} 在偏移 {} 处校验失败，忽略之后的内容", segment.file.getName(), offset);
+                break;
+            }
+            int idLength = ((body[1] & 0xFF) << 8) | (body[2] & 0xFF);
+            String conversationId = new String(body, 3, idLength, StandardCharsets.UTF_8);
+            if (body[0] == TYPE_MESSAGE || body[0] == TYPE_MOVED) {
+                long position = position(segment.id, offset);
+                segment.liveRecords.incrementAndGet();
+                segment.liveBytes.addAndGet(HEADER_SIZE + bodyLength);
+                if (body[0] == TYPE_MESSAGE) {
+                    OffHeapPositionIndex.Chain chain = chains.computeIfAbsent(conversationId, key -> new OffHeapPositionIndex.Chain());
+                    index.append(chain, position);
+                } else {
+                    moving.computeIfAbsent(conversationId, key -> new ArrayList<>()).add(position);
+                }
+            } else if (body[0] == TYPE_CLEAR) {
+                OffHeapPositionIndex.Chain chain = chains.remove(conversationId);
+                if (chain != null) {
+                    index.release(chain, this::markDead);
+                }
+            } else if (body[0] == TYPE_MOVE_DONE) {
+                // 最近的 count 条搬移记录替换会话原有的消息，更早的是之前中断的搬移留下的
+                int count = ByteBuffer.wrap(body, 3 + idLength, Integer.BYTES).getInt();
+                List<Long> positions = moving.remove(conversationId);
+                OffHeapPositionIndex.Chain moved = new OffHeapPositionIndex.Chain();
+                if (positions != null) {
+                    int from = Math.max(0, positions.size() - count);
+                    positions.subList(0, from).forEach(this::markDead);
+                    positions.subList(from, positions.size()).forEach(position -> index.append(moved, position));
+                }
+                OffHeapPositionIndex.Chain chain = chains.put(conversationId, moved);
+                if (chain != null) {
+                    index.release(chain, this::markDead);
+                }
+            }
+            offset += HEADER_SIZE + bodyLength;
+        }
+        return offset;
+    }
+
+    private Segment openSegment(int id) {
+        File file = new File(baseDir, String.format("%s%05d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射在通道关闭后仍然有效，映射长度超过文件大小时会自动扩展文件
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            Segment segment = new Segment(id, file, buffer);
+            segments.put(id, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("映射会话记忆段文件失败: " + file, e);
+        }
+    }
+
+    private static long position(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentId(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    /**
+     * 单个映射段
+     */
+    private static final class Segment {
+
+        private final int id;
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        // 段中还未被清空的消息条数
+        private final AtomicInteger liveRecords = new AtomicInteger();
+
+        // 段中还未被清空的消息占用的字节数
+        private final AtomicLong liveBytes = new AtomicLong();
+
+        private Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
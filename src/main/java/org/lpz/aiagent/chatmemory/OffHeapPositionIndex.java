@@ -0,0 +1,164 @@
+package org.lpz.aiagent.chatmemory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * 堆外的位置索引
+ * 每个会话的记录位置保存在堆外内存的固定大小块中，块之间通过前驱指针串成链表，
+ * 堆上只保留链表尾部的块号和条数（Chain），会话再多也不会产生大量小对象。
+ * 堆外内存按 slab 整块申请，释放的块放入空闲链表复用。
+ * 同一个 Chain 的读写需要由调用方加锁，块的分配和回收由本类内部同步。
+ */
+class OffHeapPositionIndex {
+
+    // 每个块的 long 个数：第 0 个是前驱块号，其余保存位置
+    private static final int BLOCK_LONGS = 16;
+
+    private static final int BLOCK_ENTRIES = BLOCK_LONGS - 1;
+
+    private static final int BLOCK_BYTES = BLOCK_LONGS * Long.BYTES;
+
+    // 每个 slab 包含的块数（slab 大小为 2MB）
+    private static final int SLAB_BLOCKS = 8192;
+
+    private static final int NO_BLOCK = -1;
+
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+    // 已分配出去的块数（不含空闲链表中的块）
+    private int nextFreshBlock = 0;
+
+    private int freeListHead = NO_BLOCK;
+
+    /**
+     * 单个会话在索引中的链表
+     */
+    static final class Chain {
+
+        private int tailBlock = NO_BLOCK;
+
+        // 尾部块中已使用的条数
+        private int tailCount;
+
+        private long size;
+
+        long size() {
+            return size;
+        }
+    }
+
+    /**
+     * 追加一个位置
+     * @param chain
+     * @param position
+     */
+    void append(Chain chain, long position) {
+        if (chain.tailBlock == NO_BLOCK || chain.tailCount == BLOCK_ENTRIES) {
+            int block = allocateBlock();
+            putLong(block, 0, chain.tailBlock);
+            chain.tailBlock = block;
+            chain.tailCount = 0;
+        }
+        putLong(chain.tailBlock, 1 + chain.tailCount, position);
+        chain.tailCount++;
+        chain.size++;
+    }
+
+    /**
+     * 从尾部往前取最近 n 个位置，按追加顺序返回
+     * @param chain
+     * @param n
+     * @return
+     */
+    long[] tail(Chain chain, int n) {
+        int count = (int) Math.min(n, chain.size);
+        long[] positions = new long[count];
+        int remaining = count;
+        int block = chain.tailBlock;
+        int used = chain.tailCount;
+        while (remaining > 0) {
+            for (int i = used - 1; i >= 0 && remaining > 0; i--) {
+                positions[--remaining] = getLong(block, 1 + i);
+            }
+            block = (int) getLong(block, 0);
+            used = BLOCK_ENTRIES;
+        }
+        return positions;
+    }
+
+    /**
+     * 遍历链表中的全部位置并释放所有块
+     * @param chain
+     * @param consumer 逐个接收被释放的位置，可为 null
+     */
+    void release(Chain chain, LongConsumer consumer) {
+        int block = chain.tailBlock;
+        int used = chain.tailCount;
+        while (block != NO_BLOCK) {
+            if (consumer != null) {
+                for (int i = 0; i < used; i++) {
+                    consumer.accept(getLong(block, 1 + i));
+                }
+            }
+            int previous = (int) getLong(block, 0);
+            freeBlock(block);
+            block = previous;
+            used = BLOCK_ENTRIES;
+        }
+        chain.tailBlock = NO_BLOCK;
+        chain.tailCount = 0;
+        chain.size = 0;
+    }
+
+    /**
+     * 已申请的堆外内存字节数
+     * @return
+     */
+    long allocatedBytes() {
+        return (long) slabs.length * SLAB_BLOCKS * BLOCK_BYTES;
+    }
+
+    /**
+     * 释放全部堆外内存，之后不能再使用本索引
+     */
+    synchronized void close() {
+        ByteBuffer[] released = slabs;
+        slabs = new ByteBuffer[0];
+        nextFreshBlock = 0;
+        freeListHead = NO_BLOCK;
+        for (ByteBuffer slab : released) {
+            DirectBuffers.release(slab);
+        }
+    }
+
+    private synchronized int allocateBlock() {
+        if (freeListHead != NO_BLOCK) {
+            int block = freeListHead;
+            freeListHead = (int) getLong(block, 0);
+            return block;
+        }
+        int block = nextFreshBlock++;
+        int slab = block / SLAB_BLOCKS;
+        if (slab == slabs.length) {
+            ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+            grown[slab] = ByteBuffer.allocateDirect(SLAB_BLOCKS * BLOCK_BYTES);
+            slabs = grown;
+        }
+        return block;
+    }
+
+    private synchronized void freeBlock(int block) {
+        putLong(block, 0, freeListHead);
+        freeListHead = block;
+    }
+
+    private long getLong(int block, int slot) {
+        return slabs[block / SLAB_BLOCKS].getLong((block % SLAB_BLOCKS) * BLOCK_BYTES + slot * Long.BYTES);
+    }
+
+    private void putLong(int block, int slot, long value) {
+        slabs[block / SLAB_BLOCKS].putLong((block % SLAB_BLOCKS) * BLOCK_BYTES + slot * Long.BYTES, value);
+    }
+}
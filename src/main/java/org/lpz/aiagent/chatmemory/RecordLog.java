@@ -0,0 +1,203 @@
+package org.lpz.aiagent.chatmemory;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带索引的消息记录文件，FileBasedChatMemory 和 AppendOnlyFileChatMemory 共用
+ * 记录文件：依次追加的长度前缀 Kryo 记录（[长度 int][Kryo 字节]）；
+ * 索引文件：每条记录的结束位置，8 字节一项，只追加。
+ * 追加时先写记录再写索引，索引项是记录可见的依据：写入中断留下的半条索引会被忽略，
+ * 最后一条索引之后没有索引的字节会在下次追加时被覆盖。读取最近 N 条只读索引尾部的两项和需要的记录。
+ * 调用方负责同一对文件的读写互斥。
+ */
+final class RecordLog {
+
+    // 每条索引项占用的字节数
+    static final int INDEX_ENTRY_SIZE = Long.BYTES;
+
+    private RecordLog() {
+    }
+
+    /**
+     * 记录条数（只计完整的索引项）
+     * @param indexFile
+     * @return
+     */
+    static long count(File indexFile) {
+        return indexFile.length() / INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * 在最后一条已索引记录之后追加记录，再追加对应的索引项，文件不存在时创建
+     * @param logFile
+     * @param indexFile
+     * @param messages
+     * @return 追加后的记录条数
+     * @throws IOException
+     */
+    static long append(File logFile, File indexFile, List<Message> messages) throws IOException {
+        try (FileChannel logChannel = FileChannel.open(logFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel indexChannel = FileChannel.open(indexFile.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long count = indexChannel.size() / INDEX_ENTRY_SIZE;
+            long position = count == 0 ? 0 : readIndexEntry(indexChannel, count - 1);
+            ByteBuffer entries = ByteBuffer.allocate(messages.size() * INDEX_ENTRY_SIZE);
+            for (Message message : messages) {
+                position += writeFully(logChannel, encodeRecord(message), position);
+                entries.putLong(position);
+            }
+            entries.flip();
+            writeFully(indexChannel, entries, count * INDEX_ENTRY_SIZE);
+            return count + messages.size();
+        }
+    }
+
+    /**
+     * 按索引定位并读取最后 lastN 条记录：索引尾部最多读两个结束位置，记录只读需要的部分
+     * @param logFile
+     * @param indexFile
+     * @param lastN
+     * @param bytesRead 累加实际读取的字节数，可为 null
+     * @return 文件不存在时返回空列表
+     * @throws IOException
+     */
+    static List<Message> readTail(File logFile, File indexFile, int lastN, AtomicLong bytesRead) throws IOException {
+        if (!indexFile.exists() || !logFile.exists()) {
+            return List.of();
+        }
+        long start;
+        long end;
+        int n;
+        try (FileChannel indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            long count = indexChannel.size() / INDEX_ENTRY_SIZE;
+            n = (int) Math.min(lastN, count);
+            if (n == 0) {
+                return List.of();
+            }
+            // 第 i 条记录的起始位置是第 i-1 条的结束位置
+            long first = count - n;
+            start = first == 0 ? 0 : readIndexEntry(indexChannel, first - 1);
+            end = readIndexEntry(indexChannel, count - 1);
+        }
+        ByteBuffer records = ByteBuffer.allocate((int) (end - start));
+        try (FileChannel logChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+            readFully(logChannel, records, start);
+        }
+        if (bytesRead != null) {
+            bytesRead.addAndGet((start == 0 ? 1 : 2) * INDEX_ENTRY_SIZE + records.capacity());
+        }
+        records.flip();
+        List<Message> messages = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int length = records.getInt();
+            messages.add(KryoSerializer.fromBytes(records.array(), records.position(), length));
+            records.position(records.position() + length);
+        }
+        return messages;
+    }
+
+    /**
+     * 整体写出记录文件和索引文件（先写临时文件再原子替换，索引最后替换）
+     * 中途崩溃时记录文件可能没有索引，由调用方用 scan 恢复后重写
+     * @param logFile
+     * @param indexFile
+     * @param messages
+     * @throws IOException
+     */
+    static void write(File logFile, File indexFile, List<Message> messages) throws IOException {
+        File tmpFile = new File(logFile.getParentFile(), logFile.getName() + ".tmp");
+        File tmpIndexFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        logFile.getParentFile().mkdirs();
+        try (FileChannel logChannel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel indexChannel = FileChannel.open(tmpIndexFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            ByteBuffer entries = ByteBuffer.allocate(messages.size() * INDEX_ENTRY_SIZE);
+            for (Message message : messages) {
+                position += writeFully(logChannel, encodeRecord(message), position);
+                entries.putLong(position);
+            }
+            entries.flip();
+            writeFully(indexChannel, entries, 0);
+        }
+        indexFile.delete();
+        Files.move(tmpFile.toPath(), logFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmpIndexFile.toPath(), indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 不依赖索引，从头顺序扫描记录文件，遇到不完整或无法解析的记录时停止
+     * @param logFile
+     * @return
+     * @throws IOException
+     */
+    static List<Message> scan(File logFile) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        byte[] bytes = Files.readAllBytes(logFile.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.remaining() >= Integer.BYTES) {
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            try {
+                Object object = KryoSerializer.fromBytes(bytes, buffer.position(), length);
+                if (!(object instanceof Message message)) {
+                    break;
+                }
+                messages.add(message);
+            } catch (RuntimeException e) {
+                break;
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return messages;
+    }
+
+    private static ByteBuffer encodeRecord(Message message) {
+        byte[] bytes = KryoSerializer.toBytes(message);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+        record.putInt(bytes.length).put(bytes).flip();
+        return record;
+    }
+
+    private static long readIndexEntry(FileChannel indexChannel, long index) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        readFully(indexChannel, entry, index * INDEX_ENTRY_SIZE);
+        return entry.flip().getLong();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of record file");
+            }
+            position += read;
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+}
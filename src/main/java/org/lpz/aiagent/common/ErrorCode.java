@@ -12,7 +12,8 @@ public enum ErrorCode {
     NO_AUTH(40101,"无权限",""),
     SYSTEM_ERROR(50000,"系统内部异常",""),
     INSERT_ERROR(40002,"插入失败",""),
-    NULL_USER(40003,"用户不存在","");
+    NULL_USER(40003,"用户不存在",""),
+    TOO_MANY_REQUEST(42900,"请求过多，请稍后重试","");
     private final int code;
     /**
      *  状态码信息
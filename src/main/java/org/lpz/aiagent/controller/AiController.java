@@ -3,6 +3,7 @@ package org.lpz.aiagent.controller;
 import io.reactivex.Emitter;
 import jakarta.annotation.Resource;
 import org.apache.commons.lang3.StringUtils;
+import org.lpz.aiagent.agent.AgentRunExecutor;
 import org.lpz.aiagent.agent.YuManus;
 import org.lpz.aiagent.app.LoveApp;
 import org.lpz.aiagent.common.BaseResponse;
@@ -35,6 +36,9 @@ public class AiController {
     @Resource
     private ChatModel dashscopeChatModel;
 
+    @Resource
+    private AgentRunExecutor agentRunExecutor;
+
     /**
      * 同步调用AI恋爱大师应用
      * @param message
@@ -135,7 +139,7 @@ public class AiController {
      */
     @GetMapping("/manus/chat")
     public SseEmitter doChatWithManus(String message) {
-        YuManus manus = new YuManus(allTools, dashscopeChatModel);
+        YuManus manus = new YuManus(allTools, dashscopeChatModel, agentRunExecutor);
         if (StringUtils.isBlank(message)) {
             throw new BusinessException(ErrorCode.NULL_ERROR);
         }
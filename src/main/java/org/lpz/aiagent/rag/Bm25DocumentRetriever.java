@@ -0,0 +1,190 @@
+package org.lpz.aiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于倒排索引的 BM25 关键词检索器
+ * 文档用 ChineseTokenizer 切词后建立倒排表（词 → 文档编号和词频），
+ * 查询时只累加包含查询词的文档得分，适合食物名、"平台期" 这类必须原样命中的词。
+ * 索引在构建后只读，可以并发查询。
+ */
+public class Bm25DocumentRetriever implements DocumentRetriever {
+
+    // 词频饱和参数
+    private static final double K1 = 1.2;
+
+    // 文档长度归一化参数
+    private static final double B = 0.75;
+
+    private final List<Document> documents;
+
+    // 词 → [文档编号数组, 词频数组]
+    private final Map<String, int[][]> postings;
+
+    private final int[] documentLengths;
+
+    private final double averageLength;
+
+    private final int topK;
+
+    private final Expression filter;
+
+    private Bm25DocumentRetriever(Builder builder) {
+        this.documents = List.copyOf(builder.documents);
+        this.topK = builder.topK;
+        this.filter = parseFilter(builder.filterExpression);
+        this.documentLengths = new int[documents.size()];
+        Map<String, Map<Integer, Integer>> termFrequencies = new HashMap<>();
+        long totalLength = 0;
+        for (int i = 0; i < documents.size(); i++) {
+            List<String> tokens = ChineseTokenizer.tokenize(documents.get(i).getText());
+            documentLengths[i] = tokens.size();
+            totalLength += tokens.size();
+            for (String token : tokens) {
+                termFrequencies.computeIfAbsent(token, key -> new HashMap<>()).merge(i, 1, Integer::sum);
+            }
+        }
+        this.averageLength = documents.isEmpty() ? 0 : (double) totalLength / documents.size();
+        this.postings = new HashMap<>(termFrequencies.size() * 2);
+        termFrequencies.forEach((term, frequencies) -> {
+            int[] ids = new int[frequencies.size()];
+            int[] tfs = new int[frequencies.size()];
+            int j = 0;
+            for (Map.Entry<Integer, Integer> entry : frequencies.entrySet()) {
+                ids[j] = entry.getKey();
+                tfs[j] = entry.getValue();
+                j++;
+            }
+            postings.put(term, new int[][]{ids, tfs});
+        });
+    }
+
+    private Bm25DocumentRetriever(Bm25DocumentRetriever source, int topK, Filter.Expression filterExpression) {
+        this.documents = source.documents;
+        this.postings = source.postings;
+        this.documentLengths = source.documentLengths;
+        this.averageLength = source.averageLength;
+        this.topK = topK;
+        this.filter = parseFilter(filterExpression);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        double[] scores = new double[documents.size()];
+        List<Integer> matched = new ArrayList<>();
+        // 重复的查询词只计一次
+        for (String term : new LinkedHashSet<>(ChineseTokenizer.tokenize(query.text()))) {
+            int[][] posting = postings.get(term);
+            if (posting == null) {
+                continue;
+            }
+            int[] ids = posting[0];
+            int[] tfs = posting[1];
+            double idf = Math.log(1 + (documents.size() - ids.length + 0.5) / (ids.length + 0.5));
+            for (int j = 0; j < ids.length; j++) {
+                int id = ids[j];
+                double tf = tfs[j];
+                double norm = K1 * (1 - B + B * documentLengths[id] / averageLength);
+                if (scores[id] == 0) {
+                    matched.add(id);
+                }
+                scores[id] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+        matched.sort((a, b) -> Double.compare(scores[b], scores[a]));
+        List<Document> results = new ArrayList<>(topK);
+        for (int id : matched) {
+            if (results.size() >= topK) {
+                break;
+            }
+            Document document = documents.get(id);
+            if (filter != null && !matches(document)) {
+                continue;
+            }
+            results.add(document.mutate().score(scores[id]).build());
+        }
+        return results;
+    }
+
+    /**
+     * 共用同一份索引、返回数量和过滤条件不同的检索器（例如按用户状态过滤）
+     * @param topK
+     * @param filterExpression 为 null 时不过滤
+     * @return
+     */
+    public Bm25DocumentRetriever with(int topK, Filter.Expression filterExpression) {
+        return new Bm25DocumentRetriever(this, topK, filterExpression);
+    }
+
+    /**
+     * 索引中的文档数
+     * @return
+     */
+    public int size() {
+        return documents.size();
+    }
+
+    private static Expression parseFilter(Filter.Expression filterExpression) {
+        return filterExpression == null ? null : new SpelExpressionParser().parseExpression(
+                new SimpleVectorStoreFilterExpressionConverter().convertExpression(filterExpression));
+    }
+
+    private boolean matches(Document document) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setVariable("metadata", document.getMetadata());
+        return Boolean.TRUE.equals(filter.getValue(context, Boolean.class));
+    }
+
+    public static final class Builder {
+
+        private List<Document> documents = List.of();
+
+        private int topK = 4;
+
+        private Filter.Expression filterExpression;
+
+        private Builder() {
+        }
+
+        public Builder documents(List<Document> documents) {
+            this.documents = documents;
+            return this;
+        }
+
+        public Builder topK(int topK) {
+            this.topK = topK;
+            return this;
+        }
+
+        /**
+         * 元信息过滤条件，写法和向量检索相同（如 status == '单身'）
+         * @param filterExpression
+         * @return
+         */
+        public Builder filterExpression(Filter.Expression filterExpression) {
+            this.filterExpression = filterExpression;
+            return this;
+        }
+
+        public Bm25DocumentRetriever build() {
+            return new Bm25DocumentRetriever(this);
+        }
+    }
+}
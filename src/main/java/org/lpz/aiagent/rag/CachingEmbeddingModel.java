@@ -0,0 +1,42 @@
+package org.lpz.aiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * 缓存查询向量的 EmbeddingModel
+ * 只缓存单条文本的向量化（向量库查询时走的 embed(String)），文档和批量请求直接交给被装饰的模型。
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+
+    private final RetrievalCache retrievalCache;
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, RetrievalCache retrievalCache) {
+        this.delegate = delegate;
+        this.retrievalCache = retrievalCache;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        return retrievalCache.getEmbedding(text, delegate::embed);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return delegate.call(request);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
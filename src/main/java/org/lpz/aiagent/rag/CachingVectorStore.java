@@ -0,0 +1,80 @@
+package org.lpz.aiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 缓存检索结果的向量库
+ * 查询先向量化（命中查询向量缓存时不调用模型），再按向量桶和检索参数查找结果缓存，未命中才查询被装饰的向量库；
+ * 通过本类写入或删除文档时清空结果缓存，知识库导入服务的写入都会经过这里。
+ */
+public class CachingVectorStore implements VectorStore {
+
+    private final VectorStore delegate;
+
+    private final EmbeddingModel embeddingModel;
+
+    private final RetrievalCache retrievalCache;
+
+    /**
+     * @param delegate 被装饰的向量库
+     * @param embeddingModel 查询向量化用的模型（应与向量库使用的是同一个 CachingEmbeddingModel，
+     *                       这样结果未命中时向量库内部再次向量化会命中查询向量缓存）
+     * @param retrievalCache 检索缓存
+     */
+    public CachingVectorStore(VectorStore delegate, EmbeddingModel embeddingModel, RetrievalCache retrievalCache) {
+        this.delegate = delegate;
+        this.embeddingModel = embeddingModel;
+        this.retrievalCache = retrievalCache;
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        try {
+            delegate.add(documents);
+        } finally {
+            retrievalCache.invalidateResults();
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        try {
+            delegate.delete(idList);
+        } finally {
+            retrievalCache.invalidateResults();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        try {
+            delegate.delete(filterExpression);
+        } finally {
+            retrievalCache.invalidateResults();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] embedding = embeddingModel.embed(request.getQuery());
+        String searchKey = request.getTopK() + "|" + request.getSimilarityThreshold() + "|" + request.getFilterExpression();
+        return retrievalCache.getResults(embedding, searchKey, () -> delegate.similaritySearch(request));
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public <T> Optional<T> getNativeClient() {
+        return delegate.getNativeClient();
+    }
+}
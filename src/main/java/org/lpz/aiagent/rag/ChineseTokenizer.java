@@ -0,0 +1,54 @@
+package org.lpz.aiagent.rag;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 关键词检索用的中文分词器
+ * 不依赖词典：连续的汉字切成相邻的两字组合（bigram，单个汉字保留单字），连续的字母数字作为一个词（转小写），
+ * 其余标点和空白丢弃。例如 "平台期怎么办" → 平台、台期、期怎、怎么、么办，
+ * 查询和文档用同样的切分方式，专有名词只要原样出现就能命中。
+ */
+public class ChineseTokenizer {
+
+    private ChineseTokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                while (i < length && isCjk(text.charAt(i))) {
+                    i++;
+                }
+                if (i - start == 1) {
+                    tokens.add(text.substring(start, i));
+                } else {
+                    for (int j = start; j < i - 1; j++) {
+                        tokens.add(text.substring(j, j + 2));
+                    }
+                }
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length && Character.isLetterOrDigit(text.charAt(i)) && !isCjk(text.charAt(i))) {
+                    i++;
+                }
+                tokens.add(text.substring(start, i).toLowerCase());
+            } else {
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isCjk(char c) {
+        return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+}
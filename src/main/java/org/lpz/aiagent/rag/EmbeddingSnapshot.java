@@ -0,0 +1,197 @@
+package org.lpz.aiagent.rag;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.lpz.aiagent.chatmemory.KryoSerializer;
+import org.springframework.ai.document.Document;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+/**
+ * 文档增强和向量化结果的磁盘快照
+ * 以文档内容（正文 + 元信息）的哈希为键，分别缓存 AI 补充的元信息和向量：
+ * 启动时内容没变的文档直接复用快照，只有新增或修改的文档才会调用大模型增强和向量模型。
+ * 保存时丢弃本次没有用到的条目，快照大小只和当前文档集有关。
+ */
+@Slf4j
+public class EmbeddingSnapshot {
+
+    // 快照格式版本，格式变化时旧快照整体失效
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    // 原始文档哈希 → 增强后的元信息
+    private final Map<String, HashMap<String, Object>> enrichedMetadata;
+
+    // 增强后文档哈希 → 向量
+    private final Map<String, float[]> embeddings;
+
+    private final Set<String> usedMetadata = new HashSet<>();
+
+    private final Set<String> usedEmbeddings = new HashSet<>();
+
+    private EmbeddingSnapshot(File file, Map<String, HashMap<String, Object>> enrichedMetadata,
+                              Map<String, float[]> embeddings) {
+        this.file = file;
+        this.enrichedMetadata = enrichedMetadata;
+        this.embeddings = embeddings;
+    }
+
+    /**
+     * 从文件加载快照，文件不存在或无法读取时返回空快照
+     * @param file
+     * @return
+     */
+    public static EmbeddingSnapshot load(File file) {
+        if (file.exists()) {
+            try (InputStream inputStream = new FileInputStream(file)) {
+                SnapshotData data = KryoSerializer.readObject(inputStream, SnapshotData.class);
+                if (data.version == VERSION) {
+                    log.info("加载向量快照 {}：{} 条元信息，{} 条向量", file.getName(),
+                            data.enrichedMetadata.size(), data.embeddings.size());
+                    return new EmbeddingSnapshot(file, data.enrichedMetadata, data.embeddings);
+                }
+                log.info("向量快照版本 {} 已过期，重新生成", data.version);
+            } catch (Exception e) {
+                log.warn("读取向量快照失败，将重新生成: {}", file, e);
+            }
+        }
+        return new EmbeddingSnapshot(file, new HashMap<>(), new HashMap<>());
+    }
+
+    /**
+     * 为文档补充元信息：快照中已有的直接复用，其余的交给 enricher 处理
+     * 返回的文档 id 由内容哈希生成，同样的内容每次启动得到同样的 id
+     * @param documents 原始文档
+     * @param enricher 元信息增强器（如调用大模型提取关键词）
+     * @return 增强后的文档
+     */
+    public synchronized List<Document> enrich(List<Document> documents, UnaryOperator<List<Document>> enricher) {
+        List<Document> result = new ArrayList<>(documents.size());
+        List<Document> missed = new ArrayList<>();
+        List<String> missedHashes = new ArrayList<>();
+        for (Document document : documents) {
+            String hash = hash(document);
+            HashMap<String, Object> metadata = enrichedMetadata.get(hash);
+            if (metadata != null) {
+                usedMetadata.add(hash);
+                result.add(buildDocument(hash, document.getText(), metadata));
+            } else {
+                missed.add(buildDocument(hash, document.getText(), document.getMetadata()));
+                missedHashes.add(hash);
+            }
+        }
+        if (missed.isEmpty()) {
+            return result;
+        }
+        log.info("{} 个文档需要增强元信息，{} 个复用快照", missed.size(), result.size());
+        try {
+            List<Document> enriched = enricher.apply(missed);
+            for (int i = 0; i < enriched.size(); i++) {
+                String hash = missedHashes.get(i);
+                enrichedMetadata.put(hash, new HashMap<>(enriched.get(i).getMetadata()));
+                usedMetadata.add(hash);
+            }
+            result.addAll(enriched);
+        } catch (Exception e) {
+            // 增强失败不影响启动，使用原始文档，下次启动时重试
+            log.error("文档元信息增强失败，本次使用未增强的文档", e);
+            result.addAll(missed);
+        }
+        return result;
+    }
+
+    /**
+     * 查找文档的向量
+     * @param document 增强后的文档
+     * @return 快照中没有时返回 null
+     */
+    public synchronized float[] getEmbedding(Document document) {
+        String hash = hash(document);
+        float[] embedding = embeddings.get(hash);
+        if (embedding != null) {
+            usedEmbeddings.add(hash);
+        }
+        return embedding;
+    }
+
+    public synchronized void putEmbedding(Document document, float[] embedding) {
+        String hash = hash(document);
+        embeddings.put(hash, embedding);
+        usedEmbeddings.add(hash);
+    }
+
+    /**
+     * 快照中任意一条向量的维度，快照为空时返回 -1
+     * @return
+     */
+    public synchronized int dimensions() {
+        return embeddings.isEmpty() ? -1 : embeddings.values().iterator().next().length;
+    }
+
+    /**
+     * 丢弃本次未用到的条目后写入文件（先写临时文件再替换，避免写到一半的快照）
+     */
+    public synchronized void save() {
+        enrichedMetadata.keySet().retainAll(usedMetadata);
+        embeddings.keySet().retainAll(usedEmbeddings);
+        SnapshotData data = new SnapshotData();
+        data.version = VERSION;
+        data.enrichedMetadata = new HashMap<>(enrichedMetadata);
+        data.embeddings = new HashMap<>(embeddings);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            try (OutputStream outputStream = new FileOutputStream(tmpFile)) {
+                KryoSerializer.writeObject(outputStream, data);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("保存向量快照失败: {}", file, e);
+        }
+    }
+
+    private Document buildDocument(String hash, String text, Map<String, Object> metadata) {
+        String id = UUID.nameUUIDFromBytes(hash.getBytes(StandardCharsets.UTF_8)).toString();
+        return Document.builder().id(id).text(text).metadata(new HashMap<>(metadata)).build();
+    }
+
+    /**
+     * 文档内容哈希：正文 + 按键排序的元信息
+     * @param document
+     * @return
+     */
+    static String hash(Document document) {
+        return DigestUtil.sha256Hex(document.getText() + "\n" + new TreeMap<>(document.getMetadata()));
+    }
+
+    /**
+     * 快照文件的内容
+     */
+    static class SnapshotData {
+
+        int version;
+
+        HashMap<String, HashMap<String, Object>> enrichedMetadata;
+
+        HashMap<String, float[]> embeddings;
+    }
+}
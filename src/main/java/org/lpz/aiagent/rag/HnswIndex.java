@@ -0,0 +1,879 @@
+package org.lpz.aiagent.rag;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW（分层可导航小世界图）近似最近邻索引
+ * 向量归一化后连续存放在一个数组中，相似度为点积（即余弦相似度）；
+ * 每个节点在每一层的邻居存放在一个 int[] 中，首位为邻居数。
+ * 向量可以量化存储：INT8 每维 1 字节（另加每个向量一个缩放系数），BINARY 每维 1 位，
+ * 图的构建和遍历都在量化后的编码上计算；开启重排序时原始精度向量写入内存映射文件（不占堆内存），
+ * 用于对候选结果重新精确打分。
+ * 删除只做标记：被删除的节点仍参与图的遍历，但不会出现在结果中。
+ * 本类不是线程安全的，由调用方加锁（写互斥，读可并发）。
+ */
+public class HnswIndex implements AutoCloseable {
+
+    private static final int MAGIC = 0x484E5357;
+
+    private static final int VERSION = 2;
+
+    // 节点层数上限
+    private static final int MAX_LEVEL = 16;
+
+    private final int dimensions;
+
+    // 上层每个节点的最大邻居数，第 0 层为 2 * m
+    private final int m;
+
+    // 构建时每层搜索的候选数
+    private final int efConstruction;
+
+    private final Quantization quantization;
+
+    private final double levelMultiplier;
+
+    private final SplittableRandom random;
+
+    // NONE：原始向量
+    private float[] vectors;
+
+    // INT8：每维 1 字节的编码和每个向量的缩放系数
+    private byte[] codes;
+
+    private float[] scales;
+
+    // BINARY：每维 1 位（符号位）
+    private long[] bits;
+
+    // BINARY 每个向量占用的 long 数
+    private final int words;
+
+    // 重排序用的原始精度向量，未开启时为 null
+    private MappedVectorFile rerankVectors;
+
+    private int[] levels;
+
+    // links[node][level] = [邻居数, 邻居1, 邻居2, ...]
+    private int[][][] links;
+
+    private final BitSet deleted = new BitSet();
+
+    private int size;
+
+    private int deletedCount;
+
+    private int entryPoint = -1;
+
+    private int maxLevel = -1;
+
+    /**
+     * 向量的存储方式
+     */
+    public enum Quantization {
+        // float32，每维 4 字节
+        NONE,
+        // 对称标量量化，每维 1 字节
+        INT8,
+        // 只保留符号位，每维 1 位，相似度由汉明距离估计
+        BINARY
+    }
+
+    /**
+     * 搜索结果
+     * @param node 节点编号（添加顺序）
+     * @param score 余弦相似度
+     */
+    public record Neighbor(int node, float score) {
+    }
+
+    /**
+     * @param dimensions 向量维度
+     * @param m 每个节点的邻居数（第 0 层为 2 * m），越大召回率越高、内存和构建耗时越多
+     * @param efConstruction 构建时的候选数，越大图质量越好、构建越慢
+     */
+    public HnswIndex(int dimensions, int m, int efConstruction) {
+        this(dimensions, m, efConstruction, Quantization.NONE, false);
+    }
+
+    /**
+     * @param dimensions 向量维度
+     * @param m 每个节点的邻居数（第 0 层为 2 * m）
+     * @param efConstruction 构建时的候选数
+     * @param quantization 向量的存储方式
+     * @param rerank 是否保留原始精度向量用于重排序（仅量化时有效，存放在临时的内存映射文件中）
+     */
+    public HnswIndex(int dimensions, int m, int efConstruction, Quantization quantization, boolean rerank) {
+        if (dimensions <= 0 || m < 2 || efConstruction <= 0) {
+            throw new IllegalArgumentException("invalid HNSW parameters: dimensions=" + dimensions
+                    + ", m=" + m + ", efConstruction=" + efConstruction);
+        }
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.quantization = quantization;
+        this.words = (dimensions + 63) / 64;
+        this.levelMultiplier = 1 / Math.log(m);
+        // 固定种子，同样的插入顺序得到同样的图
+        this.random = new SplittableRandom(42);
+        this.levels = new int[0];
+        this.links = new int[0][][];
+        this.vectors = new float[0];
+        this.codes = new byte[0];
+        this.scales = new float[0];
+        this.bits = new long[0];
+        ensureCapacity(16);
+        if (rerank && quantization != Quantization.NONE) {
+            try {
+                Path file = Files.createTempFile("hnsw-rerank-", ".vec");
+                file.toFile().deleteOnExit();
+                this.rerankVectors = new MappedVectorFile(file, dimensions);
+            } catch (IOException e) {
+                throw new UncheckedIOException("无法创建重排序向量文件", e);
+            }
+        }
+    }
+
+    /**
+     * 添加向量
+     * @param vector
+     * @return 节点编号
+     */
+    public int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("expected " + dimensions + " dimensions but got " + vector.length);
+        }
+        ensureCapacity(size + 1);
+        int node = size;
+        Query query = query(vector);
+        store(node, query.values());
+        int level = randomLevel();
+        levels[node] = level;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[1 + maxConnections(l)];
+        }
+        size++;
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        // 1.在新节点以上的层贪心地找到最近的入口
+        int ep = greedySearch(query, entryPoint, maxLevel, level);
+        // 2.在新节点所在的每一层找候选邻居并双向连接
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeHeap candidates = searchLayer(query, ep, efConstruction, l, null);
+            int count = candidates.size();
+            int[] nodes = new int[count];
+            float[] scores = new float[count];
+            // 小顶堆依次弹出的是从差到好的节点，倒序放入数组
+            for (int i = count - 1; i >= 0; i--) {
+                scores[i] = candidates.topScore();
+                nodes[i] = candidates.pop();
+            }
+            int[] selected = selectNeighbors(nodes, scores, count, maxConnections(l));
+            int[] nodeLinks = links[node][l];
+            nodeLinks[0] = selected.length;
+            System.arraycopy(selected, 0, nodeLinks, 1, selected.length);
+            for (int neighbor : selected) {
+                connect(neighbor, node, l);
+            }
+            ep = nodes[0];
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * 近似搜索最相似的 k 个节点
+     * @param query 查询向量
+     * @param k 返回数量
+     * @param ef 搜索的候选数（不小于 k），越大召回率越高、越慢
+     * @param filter 节点过滤条件，为 null 时不过滤；过滤在遍历时进行，不影响图的连通
+     * @return 按相似度从高到低排列
+     */
+    public List<Neighbor> search(float[] query, int k, int ef, IntPredicate filter) {
+        if (entryPoint < 0 || k <= 0) {
+            return List.of();
+        }
+        Query normalized = query(query);
+        int ep = greedySearch(normalized, entryPoint, maxLevel, 0);
+        IntPredicate accept = filter == null ? node -> !deleted.get(node) : node -> !deleted.get(node) && filter.test(node);
+        NodeHeap results = searchLayer(normalized, ep, Math.max(ef, k), 0, accept);
+        if (rerankVectors != null) {
+            // 用原始精度向量对全部候选重新打分
+            NodeHeap reranked = new NodeHeap(results.size() + 1, false);
+            while (results.size() > 0) {
+                int node = results.pop();
+                reranked.push(node, rerankVectors.dot(normalized.values(), node));
+                if (reranked.size() > k) {
+                    reranked.pop();
+                }
+            }
+            results = reranked;
+        }
+        while (results.size() > k) {
+            results.pop();
+        }
+        Neighbor[] neighbors = new Neighbor[results.size()];
+        for (int i = neighbors.length - 1; i >= 0; i--) {
+            float score = results.topScore();
+            neighbors[i] = new Neighbor(results.pop(), score);
+        }
+        return Arrays.asList(neighbors);
+    }
+
+    /**
+     * 暴力扫描所有节点的搜索，用于对比召回率（有原始精度向量时按原始精度打分）
+     * @param query
+     * @param k
+     * @param filter
+     * @return 按相似度从高到低排列
+     */
+    public List<Neighbor> exactSearch(float[] query, int k, IntPredicate filter) {
+        Query normalized = query(query);
+        NodeHeap results = new NodeHeap(k + 1, false);
+        for (int node = 0; node < size; node++) {
+            if (deleted.get(node) || (filter != null && !filter.test(node))) {
+                continue;
+            }
+            results.push(node, rerankVectors != null ? rerankVectors.dot(normalized.values(), node) : score(normalized, node));
+            if (results.size() > k) {
+                results.pop();
+            }
+        }
+        Neighbor[] neighbors = new Neighbor[results.size()];
+        for (int i = neighbors.length - 1; i >= 0; i--) {
+            float score = results.topScore();
+            neighbors[i] = new Neighbor(results.pop(), score);
+        }
+        return Arrays.asList(neighbors);
+    }
+
+    /**
+     * 标记删除节点
+     * @param node
+     */
+    public void delete(int node) {
+        if (node >= 0 && node < size && !deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+        }
+    }
+
+    public boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+
+    /**
+     * 节点的向量（归一化后的副本；量化且没有原始精度向量时为还原后的近似值）
+     * @param node
+     * @return
+     */
+    public float[] vector(int node) {
+        if (rerankVectors != null) {
+            return rerankVectors.get(node);
+        }
+        float[] vector = new float[dimensions];
+        switch (quantization) {
+            case NONE -> System.arraycopy(vectors, node * dimensions, vector, 0, dimensions);
+            case INT8 -> {
+                int offset = node * dimensions;
+                for (int i = 0; i < dimensions; i++) {
+                    vector[i] = codes[offset + i] * scales[node];
+                }
+            }
+            case BINARY -> {
+                int offset = node * words;
+                for (int i = 0; i < dimensions; i++) {
+                    vector[i] = (bits[offset + (i >>> 6)] >>> (i & 63) & 1) != 0 ? 1 : -1;
+                }
+            }
+        }
+        return vector;
+    }
+
+    public Quantization quantization() {
+        return quantization;
+    }
+
+    public boolean isRerank() {
+        return rerankVectors != null;
+    }
+
+    /**
+     * 向量在堆内存中占用的字节数（不含邻居表和重排序用的映射文件）
+     * @return
+     */
+    public long vectorHeapBytes() {
+        return switch (quantization) {
+            case NONE -> (long) size * dimensions * Float.BYTES;
+            case INT8 -> (long) size * (dimensions + Float.BYTES);
+            case BINARY -> (long) size * words * Long.BYTES;
+        };
+    }
+
+    /**
+     * 邻居表在堆内存中大约占用的字节数（数组头按 16 字节计）
+     * @return
+     */
+    public long linkHeapBytes() {
+        long bytes = 0;
+        for (int node = 0; node < size; node++) {
+            bytes += 16 + 4L * links[node].length;
+            for (int[] levelLinks : links[node]) {
+                bytes += 16 + 4L * levelLinks.length;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        if (rerankVectors != null) {
+            rerankVectors.close();
+            try {
+                Files.deleteIfExists(rerankVectors.getFile());
+            } catch (IOException e) {
+                // 退出时由 deleteOnExit 兜底
+            }
+            rerankVectors = null;
+        }
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int m() {
+        return m;
+    }
+
+    public int efConstruction() {
+        return efConstruction;
+    }
+
+    /**
+     * 节点总数（包括已删除的）
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public int deletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * 写入二进制格式：参数、每个节点的层数 / 向量编码 / 原始精度向量（开启重排序时）/ 各层邻居、已删除节点
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dimensions);
+        out.writeInt(m);
+        out.writeInt(efConstruction);
+        out.writeByte(quantization.ordinal());
+        out.writeBoolean(rerankVectors != null);
+        out.writeInt(size);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (int node = 0; node < size; node++) {
+            out.writeByte(levels[node]);
+            switch (quantization) {
+                case NONE -> {
+                    int offset = node * dimensions;
+                    for (int i = 0; i < dimensions; i++) {
+                        out.writeFloat(vectors[offset + i]);
+                    }
+                }
+                case INT8 -> {
+                    out.writeFloat(scales[node]);
+                    out.write(codes, node * dimensions, dimensions);
+                }
+                case BINARY -> {
+                    int offset = node * words;
+                    for (int i = 0; i < words; i++) {
+                        out.writeLong(bits[offset + i]);
+                    }
+                }
+            }
+            if (rerankVectors != null) {
+                for (float v : rerankVectors.get(node)) {
+                    out.writeFloat(v);
+                }
+            }
+            for (int l = 0; l <= levels[node]; l++) {
+                int[] nodeLinks = links[node][l];
+                out.writeShort(nodeLinks[0]);
+                for (int i = 1; i <= nodeLinks[0]; i++) {
+                    out.writeInt(nodeLinks[i]);
+                }
+            }
+        }
+        out.writeInt(deletedCount);
+        for (int node = deleted.nextSetBit(0); node >= 0; node = deleted.nextSetBit(node + 1)) {
+            out.writeInt(node);
+        }
+    }
+
+    public static HnswIndex readFrom(DataInputStream in) throws IOException {
+        return readFrom(in, true);
+    }
+
+    /**
+     * 读取 writeTo 写入的索引
+     * @param in
+     * @param rerank 文件中有原始精度向量时是否加载用于重排序
+     * @return
+     * @throws IOException
+     */
+    public static HnswIndex readFrom(DataInputStream in, boolean rerank) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a HNSW index");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported HNSW index version " + version);
+        }
+        int dimensions = in.readInt();
+        int m = in.readInt();
+        int efConstruction = in.readInt();
+        Quantization quantization = Quantization.values()[in.readByte()];
+        boolean hasRerankVectors = in.readBoolean();
+        HnswIndex index = new HnswIndex(dimensions, m, efConstruction, quantization, rerank && hasRerankVectors);
+        int size = in.readInt();
+        index.ensureCapacity(size);
+        index.size = size;
+        index.entryPoint = in.readInt();
+        index.maxLevel = in.readInt();
+        float[] rerankVector = new float[dimensions];
+        for (int node = 0; node < size; node++) {
+            int level = in.readByte();
+            index.levels[node] = level;
+            switch (quantization) {
+                case NONE -> {
+                    int offset = node * dimensions;
+                    for (int i = 0; i < dimensions; i++) {
+                        index.vectors[offset + i] = in.readFloat();
+                    }
+                }
+                case INT8 -> {
+                    index.scales[node] = in.readFloat();
+                    in.readFully(index.codes, node * dimensions, dimensions);
+                }
+                case BINARY -> {
+                    int offset = node * index.words;
+                    for (int i = 0; i < index.words; i++) {
+                        index.bits[offset + i] = in.readLong();
+                    }
+                }
+            }
+            if (hasRerankVectors) {
+                for (int i = 0; i < dimensions; i++) {
+                    rerankVector[i] = in.readFloat();
+                }
+                if (index.rerankVectors != null) {
+                    index.rerankVectors.put(node, rerankVector);
+                }
+            }
+            index.links[node] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                int[] nodeLinks = new int[1 + index.maxConnections(l)];
+                nodeLinks[0] = in.readShort();
+                for (int i = 1; i <= nodeLinks[0]; i++) {
+                    nodeLinks[i] = in.readInt();
+                }
+                index.links[node][l] = nodeLinks;
+            }
+        }
+        int deletedCount = in.readInt();
+        for (int i = 0; i < deletedCount; i++) {
+            index.deleted.set(in.readInt());
+        }
+        index.deletedCount = deletedCount;
+        return index;
+    }
+
+    /**
+     * 从 fromLevel 层贪心下降到 toLevel 层（不含），每层只保留最近的一个节点
+     */
+    private int greedySearch(Query query, int ep, int fromLevel, int toLevel) {
+        float epScore = score(query, ep);
+        for (int l = fromLevel; l > toLevel; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                int[] nodeLinks = links[ep][l];
+                for (int i = 1; i <= nodeLinks[0]; i++) {
+                    int neighbor = nodeLinks[i];
+                    float score = score(query, neighbor);
+                    if (score > epScore) {
+                        epScore = score;
+                        ep = neighbor;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return ep;
+    }
+
+    /**
+     * 在一层内做最佳优先搜索
+     * @return 满足条件的最多 ef 个节点（小顶堆，堆顶为其中最差的）
+     */
+    private NodeHeap searchLayer(Query query, int ep, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(size);
+        NodeHeap candidates = new NodeHeap(ef + 1, true);
+        NodeHeap results = new NodeHeap(ef + 1, false);
+        float epScore = score(query, ep);
+        visited.set(ep);
+        candidates.push(ep, epScore);
+        if (accept == null || accept.test(ep)) {
+            results.push(ep, epScore);
+        }
+        while (candidates.size() > 0) {
+            // 最好的候选都比结果中最差的还差，后面不会再有更好的
+            if (results.size() >= ef && candidates.topScore() < results.topScore()) {
+                break;
+            }
+            int current = candidates.pop();
+            int[] nodeLinks = links[current][level];
+            for (int i = 1; i <= nodeLinks[0]; i++) {
+                int neighbor = nodeLinks[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float score = score(query, neighbor);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbor, score);
+                    if (accept == null || accept.test(neighbor)) {
+                        results.push(neighbor, score);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式选择邻居：候选按相似度从高到低，只保留和已选邻居相比离基准点更近的，
+     * 使邻居分布在不同方向上；不足时用被跳过的候选补齐
+     */
+    private int[] selectNeighbors(int[] nodes, float[] scores, int count, int maxConnections) {
+        if (count <= maxConnections) {
+            return Arrays.copyOf(nodes, count);
+        }
+        int[] selected = new int[maxConnections];
+        int selectedCount = 0;
+        List<Integer> skipped = new ArrayList<>();
+        for (int i = 0; i < count && selectedCount < maxConnections; i++) {
+            int candidate = nodes[i];
+            boolean diverse = true;
+            for (int j = 0; j < selectedCount; j++) {
+                if (score(candidate, selected[j]) > scores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[selectedCount++] = candidate;
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        for (int i = 0; i < skipped.size() && selectedCount < maxConnections; i++) {
+            selected[selectedCount++] = skipped.get(i);
+        }
+        return selectedCount == maxConnections ? selected : Arrays.copyOf(selected, selectedCount);
+    }
+
+    /**
+     * 给 node 添加邻居 neighbor，邻居已满时重新选择
+     */
+    private void connect(int node, int neighbor, int level) {
+        int[] nodeLinks = links[node][level];
+        int count = nodeLinks[0];
+        int maxConnections = nodeLinks.length - 1;
+        if (count < maxConnections) {
+            nodeLinks[++count] = neighbor;
+            nodeLinks[0] = count;
+            return;
+        }
+        int[] nodes = new int[count + 1];
+        float[] scores = new float[count + 1];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = nodeLinks[i + 1];
+            scores[i] = score(node, nodes[i]);
+        }
+        nodes[count] = neighbor;
+        scores[count] = score(node, neighbor);
+        sortDescending(nodes, scores);
+        int[] selected = selectNeighbors(nodes, scores, nodes.length, maxConnections);
+        nodeLinks[0] = selected.length;
+        System.arraycopy(selected, 0, nodeLinks, 1, selected.length);
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private int randomLevel() {
+        double r = random.nextDouble();
+        return Math.min(MAX_LEVEL, (int) (-Math.log(1 - r) * levelMultiplier));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= levels.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, levels.length * 2);
+        levels = Arrays.copyOf(levels, newCapacity);
+        links = Arrays.copyOf(links, newCapacity);
+        switch (quantization) {
+            case NONE -> vectors = Arrays.copyOf(vectors, newCapacity * dimensions);
+            case INT8 -> {
+                codes = Arrays.copyOf(codes, newCapacity * dimensions);
+                scales = Arrays.copyOf(scales, newCapacity);
+            }
+            case BINARY -> bits = Arrays.copyOf(bits, newCapacity * words);
+        }
+    }
+
+    /**
+     * 查询向量：归一化后的原始值，BINARY 时另有符号位编码
+     */
+    private record Query(float[] values, long[] bits) {
+    }
+
+    private Query query(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float scale = norm > 0 ? (float) (1 / Math.sqrt(norm)) : 0;
+        float[] values = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            values[i] = vector[i] * scale;
+        }
+        return new Query(values, quantization == Quantization.BINARY ? signBits(values) : null);
+    }
+
+    private long[] signBits(float[] values) {
+        long[] result = new long[words];
+        for (int i = 0; i < dimensions; i++) {
+            if (values[i] > 0) {
+                result[i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        return result;
+    }
+
+    private void store(int node, float[] values) {
+        switch (quantization) {
+            case NONE -> System.arraycopy(values, 0, vectors, node * dimensions, dimensions);
+            case INT8 -> {
+                float max = 0;
+                for (float v : values) {
+                    max = Math.max(max, Math.abs(v));
+                }
+                float scale = max > 0 ? max / 127 : 1;
+                int offset = node * dimensions;
+                for (int i = 0; i < dimensions; i++) {
+                    codes[offset + i] = (byte) Math.round(values[i] / scale);
+                }
+                scales[node] = scale;
+            }
+            case BINARY -> System.arraycopy(signBits(values), 0, bits, node * words, words);
+        }
+        if (rerankVectors != null) {
+            rerankVectors.put(node, values);
+        }
+    }
+
+    /**
+     * 查询向量和节点的相似度（INT8 时查询保持 float，只有节点一侧是量化的）
+     */
+    private float score(Query query, int node) {
+        float[] values = query.values();
+        switch (quantization) {
+            case NONE -> {
+                int offset = node * dimensions;
+                float sum = 0;
+                for (int i = 0; i < dimensions; i++) {
+                    sum += values[i] * vectors[offset + i];
+                }
+                return sum;
+            }
+            case INT8 -> {
+                int offset = node * dimensions;
+                float sum = 0;
+                for (int i = 0; i < dimensions; i++) {
+                    sum += values[i] * codes[offset + i];
+                }
+                return sum * scales[node];
+            }
+            default -> {
+                return hammingScore(query.bits(), 0, node * words);
+            }
+        }
+    }
+
+    /**
+     * 两个节点之间的相似度
+     */
+    private float score(int a, int b) {
+        switch (quantization) {
+            case NONE -> {
+                int offsetA = a * dimensions;
+                int offsetB = b * dimensions;
+                float sum = 0;
+                for (int i = 0; i < dimensions; i++) {
+                    sum += vectors[offsetA + i] * vectors[offsetB + i];
+                }
+                return sum;
+            }
+            case INT8 -> {
+                int offsetA = a * dimensions;
+                int offsetB = b * dimensions;
+                int sum = 0;
+                for (int i = 0; i < dimensions; i++) {
+                    sum += codes[offsetA + i] * codes[offsetB + i];
+                }
+                return sum * scales[a] * scales[b];
+            }
+            default -> {
+                return hammingScore(bits, a * words, b * words);
+            }
+        }
+    }
+
+    /**
+     * 由汉明距离估计余弦相似度：两个向量夹角约为 π * 不同的位数 / 维度
+     */
+    private float hammingScore(long[] query, int queryOffset, int offset) {
+        int distance = 0;
+        for (int i = 0; i < words; i++) {
+            distance += Long.bitCount(query[queryOffset + i] ^ bits[offset + i]);
+        }
+        return (float) Math.cos(Math.PI * distance / dimensions);
+    }
+
+    private static void sortDescending(int[] nodes, float[] scores) {
+        // 邻居数很少，插入排序即可
+        for (int i = 1; i < nodes.length; i++) {
+            int node = nodes[i];
+            float score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                nodes[j + 1] = nodes[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+            scores[j + 1] = score;
+        }
+    }
+
+    /**
+     * 基于数组的二叉堆，存放节点编号和相似度，避免装箱
+     */
+    private static class NodeHeap {
+
+        private int[] nodes;
+
+        private float[] scores;
+
+        private int size;
+
+        // true 为大顶堆（堆顶相似度最高），false 为小顶堆
+        private final boolean maxHeap;
+
+        NodeHeap(int initialCapacity, boolean maxHeap) {
+            this.nodes = new int[Math.max(2, initialCapacity)];
+            this.scores = new float[nodes.length];
+            this.maxHeap = maxHeap;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            int node = nodes[size];
+            float score = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                    child++;
+                }
+                if (!before(scores[child], score)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+            return top;
+        }
+
+        private boolean before(float a, float b) {
+            return maxHeap ? a > b : a < b;
+        }
+    }
+}
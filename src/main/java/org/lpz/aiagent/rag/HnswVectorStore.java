@@ -0,0 +1,482 @@
+package org.lpz.aiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.lpz.aiagent.chatmemory.KryoSerializer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.observation.conventions.VectorStoreSimilarityMetric;
+import org.springframework.ai.vectorstore.AbstractVectorStoreBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.observation.AbstractObservationVectorStore;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 基于内存 HNSW 图的向量数据库
+ * 和 SimpleVectorStore 用法相同，但查询只访问图上的少量节点，不再逐个计算所有文档的相似度；
+ * 元信息过滤和 SimpleVectorStore 一样转换为 SpEL 表达式，在图遍历时判断。
+ * 向量可以按 INT8 / BINARY 量化存储以减少内存，并可选用原始精度向量对候选结果重排序（见 HnswIndex）。
+ * 可以保存为二进制文件，启动时直接加载，不需要重新建图。
+ */
+@Slf4j
+public class HnswVectorStore extends AbstractObservationVectorStore implements AutoCloseable {
+
+    private static final int MAGIC = 0x48565354;
+
+    private static final int VERSION = 1;
+
+    private final int m;
+
+    private final int efConstruction;
+
+    private final int efSearch;
+
+    private final HnswIndex.Quantization quantization;
+
+    private final boolean rerank;
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+    private final FilterExpressionConverter filterExpressionConverter = new SimpleVectorStoreFilterExpressionConverter();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 第一次添加文档时按向量维度创建
+    private HnswIndex index;
+
+    // 节点编号 → 文档，已删除的节点为 null
+    private final List<String> ids = new ArrayList<>();
+
+    private final List<String> texts = new ArrayList<>();
+
+    private final List<Map<String, Object>> metadatas = new ArrayList<>();
+
+    private final Map<String, Integer> nodeById = new HashMap<>();
+
+    protected HnswVectorStore(Builder builder) {
+        super(builder);
+        this.m = builder.m;
+        this.efConstruction = builder.efConstruction;
+        this.efSearch = builder.efSearch;
+        this.quantization = builder.quantization;
+        this.rerank = builder.rerank;
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    @Override
+    public void doAdd(List<Document> documents) {
+        // 向量化在锁外进行，不阻塞查询
+        List<float[]> embeddings = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            embeddings.add(embeddingModel.embed(document));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                if (index == null) {
+                    index = new HnswIndex(embeddings.get(i).length, m, efConstruction, quantization, rerank);
+                }
+                // 同 id 的文档视为更新，旧节点标记删除
+                removeNode(document.getId());
+                int node = index.add(embeddings.get(i));
+                ids.add(document.getId());
+                texts.add(document.getText());
+                metadatas.add(new HashMap<>(document.getMetadata()));
+                nodeById.put(document.getId(), node);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void doDelete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            idList.forEach(this::removeNode);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doDelete(Filter.Expression filterExpression) {
+        Expression expression = parseFilter(filterExpression);
+        List<String> matched = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int node = 0; node < ids.size(); node++) {
+                if (ids.get(node) != null && matches(expression, node)) {
+                    matched.add(ids.get(node));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        doDelete(matched);
+    }
+
+    @Override
+    public List<Document> doSimilaritySearch(SearchRequest request) {
+        float[] query = embeddingModel.embed(request.getQuery());
+        Expression expression = request.hasFilterExpression() ? parseFilter(request.getFilterExpression()) : null;
+        lock.readLock().lock();
+        try {
+            if (index == null) {
+                return List.of();
+            }
+            IntPredicate filter = expression == null ? null : node -> matches(expression, node);
+            int ef = Math.max(efSearch, request.getTopK());
+            List<Document> documents = new ArrayList<>();
+            for (HnswIndex.Neighbor neighbor : index.search(query, request.getTopK(), ef, filter)) {
+                if (neighbor.score() < request.getSimilarityThreshold()) {
+                    continue;
+                }
+                int node = neighbor.node();
+                Map<String, Object> metadata = new HashMap<>(metadatas.get(node));
+                metadata.put("distance", 1 - neighbor.score());
+                documents.add(Document.builder()
+                        .id(ids.get(node))
+                        .text(texts.get(node))
+                        .metadata(metadata)
+                        .score((double) neighbor.score())
+                        .build());
+            }
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public VectorStoreObservationContext.Builder createObservationContextBuilder(String operationName) {
+        return VectorStoreObservationContext.builder("hnsw", operationName)
+                .dimensions(index != null ? index.dimensions() : embeddingModel.dimensions())
+                .collectionName("in-memory-hnsw")
+                .similarityMetric(VectorStoreSimilarityMetric.COSINE.value());
+    }
+
+    /**
+     * 实际使用的量化方式（加载的文件中的方式，尚未建图时为 builder 中的配置）
+     * @return
+     */
+    public HnswIndex.Quantization getQuantization() {
+        lock.readLock().lock();
+        try {
+            return index == null ? quantization : index.quantization();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 向量在堆内存中占用的字节数
+     * @return
+     */
+    public long getVectorHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return index == null ? 0 : index.vectorHeapBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前所有文档的 id
+     * @return
+     */
+    public Set<String> getIds() {
+        lock.readLock().lock();
+        try {
+            return new LinkedHashSet<>(nodeById.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前所有文档的内容哈希（见 EmbeddingSnapshot.hash），用于判断保存的向量库是否过期
+     * @return
+     */
+    Set<String> documentHashes() {
+        lock.readLock().lock();
+        try {
+            Set<String> hashes = new HashSet<>();
+            for (int node = 0; node < ids.size(); node++) {
+                if (ids.get(node) != null) {
+                    hashes.add(EmbeddingSnapshot.hash(new Document(ids.get(node), texts.get(node), metadatas.get(node))));
+                }
+            }
+            return hashes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 保存为二进制文件（先写临时文件再替换）
+     * 格式：文件头、每个节点的文档（已删除的节点只写标记）、HNSW 索引
+     * @param file
+     */
+    public void save(File file) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        lock.readLock().lock();
+        try {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ids.size());
+                for (int node = 0; node < ids.size(); node++) {
+                    String id = ids.get(node);
+                    out.writeBoolean(id != null);
+                    if (id != null) {
+                        out.writeUTF(id);
+                        writeBytes(out, texts.get(node).getBytes(StandardCharsets.UTF_8));
+                        writeBytes(out, KryoSerializer.toBytes(metadatas.get(node)));
+                    }
+                }
+                out.writeBoolean(index != null);
+                if (index != null) {
+                    index.writeTo(out);
+                }
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("保存 HNSW 向量库失败: {}", file, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从 save 保存的文件加载（图的参数和量化方式以文件中的为准，efSearch 和是否重排序取自 builder）
+     * @param file
+     * @param builder
+     * @return 文件不存在或无法读取时返回 null
+     */
+    public static HnswVectorStore load(File file, Builder builder) {
+        if (!file.exists()) {
+            return null;
+        }
+        HnswVectorStore store = builder.build();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.info("HNSW 向量库文件格式已过期，重新构建: {}", file);
+                return null;
+            }
+            int size = in.readInt();
+            for (int node = 0; node < size; node++) {
+                if (in.readBoolean()) {
+                    String id = in.readUTF();
+                    store.ids.add(id);
+                    store.texts.add(new String(readBytes(in), StandardCharsets.UTF_8));
+                    store.metadatas.add(KryoSerializer.fromBytes(readBytes(in)));
+                    store.nodeById.put(id, node);
+                } else {
+                    store.ids.add(null);
+                    store.texts.add(null);
+                    store.metadatas.add(null);
+                }
+            }
+            if (in.readBoolean()) {
+                store.index = HnswIndex.readFrom(in, store.rerank);
+            }
+            log.info("加载 HNSW 向量库 {}：{} 个文档", file.getName(), store.nodeById.size());
+            return store;
+        } catch (Exception e) {
+            log.warn("读取 HNSW 向量库失败，重新构建: {}", file, e);
+            return null;
+        }
+    }
+
+    private void removeNode(String id) {
+        Integer node = nodeById.remove(id);
+        if (node != null) {
+            index.delete(node);
+            ids.set(node, null);
+            texts.set(node, null);
+            metadatas.set(node, null);
+        }
+    }
+
+    /**
+     * 已删除的节点超过一半时，用剩余的节点重建索引，回收内存
+     */
+    private void compactIfNeeded() {
+        if (index == null || index.deletedCount() <= Math.max(64, index.size() / 2)) {
+            return;
+        }
+        HnswIndex compacted = new HnswIndex(index.dimensions(), index.m(), index.efConstruction(),
+                index.quantization(), index.isRerank());
+        List<String> newIds = new ArrayList<>();
+        List<String> newTexts = new ArrayList<>();
+        List<Map<String, Object>> newMetadatas = new ArrayList<>();
+        nodeById.clear();
+        for (int node = 0; node < ids.size(); node++) {
+            if (ids.get(node) == null) {
+                continue;
+            }
+            int newNode = compacted.add(index.vector(node));
+            newIds.add(ids.get(node));
+            newTexts.add(texts.get(node));
+            newMetadatas.add(metadatas.get(node));
+            nodeById.put(ids.get(node), newNode);
+        }
+        log.info("HNSW 索引重建：{} 个节点 → {} 个节点", index.size(), compacted.size());
+        index.close();
+        index = compacted;
+        ids.clear();
+        ids.addAll(newIds);
+        texts.clear();
+        texts.addAll(newTexts);
+        metadatas.clear();
+        metadatas.addAll(newMetadatas);
+    }
+
+    /**
+     * 释放重排序用的映射文件
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (index != null) {
+                index.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Expression parseFilter(Filter.Expression filterExpression) {
+        return expressionParser.parseExpression(filterExpressionConverter.convertExpression(filterExpression));
+    }
+
+    private boolean matches(Expression expression, int node) {
+        Map<String, Object> metadata = metadatas.get(node);
+        if (metadata == null) {
+            return false;
+        }
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setVariable("metadata", metadata);
+        return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    public static final class Builder extends AbstractVectorStoreBuilder<Builder> {
+
+        private int m = 16;
+
+        private int efConstruction = 200;
+
+        private int efSearch = 64;
+
+        private HnswIndex.Quantization quantization = HnswIndex.Quantization.NONE;
+
+        private boolean rerank = true;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            super(embeddingModel);
+        }
+
+        /**
+         * 每个节点的邻居数（第 0 层为 2 * m）
+         * @param m
+         * @return
+         */
+        public Builder m(int m) {
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * 构建时的候选数
+         * @param efConstruction
+         * @return
+         */
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        /**
+         * 查询时的候选数（实际取 max(efSearch, topK)）
+         * @param efSearch
+         * @return
+         */
+        public Builder efSearch(int efSearch) {
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * 向量的存储方式
+         * @param quantization
+         * @return
+         */
+        public Builder quantization(HnswIndex.Quantization quantization) {
+            this.quantization = quantization;
+            return this;
+        }
+
+        /**
+         * 量化存储时是否用原始精度向量重排序
+         * @param rerank
+         * @return
+         */
+        public Builder rerank(boolean rerank) {
+            this.rerank = rerank;
+            return this;
+        }
+
+        @Override
+        public HnswVectorStore build() {
+            return new HnswVectorStore(this);
+        }
+    }
+}
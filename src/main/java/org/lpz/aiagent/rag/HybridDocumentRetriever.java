@@ -0,0 +1,119 @@
+package org.lpz.aiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 混合检索器：用倒数排名融合（RRF）合并多个检索器的结果
+ * 每个检索器结果中排第 r 名（从 1 开始）的文档得分 1 / (k + r)，同一文档在多个检索器中的得分相加，
+ * 只看排名不看原始分数，向量相似度和 BM25 分数量纲不同也可以直接合并。
+ * 同一文档以正文判断（向量库和关键词索引中的文档 id 可能不同），保留最先出现的那份。
+ */
+public class HybridDocumentRetriever implements DocumentRetriever {
+
+    private final List<DocumentRetriever> retrievers;
+
+    private final int rrfK;
+
+    private final int topK;
+
+    private HybridDocumentRetriever(Builder builder) {
+        this.retrievers = List.copyOf(builder.retrievers);
+        this.rrfK = builder.rrfK;
+        this.topK = builder.topK;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 各检索器在虚拟线程上并行检索（向量检索和关键词检索互不依赖）
+     * @param query
+     * @return
+     */
+    @Override
+    public List<Document> retrieve(Query query) {
+        List<CompletableFuture<List<Document>>> futures = retrievers.stream()
+                .map(retriever -> CompletableFuture.supplyAsync(() -> retriever.retrieve(query), RagExecutors.EXECUTOR))
+                .toList();
+        List<List<Document>> rankings = new ArrayList<>(retrievers.size());
+        for (CompletableFuture<List<Document>> future : futures) {
+            rankings.add(RagExecutors.join(future));
+        }
+        return fuse(rankings, rrfK, topK);
+    }
+
+    /**
+     * 融合多个检索结果
+     * @param rankings 每个检索器的结果，按相关性从高到低
+     * @param rrfK RRF 平滑参数
+     * @param topK 返回的文档数
+     * @return 融合后的前 topK 个文档，score 为融合得分
+     */
+    static List<Document> fuse(List<List<Document>> rankings, int rrfK, int topK) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                String key = document.getText();
+                documents.putIfAbsent(key, document);
+                scores.merge(key, 1.0 / (rrfK + rank + 1), Double::sum);
+            }
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(topK)
+                .map(entry -> documents.get(entry.getKey()).mutate().score(entry.getValue()).build())
+                .toList();
+    }
+
+    public static final class Builder {
+
+        private final List<DocumentRetriever> retrievers = new ArrayList<>();
+
+        private int rrfK = 60;
+
+        private int topK = 4;
+
+        private Builder() {
+        }
+
+        public Builder retrievers(DocumentRetriever... retrievers) {
+            this.retrievers.addAll(List.of(retrievers));
+            return this;
+        }
+
+        /**
+         * RRF 平滑参数，越大排名靠后的文档权重衰减越慢
+         * @param rrfK
+         * @return
+         */
+        public Builder rrfK(int rrfK) {
+            this.rrfK = rrfK;
+            return this;
+        }
+
+        /**
+         * 融合后返回的文档数
+         * @param topK
+         * @return
+         */
+        public Builder topK(int topK) {
+            this.topK = topK;
+            return this;
+        }
+
+        public HybridDocumentRetriever build() {
+            return new HybridDocumentRetriever(this);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.lpz.aiagent.rag;
+
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 恋爱大师关键词检索配置（初始化基于内存倒排索引的 BM25 检索器 Bean）
+ */
+@Configuration
+@Slf4j
+public class LoveAppKeywordRetrieverConfig {
+
+    @Resource
+    private LoveAppDocumentLoader loveAppDocumentLoader;
+
+    @Bean
+    Bm25DocumentRetriever loveAppKeywordRetriever() {
+        Bm25DocumentRetriever retriever = Bm25DocumentRetriever.builder()
+                .documents(loveAppDocumentLoader.loadMarkdowns())
+                .build();
+        log.info("关键词索引构建完成，共 {} 个文档", retriever.size());
+        return retriever;
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.lpz.aiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.rag.preretrieval.query.expansion.MultiQueryExpander;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 恋爱大师知识库问答的文档检索器配置
+ * 基础是混合检索（pgVector 向量检索 + BM25 关键词检索，RRF 融合）；开启多查询扩展后，
+ * 每个查询变体并行做混合检索，按文档去重后再融合。
+ */
+@Configuration
+@Slf4j
+public class LoveAppRagRetrieverConfig {
+
+    // 每路检索的候选数，只参与融合，不进入提示词
+    private static final int CANDIDATE_TOP_K = 6;
+
+    // 融合后放入提示词的文档数
+    private static final int TOP_K = 3;
+
+    @Bean
+    DocumentRetriever loveAppRagRetriever(@Qualifier("pgVectorVectorStore") VectorStore pgVectorVectorStore,
+                                          Bm25DocumentRetriever loveAppKeywordRetriever,
+                                          ChatModel dashscopeChatModel,
+                                          @Value("${rag.multi-query.enabled:false}") boolean multiQueryEnabled,
+                                          @Value("${rag.multi-query.number-of-queries:3}") int numberOfQueries) {
+        DocumentRetriever hybridRetriever = createHybridRetriever(pgVectorVectorStore, loveAppKeywordRetriever);
+        if (!multiQueryEnabled) {
+            return hybridRetriever;
+        }
+        log.info("知识库检索开启多查询扩展，每次生成 {} 个查询变体", numberOfQueries);
+        return MultiQueryDocumentRetriever.builder()
+                .queryExpander(MultiQueryExpander.builder()
+                        .chatClientBuilder(ChatClient.builder(dashscopeChatModel))
+                        .numberOfQueries(numberOfQueries)
+                        // 原始查询也参与检索，召回不会比不扩展时差
+                        .includeOriginal(true)
+                        .build())
+                .documentRetriever(hybridRetriever)
+                .topK(TOP_K)
+                .build();
+    }
+
+    /**
+     * 创建混合检索器（向量检索和关键词检索并行，倒数排名融合）
+     * @param vectorStore 向量存储
+     * @param keywordRetriever 关键词检索器
+     * @return 文档检索器
+     */
+    private static DocumentRetriever createHybridRetriever(VectorStore vectorStore, Bm25DocumentRetriever keywordRetriever) {
+        DocumentRetriever vectorRetriever = VectorStoreDocumentRetriever.builder()
+                .vectorStore(vectorStore)
+                .topK(CANDIDATE_TOP_K)
+                .build();
+
+        // 倒数排名融合两路结果
+        return HybridDocumentRetriever.builder()
+                .retrievers(vectorRetriever, keywordRetriever.with(CANDIDATE_TOP_K, null))
+                .topK(TOP_K)
+                .build();
+    }
+
+}
@@ -2,20 +2,25 @@ package org.lpz.aiagent.rag;
 
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.lpz.aiagent.constant.FileConstant;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Component;
 
+import java.io.File;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * 恋爱大师向量数据库配置（初始化基于内存的向量数据库Bean）
  */
 @Configuration
+@Slf4j
 public class LoveAppVectorStoreConfig {
 
     @Resource
@@ -24,15 +29,69 @@ public class LoveAppVectorStoreConfig {
     @Resource
     private MyKeywordEnricher myKeywordEnricher;
 
+    // 文档增强和向量化结果的快照文件
+    private static final String SNAPSHOT_FILE = FileConstant.FILE_SAVE_DIR + "/vector-snapshot/love-app.snapshot";
+
+    // HNSW 向量库文件
+    private static final String INDEX_FILE = FileConstant.FILE_SAVE_DIR + "/vector-snapshot/love-app.hnsw";
+
+    @Value("${rag.hnsw.m:16}")
+    private int m;
+
+    @Value("${rag.hnsw.ef-construction:200}")
+    private int efConstruction;
+
+    @Value("${rag.hnsw.ef-search:64}")
+    private int efSearch;
+
+    @Value("${rag.hnsw.quantization:INT8}")
+    private HnswIndex.Quantization quantization;
+
+    @Value("${rag.hnsw.rerank:true}")
+    private boolean rerank;
+
     @Bean
     VectorStore loveAppVectorStore(EmbeddingModel dashscopeEmbeddingModel) {
-        SimpleVectorStore simpleVectorStore = SimpleVectorStore.builder(dashscopeEmbeddingModel).build();
+        // 内容没变的文档直接复用快照中的关键词和向量，只有新增或修改的文档才调用模型
+        EmbeddingSnapshot snapshot = EmbeddingSnapshot.load(new File(SNAPSHOT_FILE));
+        SnapshotEmbeddingModel snapshotEmbeddingModel = new SnapshotEmbeddingModel(dashscopeEmbeddingModel, snapshot);
+        HnswVectorStore.Builder builder = HnswVectorStore.builder(snapshotEmbeddingModel)
+                .m(m)
+                .efConstruction(efConstruction)
+                .efSearch(efSearch)
+                .quantization(quantization)
+                .rerank(rerank);
         // 加载文档
         List<Document> documents = loveAppDocumentLoader.loadMarkdowns();
         // 自动补充关键词元信息
-        List<Document> enrichedDocuments = myKeywordEnricher.enrichDocuments(documents);
-        simpleVectorStore.add(enrichedDocuments);
-        return simpleVectorStore;
+        List<Document> enrichedDocuments = snapshot.enrich(documents, myKeywordEnricher::enrichDocuments);
+        // 文档内容（含增强后的元信息）和保存的向量库完全一致时直接加载，不再建图
+        Set<String> hashes = enrichedDocuments.stream().map(EmbeddingSnapshot::hash).collect(Collectors.toSet());
+        HnswVectorStore savedVectorStore = HnswVectorStore.load(new File(INDEX_FILE), builder);
+        if (savedVectorStore != null && savedVectorStore.documentHashes().equals(hashes)
+                && savedVectorStore.getQuantization() == quantization) {
+            return savedVectorStore;
+        }
+        if (savedVectorStore != null) {
+            savedVectorStore.close();
+        }
+//        SimpleVectorStore simpleVectorStore = SimpleVectorStore.builder(snapshotEmbeddingModel).build();
+        HnswVectorStore hnswVectorStore = builder.build();
+        try {
+            hnswVectorStore.add(enrichedDocuments);
+        } catch (Exception e) {
+            // 向量模型不可用时只加载快照中已有的文档，保证应用可以启动
+            log.error("文档向量化失败，仅加载快照中的文档", e);
+            List<Document> cachedDocuments = enrichedDocuments.stream()
+                    .filter(snapshotEmbeddingModel::isCached)
+                    .toList();
+            if (!cachedDocuments.isEmpty()) {
+                hnswVectorStore.add(cachedDocuments);
+            }
+        }
+        snapshot.save();
+        hnswVectorStore.save(new File(INDEX_FILE));
+        return hnswVectorStore;
     }
 
 }
@@ -0,0 +1,109 @@
+package org.lpz.aiagent.rag;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于内存映射文件的原始精度向量存储
+ * 量化索引重排序时从这里读取 float 向量：数据不占堆内存，由操作系统按需放入页缓存。
+ * 文件按块映射，每块固定存放 VECTORS_PER_CHUNK 个向量，写满后再映射下一块。
+ * 读可以并发，写由调用方保证互斥。
+ */
+class MappedVectorFile implements AutoCloseable {
+
+    private static final int VECTORS_PER_CHUNK = 16384;
+
+    private final Path file;
+
+    private final int dimensions;
+
+    private final FileChannel channel;
+
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    /**
+     * 创建新文件（已存在时清空）
+     * @param file
+     * @param dimensions
+     */
+    MappedVectorFile(Path file, int dimensions) {
+        this.file = file;
+        this.dimensions = dimensions;
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法创建向量文件: " + file, e);
+        }
+    }
+
+    void put(int index, float[] vector) {
+        MappedByteBuffer chunk = chunk(index);
+        int offset = (index % VECTORS_PER_CHUNK) * dimensions * Float.BYTES;
+        for (int i = 0; i < dimensions; i++) {
+            chunk.putFloat(offset + i * Float.BYTES, vector[i]);
+        }
+    }
+
+    float[] get(int index) {
+        MappedByteBuffer chunk = chunks.get(index / VECTORS_PER_CHUNK);
+        int offset = (index % VECTORS_PER_CHUNK) * dimensions * Float.BYTES;
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = chunk.getFloat(offset + i * Float.BYTES);
+        }
+        return vector;
+    }
+
+    /**
+     * 查询向量和第 index 个向量的点积
+     * @param query
+     * @param index
+     * @return
+     */
+    float dot(float[] query, int index) {
+        MappedByteBuffer chunk = chunks.get(index / VECTORS_PER_CHUNK);
+        int offset = (index % VECTORS_PER_CHUNK) * dimensions * Float.BYTES;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += query[i] * chunk.getFloat(offset + i * Float.BYTES);
+        }
+        return sum;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    private MappedByteBuffer chunk(int index) {
+        int chunkIndex = index / VECTORS_PER_CHUNK;
+        while (chunks.size() <= chunkIndex) {
+            long chunkBytes = (long) VECTORS_PER_CHUNK * dimensions * Float.BYTES;
+            try {
+                // 映射超出文件长度的区域时文件会自动扩展
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunks.size() * chunkBytes, chunkBytes);
+                chunk.order(ByteOrder.nativeOrder());
+                chunks.add(chunk);
+            } catch (IOException e) {
+                throw new UncheckedIOException("映射向量文件失败: " + file, e);
+            }
+        }
+        return chunks.get(chunkIndex);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.lpz.aiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.preretrieval.query.expansion.QueryExpander;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 多查询扩展检索器
+ * 先用 QueryExpander 把查询扩展成多个变体，所有变体在虚拟线程上并行检索，总耗时约等于最慢的一次检索而不是各次之和；
+ * 结果按文档 id 去重（id 不同但正文相同的也视为同一文档，向量库和关键词索引中的 id 不同），
+ * 同一文档在各变体中的倒数排名得分相加，返回融合后的前 topK 个。
+ * 扩展失败时退化为只用原始查询检索。
+ */
+@Slf4j
+public class MultiQueryDocumentRetriever implements DocumentRetriever {
+
+    private final QueryExpander queryExpander;
+
+    private final DocumentRetriever documentRetriever;
+
+    private final int rrfK;
+
+    private final int topK;
+
+    private MultiQueryDocumentRetriever(Builder builder) {
+        this.queryExpander = builder.queryExpander;
+        this.documentRetriever = builder.documentRetriever;
+        this.rrfK = builder.rrfK;
+        this.topK = builder.topK;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        List<Query> queries = expand(query);
+        if (queries.size() == 1) {
+            return documentRetriever.retrieve(queries.get(0)).stream().limit(topK).toList();
+        }
+        List<CompletableFuture<List<Document>>> futures = queries.stream()
+                .map(expanded -> CompletableFuture.supplyAsync(() -> documentRetriever.retrieve(expanded),
+                        RagExecutors.EXECUTOR))
+                .toList();
+        return merge(futures.stream().map(RagExecutors::join).toList());
+    }
+
+    private List<Query> expand(Query query) {
+        try {
+            List<Query> queries = queryExpander.expand(query);
+            return queries.isEmpty() ? List.of(query) : queries;
+        } catch (RuntimeException e) {
+            log.warn("查询扩展失败，只用原始查询检索", e);
+            return List.of(query);
+        }
+    }
+
+    /**
+     * 去重并融合各变体的检索结果
+     * @param rankings 每个变体的结果，按相关性从高到低
+     * @return 融合后的前 topK 个文档，score 为融合得分
+     */
+    List<Document> merge(List<List<Document>> rankings) {
+        // 文档 id / 正文 → 去重后的文档编号
+        Map<String, Integer> idKeys = new HashMap<>();
+        Map<String, Integer> textKeys = new HashMap<>();
+        Map<Integer, Document> documents = new LinkedHashMap<>();
+        Map<Integer, Double> scores = new HashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                Integer key = idKeys.get(document.getId());
+                if (key == null) {
+                    key = textKeys.get(document.getText());
+                }
+                if (key == null) {
+                    key = documents.size();
+                    documents.put(key, document);
+                }
+                idKeys.putIfAbsent(document.getId(), key);
+                if (document.getText() != null) {
+                    textKeys.putIfAbsent(document.getText(), key);
+                }
+                scores.merge(key, 1.0 / (rrfK + rank + 1), Double::sum);
+            }
+        }
+        // 同分时保持先出现的顺序（sorted 是稳定排序）
+        return documents.entrySet().stream()
+                .sorted((a, b) -> Double.compare(scores.get(b.getKey()), scores.get(a.getKey())))
+                .limit(topK)
+                .map(entry -> entry.getValue().mutate().score(scores.get(entry.getKey())).build())
+                .toList();
+    }
+
+    public static final class Builder {
+
+        private QueryExpander queryExpander;
+
+        private DocumentRetriever documentRetriever;
+
+        private int rrfK = 60;
+
+        private int topK = 4;
+
+        private Builder() {
+        }
+
+        /**
+         * 查询扩展器（建议开启 includeOriginal，原始查询也参与检索）
+         * @param queryExpander
+         * @return
+         */
+        public Builder queryExpander(QueryExpander queryExpander) {
+            this.queryExpander = queryExpander;
+            return this;
+        }
+
+        /**
+         * 每个变体使用的检索器
+         * @param documentRetriever
+         * @return
+         */
+        public Builder documentRetriever(DocumentRetriever documentRetriever) {
+            this.documentRetriever = documentRetriever;
+            return this;
+        }
+
+        /**
+         * RRF 平滑参数
+         * @param rrfK
+         * @return
+         */
+        public Builder rrfK(int rrfK) {
+            this.rrfK = rrfK;
+            return this;
+        }
+
+        /**
+         * 融合后返回的文档数
+         * @param topK
+         * @return
+         */
+        public Builder topK(int topK) {
+            this.topK = topK;
+            return this;
+        }
+
+        public MultiQueryDocumentRetriever build() {
+            if (queryExpander == null || documentRetriever == null) {
+                throw new IllegalArgumentException("queryExpander and documentRetriever must not be null");
+            }
+            return new MultiQueryDocumentRetriever(this);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.lpz.aiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.lpz.aiagent.constant.FileConstant;
+import org.lpz.aiagent.utils.TokenBucketRateLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * pgvector 知识库的增量导入服务
+ * 每个文档分片按内容哈希生成固定的 id：库中已有的分片直接跳过，已经不存在的分片从库中删除，
+ * 新增或修改的分片分批并发向量化写入，批次之间用令牌桶限制调用频率。
+ * 每次导入都从向量表中查询本服务写入过的分片 id，以数据库为准（表被清空或手工修改后也能正确补齐）：
+ * 中途崩溃的导入已提交的批次就在库中，重新运行时自然跳过，只写入剩下的分片。
+ * 本地检查点只记录进行中的这次导入已提交的批次，用于重新运行时报告上次的进度，导入完成后删除。
+ * 有批次写入失败时不删除旧分片，避免修改过的文档新分片没写进去、旧分片又被删掉，下次导入成功后再删除。
+ */
+@Component
+@Slf4j
+public class PgVectorIngestionService {
+
+    // 写入元信息中的来源标记，只管理本服务导入的分片
+    private static final String INGEST_SOURCE = "love-app";
+
+    private static final String SOURCE_METADATA_KEY = "ingest_source";
+
+    private static final String HASH_METADATA_KEY = "content_hash";
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final VectorStore pgVectorVectorStore;
+
+    // 查询库中本服务写入过的分片 id
+    private final Supplier<Set<String>> storedIdsQuery;
+
+    private final LoveAppDocumentLoader loveAppDocumentLoader;
+
+    // 每批的分片数（DashScope 向量接口单次最多 25 条）
+    private final int batchSize;
+
+    // 同时进行的批次数
+    private final int concurrency;
+
+    private final TokenBucketRateLimiter rateLimiter;
+
+    private final Path checkpointFile;
+
+    // 检查点文件锁（ingest 本身持有 this 锁，写入批次结果的线程不能再用 this）
+    private final Object checkpointLock = new Object();
+
+    @Value("${rag.ingestion.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * @param schemaName 向量表所在的 schema，与 PgVectorStore 使用同一配置
+     * @param tableName 向量表名，与 PgVectorStore 使用同一配置
+     */
+    @Autowired
+    public PgVectorIngestionService(@Qualifier("pgVectorVectorStore") VectorStore pgVectorVectorStore,
+                                    JdbcTemplate jdbcTemplate,
+                                    LoveAppDocumentLoader loveAppDocumentLoader,
+                                    @Value("${rag.pgvector.schema-name:public}") String schemaName,
+                                    @Value("${rag.pgvector.table-name:vector_store}") String tableName,
+                                    @Value("${rag.ingestion.batch-size:25}") int batchSize,
+                                    @Value("${rag.ingestion.concurrency:4}") int concurrency,
+                                    @Value("${rag.ingestion.batches-per-second:2}") double batchesPerSecond,
+                                    @Value("${rag.ingestion.checkpoint-file:}") String checkpointFile) {
+        this(pgVectorVectorStore, storedIdsQuery(jdbcTemplate, schemaName, tableName), loveAppDocumentLoader,
+                batchSize, concurrency, batchesPerSecond, checkpointFile);
+    }
+
+    PgVectorIngestionService(VectorStore pgVectorVectorStore,
+                             Supplier<Set<String>> storedIdsQuery,
+                             LoveAppDocumentLoader loveAppDocumentLoader,
+                             int batchSize,
+                             int concurrency,
+                             double batchesPerSecond,
+                             String checkpointFile) {
+        this.pgVectorVectorStore = pgVectorVectorStore;
+        this.storedIdsQuery = storedIdsQuery;
+        this.loveAppDocumentLoader = loveAppDocumentLoader;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.rateLimiter = new TokenBucketRateLimiter(batchesPerSecond, concurrency);
+        this.checkpointFile = Paths.get(checkpointFile.isEmpty()
+                ? FileConstant.FILE_SAVE_DIR + "/vector-ingestion/pgvector.checkpoint"
+                : checkpointFile);
+    }
+
+    /**
+     * 导入结果
+     * @param total 当前文档集的分片数
+     * @param skipped 库中已有、跳过的分片数
+     * @param added 新写入的分片数
+     * @param deleted 删除的分片数
+     * @param failed 写入失败的分片数（下次导入时重试）
+     * @param elapsedMillis 耗时
+     */
+    public record IngestionResult(int total, int skipped, int added, int deleted, int failed, long elapsedMillis) {
+    }
+
+    /**
+     * 应用启动完成后在后台导入（默认关闭，通过 rag.ingestion.enabled 开启）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ingestOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        Thread.ofVirtual().name("pgvector-ingestion").start(() -> {
+            try {
+                ingest();
+            } catch (Exception e) {
+                log.error("知识库导入失败", e);
+            }
+        });
+    }
+
+    /**
+     * 增量导入知识库
+     * @return
+     */
+    public synchronized IngestionResult ingest() {
+        long start = System.currentTimeMillis();
+        // 1.加载文档，按内容哈希生成固定 id
+        Map<String, Document> current = new LinkedHashMap<>();
+        for (Document document : loveAppDocumentLoader.loadMarkdowns()) {
+            String hash = EmbeddingSnapshot.hash(document);
+            String id = UUID.nameUUIDFromBytes(hash.getBytes(StandardCharsets.UTF_8)).toString();
+            Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+            metadata.put(HASH_METADATA_KEY, hash);
+            metadata.put(SOURCE_METADATA_KEY, INGEST_SOURCE);
+            current.put(id, Document.builder().id(id).text(document.getText()).metadata(metadata).build());
+        }
+
+        // 2.和库中已有的分片比对，上次导入已提交的批次已经在库中
+        Set<String> stored = new HashSet<>(storedIdsQuery.get());
+        Set<String> resumed = loadCheckpoint();
+        if (!resumed.isEmpty()) {
+            resumed.retainAll(stored);
+            log.info("上次导入未完成，继续导入：检查点中已提交的分片有 {} 个仍在库中", resumed.size());
+        }
+        List<Document> toAdd = current.values().stream()
+                .filter(document -> !stored.contains(document.getId()))
+                .toList();
+        List<String> toDelete = stored.stream()
+                .filter(id -> !current.containsKey(id))
+                .toList();
+        log.info("知识库共 {} 个分片：新增 {}，删除 {}，跳过 {}",
+                current.size(), toAdd.size(), toDelete.size(), current.size() - toAdd.size());
+
+        // 3.分批并发写入，每批开始前取令牌，提交后记入检查点
+        AtomicInteger failed = new AtomicInteger();
+        try (ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+                Thread.ofVirtual().name("pgvector-ingestion-", 0).factory())) {
+            for (int i = 0; i < toAdd.size(); i += batchSize) {
+                List<Document> batch = toAdd.subList(i, Math.min(i + batchSize, toAdd.size()));
+                executor.submit(() -> {
+                    try {
+                        rateLimiter.acquire();
+                        pgVectorVectorStore.add(batch);
+                        appendCheckpoint(batch.stream().map(Document::getId).toList());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failed.addAndGet(batch.size());
+                    } catch (Exception e) {
+                        log.error("写入 {} 个分片失败，下次导入时重试", batch.size(), e);
+                        failed.addAndGet(batch.size());
+                    }
+                });
+            }
+        }
+
+        // 4.新分片全部写入后再删除已经不存在的分片，导入过程中检索不会缺内容；
+        // 有失败的批次时保留旧分片，下次导入补齐新分片后再删除
+        int deleted = 0;
+        if (!toDelete.isEmpty() && failed.get() > 0) {
+            log.warn("{} 个分片写入失败，暂不删除 {} 个旧分片", failed.get(), toDelete.size());
+        } else if (!toDelete.isEmpty()) {
+            pgVectorVectorStore.delete(toDelete);
+            deleted = toDelete.size();
+        }
+
+        // 5.本次导入结束，失败的分片下次从数据库比对时重新写入，不再需要检查点
+        deleteCheckpoint();
+        IngestionResult result = new IngestionResult(current.size(), current.size() - toAdd.size(),
+                toAdd.size() - failed.get(), deleted, failed.get(), System.currentTimeMillis() - start);
+        log.info("知识库导入完成: {}", result);
+        return result;
+    }
+
+    /**
+     * 查询向量表中本服务写入过的分片 id
+     * @param jdbcTemplate
+     * @param schemaName
+     * @param tableName
+     * @return
+     */
+    private static Supplier<Set<String>> storedIdsQuery(JdbcTemplate jdbcTemplate, String schemaName, String tableName) {
+        // 表名只能拼接到 SQL 中，先校验是普通标识符
+        if (!IDENTIFIER.matcher(schemaName).matches() || !IDENTIFIER.matcher(tableName).matches()) {
+            throw new IllegalArgumentException("Invalid pgvector table: " + schemaName + "." + tableName);
+        }
+        String sql = "SELECT id::text FROM " + schemaName + "." + tableName
+                + " WHERE metadata->>'" + SOURCE_METADATA_KEY + "' = ?";
+        return () -> new HashSet<>(jdbcTemplate.queryForList(sql, String.class, INGEST_SOURCE));
+    }
+
+    /**
+     * 读取上次未完成的导入已提交的分片 id，没有检查点时返回空集合
+     * 检查点每行一个 id，每批提交后追加
+     * @return
+     */
+    private Set<String> loadCheckpoint() {
+        Set<String> committed = new HashSet<>();
+        if (!Files.exists(checkpointFile)) {
+            return committed;
+        }
+        try {
+            for (String line : Files.readAllLines(checkpointFile, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    committed.add(line.strip());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("读取导入检查点失败，以数据库为准: {}", checkpointFile, e);
+            committed.clear();
+        }
+        return committed;
+    }
+
+    private void appendCheckpoint(List<String> ids) {
+        StringBuilder lines = new StringBuilder();
+        ids.forEach(id -> lines.append(id).append('\n'));
+        synchronized (checkpointLock) {
+            try {
+                Files.createDirectories(checkpointFile.getParent());
+                // DSYNC：记录落盘后才算提交，崩溃后不会把未记录的批次当成已写入
+                Files.writeString(checkpointFile, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入导入检查点失败: " + checkpointFile, e);
+            }
+        }
+    }
+
+    private void deleteCheckpoint() {
+        synchronized (checkpointLock) {
+            try {
+                Files.deleteIfExists(checkpointFile);
+            } catch (IOException e) {
+                log.error("删除导入检查点失败: {}", checkpointFile, e);
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.ai.document.Document;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -20,20 +21,32 @@ public class PgVectorVectorStoreConfig {
     @Resource
     private LoveAppDocumentLoader loveAppDocumentLoader;
 
+    @Resource
+    private RetrievalCache retrievalCache;
+
+    // 向量表的 schema 和表名，PgVectorIngestionService 查询已导入分片时使用同一配置
+    @Value("${rag.pgvector.schema-name:public}")
+    private String schemaName;
+
+    @Value("${rag.pgvector.table-name:vector_store}")
+    private String tableName;
+
     @Bean
     public VectorStore pgVectorVectorStore(JdbcTemplate jdbcTemplate, EmbeddingModel dashscopeEmbeddingModel) {
-        PgVectorStore vectorStore = PgVectorStore.builder(jdbcTemplate, dashscopeEmbeddingModel)
+        // 查询向量按规范化后的文本缓存
+        EmbeddingModel cachingEmbeddingModel = new CachingEmbeddingModel(dashscopeEmbeddingModel, retrievalCache);
+        PgVectorStore vectorStore = PgVectorStore.builder(jdbcTemplate, cachingEmbeddingModel)
                 .dimensions(1536)                    // Optional: defaults to model dimensions or 1536
                 .distanceType(COSINE_DISTANCE)       // Optional: defaults to COSINE_DISTANCE
                 .indexType(HNSW)                     // Optional: defaults to HNSW
                 .initializeSchema(true)              // Optional: defaults to false
-                .schemaName("public")                // Optional: defaults to "public"
-                .vectorTableName("vector_store")     // Optional: defaults to "vector_store"
+                .schemaName(schemaName)              // Optional: defaults to "public"
+                .vectorTableName(tableName)          // Optional: defaults to "vector_store"
                 .maxDocumentBatchSize(10000)         // Optional: defaults to 10000
                 .build();
 
 
-        //加载文档
+        //加载文档（已改为由 PgVectorIngestionService 增量导入：按内容哈希跳过已有分片、删除过期分片、限流并发写入）
 //        List<Document> documents = loveAppDocumentLoader.loadMarkdowns();
 ////        vectorStore.add(documents);
 //        // 分批处理文档，每批最多25个
@@ -51,7 +64,8 @@ public class PgVectorVectorStoreConfig {
 //                throw new RuntimeException("文档处理被中断", e);
 //            }
 //        }
-        return vectorStore;
+        // 检索结果按查询向量缓存，写入时自动失效
+        return new CachingVectorStore(vectorStore, cachingEmbeddingModel, retrievalCache);
     }
 
 }
@@ -1,40 +1,169 @@
 package org.lpz.aiagent.rag;
 
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.rag.Query;
 import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
 import org.springframework.ai.rag.preretrieval.query.transformation.RewriteQueryTransformer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
 /**
  * 查询重写转换器
+ * 重写需要完整调用一次大模型，为减少对话延迟：
+ * 1. 很短或已经是单句完整问句的查询直接使用原文，不重写；
+ * 2. 重写结果按规范化后的查询缓存（条数和存活时间有上限）；
+ * 3. 可设置截止时间，超时返回原始查询，重写完成后结果仍写入缓存供下次使用。
  */
 @Component
+@Slf4j
 public class QueryRewriter {
 
+    // 句中出现这些标点说明是多句话，需要重写提炼
+    private static final Pattern SENTENCE_BREAK = Pattern.compile("[，。！？；,.!?;…\\n]");
+
     private final QueryTransformer queryTransformer;
 
-    public QueryRewriter(ChatModel dashscopeChatModel) {
+    // 规范化查询 → 重写结果
+    private final LRUCache<String, String> cache;
+
+    // 重写的截止时间，0 表示一直等待
+    private final long deadlineMillis;
+
+    // 不超过该长度的查询不重写
+    private final int shortQueryLength;
+
+    // 不超过该长度的单句问句不重写
+    private final int wellFormedMaxLength;
+
+    // 执行重写的线程池（虚拟线程）
+    private final Executor executor = task -> Thread.ofVirtual().name("query-rewriter").start(task);
 
-        ChatClient.Builder builder = ChatClient.builder(dashscopeChatModel);
+    private final Timer rewriteTimer;
+
+    /**
+     * @param dashscopeChatModel
+     * @param cacheCapacity 重写结果缓存条数
+     * @param cacheTtl 重写结果缓存存活时间
+     * @param deadline 重写截止时间，0 表示不限
+     * @param shortQueryLength 不超过该长度（字符数）的查询不重写
+     * @param wellFormedMaxLength 不超过该长度的单句问句不重写
+     */
+    @Autowired
+    public QueryRewriter(ChatModel dashscopeChatModel,
+                         @Value("${rag.query-rewrite.cache-capacity:500}") int cacheCapacity,
+                         @Value("${rag.query-rewrite.cache-ttl:30m}") Duration cacheTtl,
+                         @Value("${rag.query-rewrite.deadline:1500ms}") Duration deadline,
+                         @Value("${rag.query-rewrite.short-query-length:8}") int shortQueryLength,
+                         @Value("${rag.query-rewrite.well-formed-max-length:30}") int wellFormedMaxLength) {
         // 创建查询重写转换器
-        this.queryTransformer = RewriteQueryTransformer.builder()
-                .chatClientBuilder(builder)
-                .build();
+        this(RewriteQueryTransformer.builder()
+                        .chatClientBuilder(ChatClient.builder(dashscopeChatModel))
+                        .build(),
+                cacheCapacity, cacheTtl, deadline, shortQueryLength, wellFormedMaxLength);
+    }
+
+    QueryRewriter(QueryTransformer queryTransformer, int cacheCapacity, Duration cacheTtl, Duration deadline,
+                  int shortQueryLength, int wellFormedMaxLength) {
+        this.queryTransformer = queryTransformer;
+        this.cache = CacheUtil.newLRUCache(cacheCapacity, cacheTtl.toMillis());
+        this.deadlineMillis = deadline.toMillis();
+        this.shortQueryLength = shortQueryLength;
+        this.wellFormedMaxLength = wellFormedMaxLength;
+        this.rewriteTimer = Timer.builder("rag.query_rewrite.latency")
+                .description("Latency of query rewrite model calls")
+                .register(Metrics.globalRegistry);
     }
 
     /**
      * 执行查询重写
      * @param prompt
-     * @return
+     * @return 重写后的查询；跳过、超时或失败时返回原始查询
      */
     public String doQueryRewriter(String prompt) {
-        Query query = new Query(prompt);
-        // 执行查询重写
-        Query apply = queryTransformer.apply(query);
-        // 输出重写后的查询
-        return apply.text();
+        if (skippable(prompt)) {
+            counter("skipped").increment();
+            return prompt;
+        }
+        String key = RetrievalCache.normalize(prompt);
+        String cached = cache.get(key, false);
+        if (cached != null) {
+            counter("cache_hit").increment();
+            return cached;
+        }
+
+        // 执行查询重写，完成后（即使已经超时）写入缓存
+        long start = System.nanoTime();
+        CompletableFuture<String> rewrite = CompletableFuture
+                .supplyAsync(() -> queryTransformer.apply(new Query(prompt)).text(), executor)
+                .whenComplete((text, e) -> {
+                    rewriteTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    if (text != null && !text.isBlank()) {
+                        cache.put(key, text);
+                    }
+                });
+        try {
+            String rewritten = deadlineMillis > 0
+                    ? rewrite.get(deadlineMillis, TimeUnit.MILLISECONDS)
+                    : rewrite.get();
+            if (rewritten == null || rewritten.isBlank()) {
+                counter("error").increment();
+                return prompt;
+            }
+            counter("rewritten").increment();
+            return rewritten;
+        } catch (TimeoutException e) {
+            counter("timeout").increment();
+            log.warn("查询重写超过 {} ms，使用原始查询", deadlineMillis);
+            return prompt;
+        } catch (ExecutionException e) {
+            counter("error").increment();
+            log.warn("查询重写失败，使用原始查询", e.getCause());
+            return prompt;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return prompt;
+        }
+    }
+
+    /**
+     * 快速判断是否不需要重写：很短的查询，或不太长的单句问句
+     * @param prompt
+     * @return
+     */
+    boolean skippable(String prompt) {
+        String text = prompt.strip();
+        int length = text.codePointCount(0, text.length());
+        if (length <= shortQueryLength) {
+            return true;
+        }
+        if (length > wellFormedMaxLength || !(text.endsWith("？") || text.endsWith("?"))) {
+            return false;
+        }
+        // 去掉结尾的问号后不再包含断句标点
+        return !SENTENCE_BREAK.matcher(text.substring(0, text.length() - 1)).find();
+    }
+
+    private static Counter counter(String result) {
+        return Counter.builder("rag.query_rewrite.requests")
+                .description("Query rewrite requests by outcome")
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
     }
 }
@@ -0,0 +1,34 @@
+package org.lpz.aiagent.rag;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * RAG 各组件共用的异步执行器
+ * 查询重写、历史加载、各检索器和多查询变体的检索都是短小的阻塞 IO 任务，统一放在虚拟线程上执行。
+ */
+final class RagExecutors {
+
+    static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private RagExecutors() {
+    }
+
+    /**
+     * 等待异步任务完成，任务中抛出的运行时异常原样抛出
+     * @param future
+     * @return
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
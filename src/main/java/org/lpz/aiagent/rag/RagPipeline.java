@@ -0,0 +1,183 @@
+package org.lpz.aiagent.rag;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.generation.augmentation.ContextualQueryAugmenter;
+import org.springframework.ai.rag.generation.augmentation.QueryAugmenter;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * RAG 请求的准备流水线
+ * 互不依赖的阶段在虚拟线程上并行执行：查询重写和对话历史加载同时进行；检索依赖重写结果，
+ * 重写完成即开始检索，不等待历史加载（多查询扩展见 MultiQueryDocumentRetriever，各变体并行检索）。
+ * 每个阶段的耗时记录在 StageTimings 中，并上报到 rag.pipeline.stage 指标。
+ */
+public class RagPipeline {
+
+    private final UnaryOperator<String> queryRewriter;
+
+    private final ChatMemory chatMemory;
+
+    private final DocumentRetriever documentRetriever;
+
+    private final QueryAugmenter queryAugmenter;
+
+    private RagPipeline(Builder builder) {
+        this.queryRewriter = builder.queryRewriter;
+        this.chatMemory = builder.chatMemory;
+        this.documentRetriever = builder.documentRetriever;
+        this.queryAugmenter = builder.queryAugmenter;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 准备好的 RAG 请求
+     * @param query 重写后的查询（写入对话记忆的用户消息）
+     * @param history 对话历史
+     * @param documents 检索到的文档
+     * @param augmentedQuery 拼接了文档的用户消息
+     * @param timings 各阶段耗时
+     */
+    public record Prepared(String query, List<Message> history, List<Document> documents,
+                           String augmentedQuery, StageTimings timings) {
+    }
+
+    /**
+     * 准备 RAG 请求：重写查询、加载对话历史、检索文档、拼接上下文
+     * @param message 用户消息
+     * @param chatId 对话 id
+     * @param historySize 加载的历史消息条数
+     * @return
+     */
+    public Prepared prepare(String message, String chatId, int historySize) {
+        StageTimings timings = new StageTimings();
+        long start = System.nanoTime();
+
+        // 1.查询重写和对话历史加载并行
+        CompletableFuture<String> rewrite = CompletableFuture.supplyAsync(
+                () -> timings.time("rewrite", () -> queryRewriter.apply(message)), RagExecutors.EXECUTOR);
+        CompletableFuture<List<Message>> history = CompletableFuture.supplyAsync(
+                () -> timings.time("history", () -> chatMemory.get(chatId, historySize)), RagExecutors.EXECUTOR);
+
+        // 2.重写完成后检索（不等待历史加载）
+        CompletableFuture<List<Document>> documents = rewrite.thenApplyAsync(
+                query -> timings.time("retrieval", () -> documentRetriever.retrieve(new Query(query))), RagExecutors.EXECUTOR);
+
+        String query = RagExecutors.join(rewrite);
+        List<Document> retrieved = RagExecutors.join(documents);
+        List<Message> messages = RagExecutors.join(history);
+
+        // 3.拼接上下文
+        String augmentedQuery = timings.time("augment", () -> queryAugmenter.augment(new Query(query), retrieved).text());
+        timings.record("prepare", System.nanoTime() - start);
+        return new Prepared(query, messages, retrieved, augmentedQuery, timings);
+    }
+
+    /**
+     * 一次请求各阶段的耗时（毫秒），按阶段开始的顺序排列
+     */
+    public static class StageTimings {
+
+        private final Map<String, Long> millis = new LinkedHashMap<>();
+
+        /**
+         * 执行一个阶段并记录耗时
+         * @param stage 阶段名
+         * @param task
+         * @return
+         */
+        public <T> T time(String stage, Supplier<T> task) {
+            long start = System.nanoTime();
+            try {
+                return task.get();
+            } finally {
+                record(stage, System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * 记录阶段耗时
+         * @param stage 阶段名
+         * @param nanos 耗时（纳秒）
+         */
+        public synchronized void record(String stage, long nanos) {
+            millis.put(stage, TimeUnit.NANOSECONDS.toMillis(nanos));
+            Timer.builder("rag.pipeline.stage")
+                    .description("Latency of each RAG request stage")
+                    .tag("stage", stage)
+                    .register(Metrics.globalRegistry)
+                    .record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public synchronized Map<String, Long> asMap() {
+            return new LinkedHashMap<>(millis);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return millis.toString();
+        }
+    }
+
+    public static final class Builder {
+
+        private UnaryOperator<String> queryRewriter = UnaryOperator.identity();
+
+        private ChatMemory chatMemory;
+
+        private DocumentRetriever documentRetriever;
+
+        // 和 QuestionAnswerAdvisor 一样，没有检索到文档时也正常回答
+        private QueryAugmenter queryAugmenter = ContextualQueryAugmenter.builder().allowEmptyContext(true).build();
+
+        private Builder() {
+        }
+
+        /**
+         * 查询重写，默认不重写
+         * @param queryRewriter
+         * @return
+         */
+        public Builder queryRewriter(UnaryOperator<String> queryRewriter) {
+            this.queryRewriter = queryRewriter;
+            return this;
+        }
+
+        public Builder chatMemory(ChatMemory chatMemory) {
+            this.chatMemory = chatMemory;
+            return this;
+        }
+
+        public Builder documentRetriever(DocumentRetriever documentRetriever) {
+            this.documentRetriever = documentRetriever;
+            return this;
+        }
+
+        public Builder queryAugmenter(QueryAugmenter queryAugmenter) {
+            this.queryAugmenter = queryAugmenter;
+            return this;
+        }
+
+        public RagPipeline build() {
+            if (chatMemory == null || documentRetriever == null) {
+                throw new IllegalArgumentException("chatMemory and documentRetriever must not be null");
+            }
+            return new RagPipeline(this);
+        }
+    }
+}
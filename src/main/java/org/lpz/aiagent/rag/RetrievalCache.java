@@ -0,0 +1,149 @@
+package org.lpz.aiagent.rag;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.crypto.digest.DigestUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 检索缓存
+ * 查询向量按规范化后的查询文本缓存；检索结果按查询向量所在的桶（量化后的向量哈希）+ topK + 阈值 + 过滤条件缓存。
+ * 两个缓存都按条数（LRU）和存活时间限制，向量库有写入时清空结果缓存。
+ */
+@Component
+@Slf4j
+public class RetrievalCache {
+
+    // 规范化查询文本 → 查询向量
+    private final LRUCache<String, float[]> embeddingCache;
+
+    // 向量桶 + 检索参数 → 检索结果
+    private final LRUCache<String, List<Document>> resultCache;
+
+    // 每次清空结果缓存加一，检索开始后缓存被清空过的结果不再放入缓存
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Counter embeddingHits;
+
+    private final Counter embeddingMisses;
+
+    private final Counter resultHits;
+
+    private final Counter resultMisses;
+
+    /**
+     * @param embeddingCapacity 查询向量缓存条数
+     * @param resultCapacity 检索结果缓存条数
+     * @param ttl 缓存存活时间（从写入时算起，访问不会延长）
+     */
+    public RetrievalCache(@Value("${rag.cache.embedding-capacity:1000}") int embeddingCapacity,
+                          @Value("${rag.cache.result-capacity:1000}") int resultCapacity,
+                          @Value("${rag.cache.ttl:10m}") Duration ttl) {
+        this.embeddingCache = CacheUtil.newLRUCache(embeddingCapacity, ttl.toMillis());
+        this.resultCache = CacheUtil.newLRUCache(resultCapacity, ttl.toMillis());
+        this.embeddingHits = counter("embedding", "hit");
+        this.embeddingMisses = counter("embedding", "miss");
+        this.resultHits = counter("result", "hit");
+        this.resultMisses = counter("result", "miss");
+    }
+
+    /**
+     * 获取查询文本的向量，未命中时调用 loader 计算
+     * @param text 查询文本
+     * @param loader 向量化方法
+     * @return
+     */
+    public float[] getEmbedding(String text, Function<String, float[]> loader) {
+        String key = normalize(text);
+        float[] embedding = embeddingCache.get(key, false);
+        if (embedding != null) {
+            embeddingHits.increment();
+            return embedding;
+        }
+        embeddingMisses.increment();
+        embedding = loader.apply(text);
+        embeddingCache.put(key, embedding);
+        return embedding;
+    }
+
+    /**
+     * 获取检索结果，未命中时调用 loader 检索
+     * @param embedding 查询向量
+     * @param searchKey 其余影响结果的检索参数（topK、阈值、过滤条件等）
+     * @param loader 实际的检索
+     * @return
+     */
+    public List<Document> getResults(float[] embedding, String searchKey, Supplier<List<Document>> loader) {
+        String key = bucket(embedding) + "|" + searchKey;
+        List<Document> results = resultCache.get(key, false);
+        if (results != null) {
+            resultHits.increment();
+            return results;
+        }
+        resultMisses.increment();
+        long startGeneration = generation.get();
+        results = List.copyOf(loader.get());
+        // 检索期间向量库被写入过，这次的结果可能已经过期，不放入缓存
+        if (generation.get() == startGeneration) {
+            resultCache.put(key, results);
+        }
+        return results;
+    }
+
+    /**
+     * 向量库写入后清空检索结果缓存（查询向量与向量库内容无关，保留）
+     */
+    public void invalidateResults() {
+        generation.incrementAndGet();
+        resultCache.clear();
+        log.debug("向量库已更新，清空检索结果缓存");
+    }
+
+    /**
+     * 查询文本规范化：全角转半角、去掉首尾空白、合并连续空白、转小写
+     * @param text
+     * @return
+     */
+    public static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).strip().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    /**
+     * 向量桶：归一化后每维量化为 int8 再取哈希，几乎相同的向量落在同一个桶
+     * @param embedding
+     * @return
+     */
+    static String bucket(float[] embedding) {
+        double norm = 0;
+        for (float v : embedding) {
+            norm += v * v;
+        }
+        double scale = norm > 0 ? 127 / Math.sqrt(norm) : 0;
+        ByteBuffer codes = ByteBuffer.allocate(embedding.length);
+        for (float v : embedding) {
+            codes.put((byte) Math.round(v * scale));
+        }
+        return DigestUtil.sha256Hex(codes.array());
+    }
+
+    private static Counter counter(String cache, String result) {
+        return Counter.builder("rag.cache.requests")
+                .description("Retrieval cache lookups")
+                .tag("cache", cache)
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+}
@@ -0,0 +1,54 @@
+package org.lpz.aiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * 优先从快照中读取文档向量的 EmbeddingModel
+ * 向量库添加文档时按文档内容哈希查找快照，命中则不再调用向量模型；
+ * 查询文本的向量化（call / embed(String)）直接交给被装饰的模型。
+ */
+public class SnapshotEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+
+    private final EmbeddingSnapshot snapshot;
+
+    public SnapshotEmbeddingModel(EmbeddingModel delegate, EmbeddingSnapshot snapshot) {
+        this.delegate = delegate;
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return delegate.call(request);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        float[] embedding = snapshot.getEmbedding(document);
+        if (embedding == null) {
+            embedding = delegate.embed(document);
+            snapshot.putEmbedding(document, embedding);
+        }
+        return embedding;
+    }
+
+    /**
+     * 快照中已有该文档的向量
+     * @param document
+     * @return
+     */
+    public boolean isCached(Document document) {
+        return snapshot.getEmbedding(document) != null;
+    }
+
+    @Override
+    public int dimensions() {
+        // 默认实现会调用一次向量模型，快照非空时直接取快照中的维度
+        int dimensions = snapshot.dimensions();
+        return dimensions > 0 ? dimensions : delegate.dimensions();
+    }
+}
@@ -1,6 +1,7 @@
 package org.lpz.aiagent.tools;
 
 import cn.hutool.core.io.FileUtil;
+import com.itextpdf.io.font.PdfEncodings;
 import com.itextpdf.kernel.font.PdfFont;
 import com.itextpdf.kernel.font.PdfFontFactory;
 import com.itextpdf.kernel.pdf.PdfDocument;
@@ -9,6 +10,7 @@ import com.itextpdf.layout.Document;
 import com.itextpdf.layout.element.Paragraph;
 import lombok.extern.slf4j.Slf4j;
 import org.lpz.aiagent.constant.FileConstant;
+import org.lpz.aiagent.utils.FontProgramPool;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 import org.springframework.beans.factory.annotation.Value;
@@ -21,7 +23,6 @@ import org.springframework.stereotype.Component;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -33,6 +34,17 @@ import java.time.format.DateTimeFormatter;
 @Slf4j
 public class PDFGenerationTool {
 
+    // 中文字体程序池
+    private final FontProgramPool fontPool;
+
+    public PDFGenerationTool() {
+        this(FontProgramPool.getDefault());
+    }
+
+    PDFGenerationTool(FontProgramPool fontPool) {
+        this.fontPool = fontPool;
+    }
+
 //    @Tool(description = "Generate a PDF file with given content")
 //    public String generatePDF(
 //            @ToolParam(description = "Name of the file to save the generated PDF") String fileName,
@@ -148,20 +160,22 @@ public class PDFGenerationTool {
 
     /**
      * 核心PDF生成方法
+     * 字体程序从池中借用，每个文档只创建轻量的 PdfFont，并且只嵌入用到的字形（子集）
      * @param filePath 文件路径
      * @param content 内容
      * @throws java.io.IOException IO异常
      */
-    private void generatePDFFile(String filePath, String content) throws IOException {
-        try (PdfWriter writer = new PdfWriter(filePath);
+    void generatePDFFile(String filePath, String content) throws IOException {
+        // 租约最后关闭：子集在文档关闭时才生成，这之前字体程序不能给别的文档用
+        try (FontProgramPool.Lease lease = fontPool.borrow();
+             PdfWriter writer = new PdfWriter(filePath);
              PdfDocument pdf = new PdfDocument(writer);
              Document document = new Document(pdf)) {
 
             // 使用内置中文字体
-            String fontPath = Paths.get("src/main/resources/static/fonts/SimSun.ttf")
-                    .toAbsolutePath().toString();
-            PdfFont font = PdfFontFactory.createFont(fontPath,
+            PdfFont font = PdfFontFactory.createFont(lease.fontProgram(), PdfEncodings.IDENTITY_H,
                     PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED);
+            font.setSubset(true);
             document.setFont(font);
 
             // 创建段落
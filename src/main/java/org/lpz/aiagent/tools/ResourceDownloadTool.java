@@ -1,8 +1,9 @@
 package org.lpz.aiagent.tools;
 
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.http.HttpUtil;
 import org.lpz.aiagent.constant.FileConstant;
+import org.lpz.aiagent.utils.SegmentedDownloader;
+import org.lpz.aiagent.utils.ToolHttpClient;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 
@@ -10,9 +11,33 @@ import java.io.File;
 
 /**
  * 资源下载工具
+ * 大文件分段并发下载，失败后再次下载同一文件会从中断处继续
  */
 public class ResourceDownloadTool {
 
+    // 默认同时下载的分段数
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    // 默认分段大小
+    public static final long DEFAULT_SEGMENT_SIZE = 4L * 1024 * 1024;
+
+    // 默认文件大小上限
+    public static final long DEFAULT_MAX_BYTES = 200L * 1024 * 1024;
+
+    private final SegmentedDownloader downloader;
+
+    public ResourceDownloadTool() {
+        this(ToolHttpClient.getDefault());
+    }
+
+    public ResourceDownloadTool(ToolHttpClient httpClient) {
+        this(new SegmentedDownloader(httpClient, DEFAULT_PARALLELISM, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_BYTES, 0));
+    }
+
+    public ResourceDownloadTool(SegmentedDownloader downloader) {
+        this.downloader = downloader;
+    }
+
     @Tool(description = "Download a resource from a given URL")
     public String downloadResource(@ToolParam(description = "URL of the resource to download") String url, @ToolParam(description = "Name of the file to save the downloaded resource") String fileName) {
         String fileDir = FileConstant.FILE_SAVE_DIR + "/download";
@@ -20,9 +45,9 @@ public class ResourceDownloadTool {
         try {
             // 创建目录
             FileUtil.mkdir(fileDir);
-            // 使用 Hutool 的 downloadFile 方法下载资源
-            HttpUtil.downloadFile(url, new File(filePath));
-            return "Resource downloaded successfully to: " + filePath;
+            // 分段下载资源，中断后可续传
+            SegmentedDownloader.Result result = downloader.download(url, new File(filePath).toPath());
+            return "Resource downloaded successfully to: " + filePath + " (" + result.size() + " bytes)";
         } catch (Exception e) {
             return "Error downloading resource: " + e.getMessage();
         }
@@ -0,0 +1,68 @@
+package org.lpz.aiagent.tools;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单次智能体运行的搜索次数配额
+ * 智能体开始运行时创建，绑定到运行线程上；工具在并行执行器创建的虚拟线程中调用时会继承同一个配额，
+ * 不同智能体的运行互不影响，运行结束时解除绑定。
+ * （Spring AI M6 的 ToolContext 非空时要求每个工具方法都声明 ToolContext 参数，不适合只给搜索工具传运行状态）
+ */
+public class SearchQuota {
+
+    private static final InheritableThreadLocal<SearchQuota> CURRENT = new InheritableThreadLocal<>();
+
+    private final int maxCalls;
+
+    private final AtomicInteger used = new AtomicInteger();
+
+    private SearchQuota(int maxCalls) {
+        this.maxCalls = maxCalls;
+    }
+
+    /**
+     * 为当前线程（及其后创建的子线程）开始新的配额
+     * @param maxCalls 本次运行允许的搜索次数
+     * @return
+     */
+    public static SearchQuota begin(int maxCalls) {
+        SearchQuota quota = new SearchQuota(maxCalls);
+        CURRENT.set(quota);
+        return quota;
+    }
+
+    /**
+     * 当前线程所属运行的配额，不在智能体运行中时为 null
+     * @return
+     */
+    public static SearchQuota current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 解除当前线程的配额绑定
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * 占用一次搜索次数
+     * @return 是否还有剩余次数
+     */
+    public boolean tryAcquire() {
+        return used.getAndUpdate(n -> n < maxCalls ? n + 1 : n) < maxCalls;
+    }
+
+    public int remaining() {
+        return Math.max(0, maxCalls - used.get());
+    }
+
+    public int getUsed() {
+        return used.get();
+    }
+
+    public int getMaxCalls() {
+        return maxCalls;
+    }
+}
@@ -1,11 +1,17 @@
 package org.lpz.aiagent.tools;
 
+import org.lpz.aiagent.utils.SegmentedDownloader;
+import org.lpz.aiagent.utils.ToolHttpClient;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbacks;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
 /**
  * 集中注册所有工具
  */
@@ -15,12 +21,45 @@ public class ToolRegistration {
     @Value("${search-api.api-key}")
     private String apiKey;
 
+    /**
+     * 联网工具共用的 HTTP 客户端（连接复用、每个主机限制并发、连接和读取超时）
+     * @param connectTimeout 连接超时
+     * @param readTimeout 读取超时
+     * @param maxConnectionsPerHost 每个主机同时进行的请求数上限
+     * @return
+     */
+    @Bean(destroyMethod = "close")
+    public ToolHttpClient toolHttpClient(@Value("${tool-http.connect-timeout:5s}") Duration connectTimeout,
+                                         @Value("${tool-http.read-timeout:30s}") Duration readTimeout,
+                                         @Value("${tool-http.max-connections-per-host:8}") int maxConnectionsPerHost) {
+        return new ToolHttpClient("tools", connectTimeout, readTimeout, maxConnectionsPerHost);
+    }
+
+    /**
+     * 资源下载工具使用的分段下载器
+     * @param toolHttpClient 共用的 HTTP 客户端
+     * @param parallelism 同时下载的分段数
+     * @param segmentSize 分段大小
+     * @param maxSize 文件大小上限
+     * @param bandwidth 每秒带宽上限，0 表示不限速
+     * @return
+     */
+    @Bean
+    public SegmentedDownloader segmentedDownloader(ToolHttpClient toolHttpClient,
+                                                   @Value("${tool-download.parallelism:4}") int parallelism,
+                                                   @Value("${tool-download.segment-size:4MB}") DataSize segmentSize,
+                                                   @Value("${tool-download.max-size:200MB}") DataSize maxSize,
+                                                   @Value("${tool-download.bandwidth:0B}") DataSize bandwidth) {
+        return new SegmentedDownloader(toolHttpClient, parallelism, segmentSize.toBytes(), maxSize.toBytes(),
+                bandwidth.toBytes());
+    }
+
     @Bean
-    public ToolCallback[] allTools() {
+    public ToolCallback[] allTools(ToolHttpClient toolHttpClient, SegmentedDownloader segmentedDownloader) {
         FileOperationTool fileOperationTool = new FileOperationTool();
-        WebSearchTool webSearchTool = new WebSearchTool(apiKey);
-        WebScrapingTool webScrapingTool = new WebScrapingTool();
-        ResourceDownloadTool resourceDownloadTool = new ResourceDownloadTool();
+        WebSearchTool webSearchTool = new WebSearchTool(apiKey, toolHttpClient);
+        WebScrapingTool webScrapingTool = new WebScrapingTool(toolHttpClient);
+        ResourceDownloadTool resourceDownloadTool = new ResourceDownloadTool(segmentedDownloader);
         TerminalOperationTool terminalOperationTool = new TerminalOperationTool();
         PDFGenerationTool pdfGenerationTool = new PDFGenerationTool();
         TerminateTool terminateTool = new TerminateTool();
@@ -2,21 +2,75 @@ package org.lpz.aiagent.tools;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.lpz.aiagent.utils.HtmlMainContentExtractor;
+import org.lpz.aiagent.utils.ToolHttpClient;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 
-import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
  * 网页抓取工具
+ * 响应体以流的方式读取，超过字节上限的部分直接丢弃；返回的是提取出的正文而不是整页 HTML，
+ * 避免大页面占满内存和智能体上下文。
  */
 public class WebScrapingTool {
 
-    @Tool(description = "Scrape the content of a web page")
+    // 默认最多读取的响应字节数
+    public static final int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+    // 默认返回结果的最大字符数
+    public static final int DEFAULT_MAX_CHARS = 8000;
+
+    // 共用的 HTTP 客户端
+    private final ToolHttpClient httpClient;
+
+    private final int maxBytes;
+
+    private final int maxChars;
+
+    public WebScrapingTool() {
+        this(ToolHttpClient.getDefault());
+    }
+
+    public WebScrapingTool(ToolHttpClient httpClient) {
+        this(httpClient, DEFAULT_MAX_BYTES, DEFAULT_MAX_CHARS);
+    }
+
+    public WebScrapingTool(ToolHttpClient httpClient, int maxBytes, int maxChars) {
+        this.httpClient = httpClient;
+        this.maxBytes = maxBytes;
+        this.maxChars = maxChars;
+    }
+
+    @Tool(description = "Scrape a web page and return its readable main content (title, headings, text and links)")
     public String scrapeWeb(@ToolParam(description = "URL of the web page to scrape") String url) {
-        try {
-            Document elements = Jsoup.connect(url).get();
-            return elements.html();
+        // 整个网页（含响应体）的读取时间不超过读取超时，避免慢速返回的页面占住智能体线程
+        try (ToolHttpClient.StreamResponse response = httpClient.openStream(httpClient.request(url, null),
+                httpClient.getReadTimeout())) {
+            if (response.statusCode() / 100 != 2) {
+                return "Error scraping web page: HTTP " + response.statusCode();
+            }
+            // 只读取上限内的字节，剩余部分随连接关闭丢弃
+            InputStream body = response.body();
+            byte[] bytes = body.readNBytes(maxBytes);
+            boolean truncated = bytes.length == maxBytes && body.read() != -1;
+            Charset charset = response.charset();
+            String contentType = response.headers().firstValue("Content-Type").orElse("text/html");
+            String content;
+            if (contentType.contains("html") || contentType.contains("xml")) {
+                // 响应头未声明编码时由 Jsoup 根据 meta 标签判断
+                Document document = Jsoup.parse(new ByteArrayInputStream(bytes),
+                        charset != null ? charset.name() : null, url);
+                content = HtmlMainContentExtractor.extract(document, maxChars);
+            } else {
+                String text = new String(bytes, charset != null ? charset : StandardCharsets.UTF_8);
+                content = text.length() > maxChars ? text.substring(0, maxChars) + "\n...（内容过长，已截断）" : text;
+            }
+            return truncated ? content + "\n（网页超过 " + maxBytes / 1024 + " KB，只读取了前面部分）" : content;
         } catch (Exception e) {
             return "Error scraping web page: " + e.getMessage();
         }
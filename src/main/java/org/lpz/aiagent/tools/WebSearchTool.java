@@ -1,9 +1,12 @@
 package org.lpz.aiagent.tools;
 
-import cn.hutool.http.HttpUtil;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import org.lpz.aiagent.rag.RetrievalCache;
+import org.lpz.aiagent.utils.ToolHttpClient;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 import org.slf4j.Logger;
@@ -11,7 +14,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 网页搜索工具类
@@ -23,48 +28,114 @@ public class WebSearchTool {
     // SearchAPI搜索接口地址
     private static final String SEARCH_API_URL = "https://www.searchapi.io/api/v1/search";
 
-    // 搜索调用次数限制
-    private static final int MAX_SEARCH_CALLS = 10;
+    // 实际使用的搜索接口地址
+    private final String searchApiUrl;
 
-    // 当前会话中的搜索调用次数
-    private static int searchCallCount = 0;
+    // 每次智能体运行的搜索调用次数限制
+    public static final int MAX_SEARCH_CALLS = 10;
+
+    // 搜索结果缓存条数
+    private static final int CACHE_CAPACITY = 200;
+
+    // 搜索结果缓存时间
+    private static final long CACHE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
 
     // API密钥
     private final String apiKey;
 
+    // 共用的 HTTP 客户端
+    private final ToolHttpClient httpClient;
+
+    // 规范化查询 → 格式化后的搜索结果，所有智能体共用
+    private final LRUCache<String, String> resultCache = CacheUtil.newLRUCache(CACHE_CAPACITY, CACHE_TTL_MILLIS);
+
+    // 正在请求的查询，相同查询并发时只发一次请求，其余等待结果
+    private final Map<String, CompletableFuture<SearchResult>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 一次搜索的结果
+     * @param text 格式化后的结果
+     * @param cacheable 是否可以缓存（接口报错、请求失败时不缓存）
+     */
+    private record SearchResult(String text, boolean cacheable) {
+    }
+
     public WebSearchTool(String apiKey) {
+        this(apiKey, ToolHttpClient.getDefault());
+    }
+
+    public WebSearchTool(String apiKey, ToolHttpClient httpClient) {
+        this(apiKey, httpClient, SEARCH_API_URL);
+    }
+
+    WebSearchTool(String apiKey, ToolHttpClient httpClient, String searchApiUrl) {
         this.apiKey = apiKey;
+        this.httpClient = httpClient;
+        this.searchApiUrl = searchApiUrl;
     }
 
     /**
-     * 获取剩余的搜索调用次数
+     * 获取当前运行剩余的搜索调用次数（没有绑定配额时为上限）
      */
     public static int getRemainingSearchCalls() {
-        return Math.max(0, MAX_SEARCH_CALLS - searchCallCount);
+        SearchQuota quota = SearchQuota.current();
+        return quota != null ? quota.remaining() : MAX_SEARCH_CALLS;
     }
 
     /**
-     * 重置搜索调用次数计数器
+     * 通过百度搜索查询信息
      */
-    public static void resetSearchCallCount() {
-        searchCallCount = 0;
-        log.info("搜索调用次数计数器已重置");
+    @Tool(description = "Search for information from Baidu Search Engine (Limited to " + MAX_SEARCH_CALLS + " calls per run)")
+    public String searchWeb(@ToolParam(description = "Search query keyword") String query) {
+        // 检查本次运行的调用次数限制
+        // 智能体运行和 LoveApp 的工具对话都会绑定配额，只有代码里直接调用本方法时没有配额，不做限制
+        SearchQuota quota = SearchQuota.current();
+        if (quota != null && !quota.tryAcquire()) {
+            return "搜索次数已达到限制（" + quota.getMaxCalls() + "次），无法继续使用搜索工具";
+        }
+        if (quota != null) {
+            log.info("执行搜索查询: '{}' (调用 {}/{})", query, quota.getUsed(), quota.getMaxCalls());
+        }
+
+        String key = RetrievalCache.normalize(query);
+        String text = resultCache.get(key, false);
+        if (text != null) {
+            log.info("搜索结果命中缓存: '{}'", query);
+        } else {
+            text = searchCoalesced(key, query);
+        }
+        return "搜索 '" + query + "' 结果 (剩余调用次数: " + getRemainingSearchCalls() + "):\n\n" + text;
     }
 
     /**
-     * 通过百度搜索查询信息
+     * 相同查询同时只有一个请求发往搜索接口，其余调用等待并共用结果
      */
-    @Tool(description = "Search for information from Baidu Search Engine (Limited to 3 calls per session)")
-    public String searchWeb(@ToolParam(description = "Search query keyword") String query) {
-        // 检查调用次数限制
-        if (searchCallCount >= MAX_SEARCH_CALLS) {
-            return "搜索次数已达到限制（" + MAX_SEARCH_CALLS + "次），无法继续使用搜索工具";
+    private String searchCoalesced(String key, String query) {
+        CompletableFuture<SearchResult> mine = new CompletableFuture<>();
+        CompletableFuture<SearchResult> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            log.info("相同查询正在请求中，等待结果: '{}'", query);
+            return existing.join().text();
         }
+        try {
+            SearchResult result = search(query);
+            if (result.cacheable()) {
+                resultCache.put(key, result.text());
+            }
+            mine.complete(result);
+            return result.text();
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
 
-        // 增加调用计数
-        searchCallCount++;
-        log.info("执行搜索查询: '{}' (调用 {}/{})", query, searchCallCount, MAX_SEARCH_CALLS);
-
+    /**
+     * 调用搜索接口
+     */
+    private SearchResult search(String query) {
         // 构建请求参数
         Map<String, Object> paramMap = new HashMap<>();
         paramMap.put("q", query);
@@ -73,7 +144,7 @@ public class WebSearchTool {
 
         try {
             // 发送搜索请求
-            String response = HttpUtil.get(SEARCH_API_URL, paramMap);
+            String response = httpClient.getString(searchApiUrl, paramMap, null);
             log.debug("搜索API响应: {}", response);
 
             // 解析返回结果
@@ -83,35 +154,34 @@ public class WebSearchTool {
             if (jsonObject.containsKey("error")) {
                 String errorMsg = jsonObject.getStr("error", "Unknown API error");
                 log.warn("搜索API返回错误: {}", errorMsg);
-                return "搜索API返回错误: " + errorMsg;
+                return new SearchResult("搜索API返回错误: " + errorMsg, false);
             }
 
             // 获取搜索结果，添加空检查
             if (!jsonObject.containsKey("organic_results") || jsonObject.isNull("organic_results")) {
                 log.warn("搜索结果中没有 organic_results 字段或为空");
-                return "未找到搜索结果";
+                return new SearchResult("未找到搜索结果", true);
             }
 
             JSONArray organicResults = jsonObject.getJSONArray("organic_results");
             if (organicResults == null || organicResults.isEmpty()) {
                 log.info("搜索结果为空数组");
-                return "没有找到与 '" + query + "' 相关的搜索结果";
+                return new SearchResult("没有找到与 '" + query + "' 相关的搜索结果", true);
             }
 
             // 格式化搜索结果为更友好的格式
-            return formatSearchResults(organicResults, query);
+            return new SearchResult(formatSearchResults(organicResults), true);
         } catch (Exception e) {
             log.error("搜索Baidu时发生错误", e);
-            return "Error searching Baidu: " + e.getMessage();
+            return new SearchResult("Error searching Baidu: " + e.getMessage(), false);
         }
     }
 
     /**
      * 格式化搜索结果为更友好的输出格式
      */
-    private String formatSearchResults(JSONArray results, String query) {
+    private String formatSearchResults(JSONArray results) {
         StringBuilder sb = new StringBuilder();
-        sb.append("搜索 '").append(query).append("' 结果 (剩余调用次数: ").append(MAX_SEARCH_CALLS - searchCallCount).append("):\n\n");
 
         int count = Math.min(results.size(), 5);
         for (int i = 0; i < count; i++) {
@@ -0,0 +1,136 @@
+package org.lpz.aiagent.utils;
+
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 字体程序池
+ * 字体文件只读取一次（优先从类路径加载，找不到时再从工作目录加载），解析好的 FontProgram 放在池中复用，
+ * 每个 PDF 文档借用一个，文档关闭（生成字体子集）后归还。
+ * FontProgram 生成子集时会移动内部的读取位置，不能被多个文档同时使用，所以用池而不是单个共享实例；
+ * 池里没有空闲的就临时解析一个新的，归还时超过空闲上限的直接丢弃。
+ */
+@Slf4j
+public class FontProgramPool {
+
+    // 默认中文字体（宋体）
+    public static final String DEFAULT_FONT = "static/fonts/SimSun.ttf";
+
+    private static volatile FontProgramPool defaultPool;
+
+    private final String location;
+
+    private final int maxIdle;
+
+    private final Queue<FontProgram> idle = new ConcurrentLinkedQueue<>();
+
+    private volatile byte[] fontBytes;
+
+    /**
+     * @param location 字体文件在类路径中的位置，或者文件路径
+     * @param maxIdle 池中保留的空闲实例数上限
+     */
+    public FontProgramPool(String location, int maxIdle) {
+        this.location = location;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * 默认中文字体的池（进程内共用）
+     * @return
+     */
+    public static FontProgramPool getDefault() {
+        if (defaultPool == null) {
+            synchronized (FontProgramPool.class) {
+                if (defaultPool == null) {
+                    defaultPool = new FontProgramPool(DEFAULT_FONT, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+                }
+            }
+        }
+        return defaultPool;
+    }
+
+    /**
+     * 借用一个字体程序，用完（文档关闭后）必须关闭返回的 Lease
+     * @return
+     * @throws IOException 字体文件不存在或解析失败
+     */
+    public Lease borrow() throws IOException {
+        FontProgram fontProgram = idle.poll();
+        if (fontProgram == null) {
+            // 不放进 iText 的全局字体缓存，避免同一个实例被多个文档共用
+            fontProgram = FontProgramFactory.createFont(loadBytes(), false);
+        }
+        return new Lease(fontProgram);
+    }
+
+    /**
+     * 借出的字体程序
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final FontProgram fontProgram;
+
+        private boolean closed;
+
+        private Lease(FontProgram fontProgram) {
+            this.fontProgram = fontProgram;
+        }
+
+        public FontProgram fontProgram() {
+            return fontProgram;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (idle.size() < maxIdle) {
+                idle.offer(fontProgram);
+            }
+        }
+    }
+
+    private byte[] loadBytes() throws IOException {
+        byte[] bytes = fontBytes;
+        if (bytes == null) {
+            synchronized (this) {
+                bytes = fontBytes;
+                if (bytes == null) {
+                    bytes = readFont();
+                    fontBytes = bytes;
+                    log.info("字体已加载: {} ({} KB)", location, bytes.length / 1024);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private byte[] readFont() throws IOException {
+        ClassPathResource resource = new ClassPathResource(location);
+        if (resource.exists()) {
+            try (InputStream in = resource.getInputStream()) {
+                return in.readAllBytes();
+            }
+        }
+        // 兼容从项目目录运行时字体放在源码目录下的情况
+        for (Path path : new Path[]{Paths.get(location), Paths.get("src/main/resources", location)}) {
+            if (Files.isRegularFile(path)) {
+                return Files.readAllBytes(path);
+            }
+        }
+        throw new IOException("字体文件不存在: " + location);
+    }
+}
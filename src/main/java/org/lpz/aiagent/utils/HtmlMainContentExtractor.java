@@ -0,0 +1,135 @@
+package org.lpz.aiagent.utils;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 网页正文提取工具类
+ * 去掉脚本、样式、导航、页脚等无关部分，只保留标题、各级小标题、段落文本和链接，
+ * 结果按字符数截断，避免整页 HTML 进入智能体上下文。
+ */
+public class HtmlMainContentExtractor {
+
+    // 与正文无关的元素
+    private static final String NOISE_SELECTOR = "script, style, noscript, template, svg, canvas, iframe, form, "
+            + "button, input, select, nav, footer, header, aside, [role=navigation], [role=banner], "
+            + "[role=contentinfo], [aria-hidden=true], [hidden]";
+
+    // 优先作为正文容器的元素
+    private static final String MAIN_SELECTOR = "article, main, [role=main], #content, #main, .content, .article, .post";
+
+    // 正文中保留的块级元素
+    private static final String BLOCK_SELECTOR = "h1, h2, h3, h4, h5, h6, p, li, pre, blockquote, td";
+
+    // 最多保留的链接数
+    private static final int MAX_LINKS = 20;
+
+    private HtmlMainContentExtractor() {
+    }
+
+    /**
+     * 提取网页正文
+     * @param document 解析后的网页（需带 baseUri，用于把链接转为绝对地址）
+     * @param maxChars 结果的最大字符数
+     * @return 标题、正文（小标题以 # 标记）和链接列表
+     */
+    public static String extract(Document document, int maxChars) {
+        String title = document.title();
+        Document copy = document.clone();
+        copy.select(NOISE_SELECTOR).remove();
+        Element root = findMainElement(copy);
+
+        StringBuilder sb = new StringBuilder();
+        if (!title.isBlank()) {
+            sb.append("标题: ").append(title.strip()).append("\n\n");
+        }
+        Elements blocks = root.select(BLOCK_SELECTOR);
+        for (Element block : blocks) {
+            // 嵌套的块（如 li 里的 p）只输出最内层，避免重复
+            if (!block.children().select(BLOCK_SELECTOR).isEmpty() && !block.is("h1, h2, h3, h4, h5, h6")) {
+                continue;
+            }
+            String text = block.text().strip();
+            if (text.isEmpty()) {
+                continue;
+            }
+            if (block.is("h1, h2, h3, h4, h5, h6")) {
+                int level = block.tagName().charAt(1) - '0';
+                sb.append("#".repeat(level)).append(' ').append(text).append('\n');
+            } else if (block.is("li")) {
+                sb.append("- ").append(text).append('\n');
+            } else {
+                sb.append(text).append('\n');
+            }
+            if (sb.length() > maxChars) {
+                break;
+            }
+        }
+        if (blocks.isEmpty()) {
+            sb.append(root.text()).append('\n');
+        }
+
+        // 正文中的链接（去重，跳过锚点和脚本链接）
+        Map<String, String> links = new LinkedHashMap<>();
+        for (Element link : root.select("a[href]")) {
+            String href = link.absUrl("href");
+            String text = link.text().strip();
+            if (href.startsWith("http") && !text.isEmpty()) {
+                links.putIfAbsent(href, text);
+            }
+            if (links.size() >= MAX_LINKS) {
+                break;
+            }
+        }
+        if (!links.isEmpty()) {
+            sb.append("\n链接:\n");
+            links.forEach((href, text) -> sb.append("- ").append(text).append(": ").append(href).append('\n'));
+        }
+        return truncate(sb.toString().strip(), maxChars);
+    }
+
+    /**
+     * 找正文容器：优先语义化标签，否则选直接包含段落文本最多的元素
+     * @param document
+     * @return
+     */
+    private static Element findMainElement(Document document) {
+        Element body = document.body() != null ? document.body() : document;
+        Element best = null;
+        int bestLength = 0;
+        for (Element candidate : body.select(MAIN_SELECTOR)) {
+            int length = candidate.text().length();
+            if (length > bestLength) {
+                best = candidate;
+                bestLength = length;
+            }
+        }
+        if (best != null && bestLength >= 200) {
+            return best;
+        }
+        // 统计每个元素直接包含的段落文本长度
+        Map<Element, Integer> scores = new LinkedHashMap<>();
+        for (Element paragraph : body.select("p, pre, blockquote")) {
+            Element parent = paragraph.parent();
+            if (parent != null) {
+                scores.merge(parent, paragraph.text().length(), Integer::sum);
+            }
+        }
+        return scores.entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .filter(entry -> entry.getValue() >= 200)
+                .map(Map.Entry::getKey)
+                .orElse(best != null ? best : body);
+    }
+
+    private static String truncate(String text, int maxChars) {
+        if (text.length() <= maxChars) {
+            return text;
+        }
+        return text.substring(0, maxChars) + "\n...（内容过长，已截断）";
+    }
+}
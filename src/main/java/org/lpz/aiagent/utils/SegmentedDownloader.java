@@ -0,0 +1,404 @@
+package org.lpz.aiagent.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * 分段并发下载器
+ * 服务器支持 Range 请求且返回了文件大小时，把文件切成固定大小的分段并发下载，
+ * 每个分段边读边按偏移写入同一个 .part 文件（FileChannel 定位写，不在内存中攒整段）。
+ * 已完成的分段记录在旁边的 .part.state 状态文件中，下载失败后再次下载同一目标会跳过已完成的分段；
+ * 服务器上的文件变了（ETag / Last-Modified 不一致）则从头下载。
+ * 服务器不支持 Range 时退回单连接下载。文件大小超过上限时直接失败，所有分段共用一个带宽上限。
+ */
+@Slf4j
+public class SegmentedDownloader {
+
+    private static final String PART_SUFFIX = ".part";
+
+    private static final String STATE_SUFFIX = ".part.state";
+
+    // 每次从连接读取并写入文件的字节数
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    // 单个分段失败后的重试次数
+    private static final int SEGMENT_RETRIES = 2;
+
+    private final ToolHttpClient httpClient;
+
+    // 同时下载的分段数
+    private final int parallelism;
+
+    // 分段大小
+    private final long segmentSize;
+
+    // 文件大小上限
+    private final long maxBytes;
+
+    // 带宽上限（字节/秒），不限速时为 null
+    private final TokenBucketRateLimiter bandwidthLimiter;
+
+    /**
+     * @param httpClient HTTP 客户端
+     * @param parallelism 同时下载的分段数（受客户端每个主机的并发上限约束）
+     * @param segmentSize 分段大小（字节），也是断点续传的粒度
+     * @param maxBytes 文件大小上限（字节）
+     * @param bytesPerSecond 带宽上限（字节/秒），0 表示不限速
+     */
+    public SegmentedDownloader(ToolHttpClient httpClient, int parallelism, long segmentSize, long maxBytes,
+                               long bytesPerSecond) {
+        if (parallelism <= 0 || segmentSize <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("parallelism, segmentSize and maxBytes must be positive");
+        }
+        this.httpClient = httpClient;
+        this.parallelism = parallelism;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        // 桶容量为 1 秒的流量
+        this.bandwidthLimiter = bytesPerSecond > 0 ? new TokenBucketRateLimiter(bytesPerSecond, bytesPerSecond) : null;
+    }
+
+    /**
+     * 下载结果
+     * @param size 文件大小
+     * @param segments 分段数（单连接下载为 1）
+     * @param resumedSegments 从上次中断处恢复、本次跳过的分段数
+     */
+    public record Result(long size, int segments, int resumedSegments) {
+    }
+
+    /**
+     * 下载文件到目标位置，完成后删除状态文件
+     * @param url
+     * @param target 目标文件
+     * @return
+     * @throws IOException 非 2xx 响应、超过大小上限、连接失败或超时（已完成的分段保留，下次可续传）
+     */
+    public Result download(String url, Path target) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path partFile = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+        Path stateFile = target.resolveSibling(target.getFileName() + STATE_SUFFIX);
+
+        // 1.探测：只请求第一个字节，看服务器是否支持 Range 以及文件大小
+        ToolHttpClient.StreamResponse probe = httpClient.openStream(rangeRequest(url, 0, 0, null));
+        try {
+            if (probe.statusCode() != 206) {
+                if (probe.statusCode() / 100 != 2) {
+                    throw new IOException("HTTP " + probe.statusCode() + " when downloading " + url);
+                }
+                // 不支持 Range：直接用这个响应单连接下载
+                long size = copyWhole(probe, partFile);
+                Files.deleteIfExists(stateFile);
+                Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+                return new Result(size, 1, 0);
+            }
+        } finally {
+            probe.close();
+        }
+        long total = totalSize(probe.headers());
+        if (total < 0) {
+            // 206 但没有给出总大小，无法切分
+            try (ToolHttpClient.StreamResponse response = httpClient.openStream(identityRequest(url))) {
+                if (response.statusCode() / 100 != 2) {
+                    throw new IOException("HTTP " + response.statusCode() + " when downloading " + url);
+                }
+                long size = copyWhole(response, partFile);
+                Files.deleteIfExists(stateFile);
+                Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+                return new Result(size, 1, 0);
+            }
+        }
+        if (total > maxBytes) {
+            throw new IOException("resource is " + total + " bytes, exceeds the limit of " + maxBytes + " bytes");
+        }
+
+        // 2.读取状态文件，和本次探测结果一致才续传
+        String validator = validator(probe.headers());
+        DownloadState state = DownloadState.load(stateFile);
+        if (state == null || !state.matches(url, total, segmentSize, validator) || !Files.exists(partFile)) {
+            state = new DownloadState(url, total, segmentSize, validator, new BitSet());
+            Files.deleteIfExists(partFile);
+        }
+        int segments = (int) ((total + segmentSize - 1) / segmentSize);
+        int resumed = state.done().cardinality();
+
+        // 3.并发下载未完成的分段，每完成一段写一次状态文件
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            DownloadState current = state;
+            List<Future<?>> futures = new ArrayList<>();
+            try (ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                    Thread.ofVirtual().name("segmented-download-", 0).factory())) {
+                for (int i = 0; i < segments; i++) {
+                    if (current.done().get(i)) {
+                        continue;
+                    }
+                    int index = i;
+                    futures.add(executor.submit(() -> {
+                        downloadSegment(url, channel, index, total, validator);
+                        current.markDone(index, stateFile);
+                        return null;
+                    }));
+                }
+            }
+            IOException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failure = addFailure(failure, e.getCause() instanceof IOException io ? io
+                            : e.getCause() instanceof UncheckedIOException unchecked ? unchecked.getCause()
+                            : new IOException(e.getCause()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("download interrupted: " + url);
+                }
+            }
+            if (failure != null) {
+                log.warn("下载未完成，已完成 {}/{} 个分段，再次下载可续传: {}",
+                        current.done().cardinality(), segments, url);
+                throw failure;
+            }
+            channel.force(false);
+        }
+
+        // 4.全部完成，移动到目标位置
+        Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(stateFile);
+        return new Result(total, segments, resumed);
+    }
+
+    /**
+     * 下载一个分段，失败时重试
+     */
+    private void downloadSegment(String url, FileChannel channel, int index, long total, String validator)
+            throws IOException {
+        long start = index * segmentSize;
+        long end = Math.min(start + segmentSize, total) - 1;
+        IOException failure = null;
+        for (int attempt = 0; attempt <= SEGMENT_RETRIES; attempt++) {
+            int status;
+            long written = 0;
+            try (ToolHttpClient.StreamResponse response = httpClient.openStream(rangeRequest(url, start, end, validator))) {
+                status = response.statusCode();
+                if (status == 206) {
+                    written = transfer(response.body(), channel, start, end - start + 1);
+                }
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = addFailure(failure, e);
+                continue;
+            }
+            if (status == 206 && written == end - start + 1) {
+                return;
+            }
+            IOException e = status == 206
+                    ? new IOException("range " + start + "-" + end + " ended after " + written + " bytes")
+                    : new IOException("HTTP " + status + " for range " + start + "-" + end + " of " + url);
+            failure = addFailure(failure, e);
+            // 只有服务器错误值得重试；带 If-Range 时文件变了会返回 200，需要整个重新下载
+            if (status != 206 && status / 100 != 5) {
+                break;
+            }
+        }
+        throw failure;
+    }
+
+    private static IOException addFailure(IOException failure, IOException e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    /**
+     * 单连接下载整个响应体，超过大小上限时失败
+     */
+    private long copyWhole(ToolHttpClient.StreamResponse response, Path partFile) throws IOException {
+        long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (length > maxBytes) {
+            throw new IOException("resource is " + length + " bytes, exceeds the limit of " + maxBytes + " bytes");
+        }
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // 多读一个字节用来判断是否超过上限
+            long written = transfer(response.body(), channel, 0, maxBytes + 1);
+            if (written > maxBytes) {
+                throw new IOException("resource exceeds the limit of " + maxBytes + " bytes");
+            }
+            channel.force(false);
+            return written;
+        } catch (IOException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+    }
+
+    /**
+     * 从输入流读取最多 limit 个字节，写入文件的 position 处
+     * @return 实际写入的字节数
+     */
+    private long transfer(InputStream in, FileChannel channel, long position, long limit) throws IOException {
+        byte[] buffer = new byte[IO_BUFFER_SIZE];
+        long written = 0;
+        while (written < limit) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, limit - written));
+            if (n < 0) {
+                break;
+            }
+            throttle(n);
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+            while (chunk.hasRemaining()) {
+                written += channel.write(chunk, position + written);
+            }
+        }
+        return written;
+    }
+
+    private void throttle(int bytes) throws InterruptedIOException {
+        if (bandwidthLimiter == null) {
+            return;
+        }
+        try {
+            bandwidthLimiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("download interrupted");
+        }
+    }
+
+    /**
+     * Range 请求，不压缩（压缩后字节偏移对不上）
+     */
+    private HttpRequest.Builder rangeRequest(String url, long start, long end, String validator) {
+        HttpRequest.Builder request = identityRequest(url).setHeader("Range", "bytes=" + start + "-" + end);
+        if (validator != null) {
+            request.setHeader("If-Range", validator);
+        }
+        return request;
+    }
+
+    private HttpRequest.Builder identityRequest(String url) {
+        return httpClient.request(url, Map.of("Accept-Encoding", "identity"));
+    }
+
+    /**
+     * 从 Content-Range（bytes 0-0/12345）解析文件总大小，未知时返回 -1
+     */
+    static long totalSize(HttpHeaders headers) {
+        String contentRange = headers.firstValue("Content-Range").orElse("");
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).strip());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 判断文件是否变化的依据：优先强 ETag，其次 Last-Modified
+     */
+    private static String validator(HttpHeaders headers) {
+        return headers.firstValue("ETag")
+                .filter(etag -> !etag.startsWith("W/"))
+                .or(() -> headers.firstValue("Last-Modified"))
+                .orElse(null);
+    }
+
+    /**
+     * 下载状态（保存在 .part.state 文件中）
+     * @param url 下载地址
+     * @param total 文件大小
+     * @param segmentSize 分段大小
+     * @param validator ETag 或 Last-Modified
+     * @param done 已完成的分段
+     */
+    private record DownloadState(String url, long total, long segmentSize, String validator, BitSet done) {
+
+        boolean matches(String url, long total, long segmentSize, String validator) {
+            return Objects.equals(this.url, url) && this.total == total && this.segmentSize == segmentSize
+                    && Objects.equals(this.validator, validator);
+        }
+
+        /**
+         * 标记分段完成并写入状态文件（先写临时文件再替换，中途崩溃不会留下半个状态文件）
+         */
+        synchronized void markDone(int index, Path stateFile) {
+            done.set(index);
+            Properties properties = new Properties();
+            properties.setProperty("url", url);
+            properties.setProperty("total", String.valueOf(total));
+            properties.setProperty("segmentSize", String.valueOf(segmentSize));
+            if (validator != null) {
+                properties.setProperty("validator", validator);
+            }
+            properties.setProperty("done", done.stream().mapToObj(String::valueOf).collect(Collectors.joining(",")));
+            Path tmpFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入下载状态失败: " + stateFile, e);
+            }
+            try {
+                Files.move(tmpFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入下载状态失败: " + stateFile, e);
+            }
+        }
+
+        static DownloadState load(Path stateFile) {
+            if (!Files.exists(stateFile)) {
+                return null;
+            }
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+                BitSet done = new BitSet();
+                String doneList = properties.getProperty("done", "");
+                for (String index : doneList.split(",")) {
+                    if (!index.isBlank()) {
+                        done.set(Integer.parseInt(index.strip()));
+                    }
+                }
+                return new DownloadState(properties.getProperty("url"),
+                        Long.parseLong(properties.getProperty("total")),
+                        Long.parseLong(properties.getProperty("segmentSize")),
+                        properties.getProperty("validator"), done);
+            } catch (IOException | RuntimeException e) {
+                log.warn("下载状态文件无效，从头下载: {}", stateFile, e);
+                return null;
+            }
+        }
+    }
+}
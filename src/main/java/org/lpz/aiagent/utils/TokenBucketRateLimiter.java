@@ -0,0 +1,81 @@
+package org.lpz.aiagent.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限流器
+ * 令牌按固定速率生成，桶满后不再累积；取令牌时不足则阻塞等待，允许不超过桶容量的突发。
+ * 可用于限制调用外部 API 的频率（请求数），也可以按字节数限制带宽。
+ */
+public class TokenBucketRateLimiter {
+
+    // 每秒生成的令牌数
+    private final double permitsPerSecond;
+
+    // 桶容量
+    private final double capacity;
+
+    private double available;
+
+    private long lastRefillNanos;
+
+    /**
+     * @param permitsPerSecond 每秒生成的令牌数
+     * @param capacity 桶容量（允许的最大突发）
+     */
+    public TokenBucketRateLimiter(double permitsPerSecond, double capacity) {
+        if (permitsPerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond and capacity must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = capacity;
+        this.available = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    /**
+     * 取出指定数量的令牌，不足时阻塞等待
+     * 超过桶容量的请求会在桶满后透支，之后的请求等待令牌补足
+     * @param permits
+     * @throws InterruptedException
+     */
+    public void acquire(double permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            double needed = Math.min(permits, capacity);
+            if (available >= needed) {
+                available -= permits;
+                return;
+            }
+            // 先预支令牌，等待期间生成的令牌用于偿还，后来的请求排在后面
+            waitNanos = (long) ((needed - available) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+            available -= permits;
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    /**
+     * 尝试取出令牌，不足时立即返回
+     * @param permits
+     * @return 是否取到
+     */
+    public synchronized boolean tryAcquire(double permits) {
+        refill();
+        if (available >= permits) {
+            available -= permits;
+            return true;
+        }
+        return false;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,547 @@
+package org.lpz.aiagent.utils;
+
+import cn.hutool.http.HttpUtil;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 工具共用的 HTTP 客户端
+ * 基于 java.net.http.HttpClient：连接复用（keep-alive），优先 HTTP/2，请求 gzip 压缩并自动解压。
+ * 每个主机同时进行的请求数有上限（超出的请求排队，等待超过读取超时时间则失败），
+ * 每个请求有连接超时和读取超时（从发出请求到读完响应体），一个慢主机不会一直占住智能体线程；
+ * 流式响应的每次读取同样受读取超时限制，还可以指定整个响应的截止时间，超时由后台线程关闭连接。
+ * 连接池使用情况上报到 tool.http.* 指标。
+ */
+@Slf4j
+public class ToolHttpClient implements AutoCloseable {
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 "
+            + "(KHTML, like Gecko) Chrome/124.0 Safari/537.36";
+
+    private static volatile ToolHttpClient defaultClient;
+
+    private final String name;
+
+    private final HttpClient httpClient;
+
+    private final Duration readTimeout;
+
+    private final int maxConnectionsPerHost;
+
+    // 主机 → 该主机的并发许可
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final Timer requestTimer;
+
+    private final Timer permitWaitTimer;
+
+    // 检查流式响应读取是否超时的后台线程
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * 响应
+     * @param statusCode 状态码
+     * @param headers 响应头
+     * @param body 响应体（已解压）
+     */
+    public record Response(int statusCode, HttpHeaders headers, byte[] body) {
+
+        /**
+         * Content-Type 中声明的编码，未声明时为 null
+         * @return
+         */
+        public Charset charset() {
+            return ToolHttpClient.charset(headers);
+        }
+
+        /**
+         * 按 Content-Type 中的编码解析响应体，未声明时使用 UTF-8
+         * @return
+         */
+        public String text() {
+            Charset charset = charset();
+            return new String(body, charset != null ? charset : StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 流式响应，读完后必须关闭（关闭时归还主机并发许可）
+     */
+    public static final class StreamResponse implements AutoCloseable {
+
+        private final int statusCode;
+
+        private final HttpHeaders headers;
+
+        private final InputStream body;
+
+        private StreamResponse(int statusCode, HttpHeaders headers, InputStream body) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int statusCode() {
+            return statusCode;
+        }
+
+        public HttpHeaders headers() {
+            return headers;
+        }
+
+        /**
+         * 响应体（已解压）
+         * @return
+         */
+        public InputStream body() {
+            return body;
+        }
+
+        /**
+         * Content-Type 中声明的编码，未声明时为 null
+         * @return
+         */
+        public Charset charset() {
+            return ToolHttpClient.charset(headers);
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    /**
+     * @param name 客户端名称（指标标签）
+     * @param connectTimeout 连接超时
+     * @param readTimeout 读取超时（从发出请求到读完响应体；流式响应为收到响应头，以及之后的每次读取）
+     * @param maxConnectionsPerHost 每个主机同时进行的请求数上限
+     */
+    public ToolHttpClient(String name, Duration connectTimeout, Duration readTimeout, int maxConnectionsPerHost) {
+        this.name = name;
+        this.readTimeout = readTimeout;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        Gauge.builder("tool.http.in_flight", inFlight, AtomicInteger::get)
+                .description("Tool HTTP requests currently holding a per-host connection permit")
+                .tag("client", name)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("tool.http.waiting", waiting, AtomicInteger::get)
+                .description("Tool HTTP requests waiting for a per-host connection permit")
+                .tag("client", name)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("tool.http.utilization", this, ToolHttpClient::utilization)
+                .description("Permits in use on the busiest host divided by the per-host limit")
+                .tag("client", name)
+                .register(Metrics.globalRegistry);
+        this.requestTimer = Timer.builder("tool.http.request")
+                .description("Tool HTTP request latency")
+                .tag("client", name)
+                .register(Metrics.globalRegistry);
+        this.permitWaitTimer = Timer.builder("tool.http.permit_wait")
+                .description("Time spent waiting for a per-host connection permit")
+                .tag("client", name)
+                .register(Metrics.globalRegistry);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("tool-http-watchdog-" + name).daemon(true).factory());
+    }
+
+    /**
+     * 默认客户端（未通过 Spring 注入时使用）
+     * @return
+     */
+    public static ToolHttpClient getDefault() {
+        if (defaultClient == null) {
+            synchronized (ToolHttpClient.class) {
+                if (defaultClient == null) {
+                    defaultClient = new ToolHttpClient("default", Duration.ofSeconds(5), Duration.ofSeconds(30), 8);
+                }
+            }
+        }
+        return defaultClient;
+    }
+
+    /**
+     * GET 请求并读取完整响应体
+     * @param url
+     * @param params 查询参数（会做 URL 编码），可为 null
+     * @param headers 请求头，可为 null
+     * @return
+     * @throws IOException 连接失败、超时或并发排队超时
+     */
+    public Response get(String url, Map<String, ?> params, Map<String, String> headers) throws IOException {
+        HttpRequest request = prepare(request(withParams(url, params), headers)).build();
+        Semaphore permit = acquire(request.uri());
+        try {
+            HttpResponse<byte[]> response = sendWithDeadline(request);
+            try (InputStream body = decode(response.headers(), new ByteArrayInputStream(response.body()))) {
+                return new Response(response.statusCode(), response.headers(), body.readAllBytes());
+            }
+        } finally {
+            release(permit);
+        }
+    }
+
+    /**
+     * GET 请求并按响应编码返回文本
+     * @param url
+     * @param params 查询参数，可为 null
+     * @param headers 请求头，可为 null
+     * @return
+     * @throws IOException
+     */
+    public String getString(String url, Map<String, ?> params, Map<String, String> headers) throws IOException {
+        return get(url, params, headers).text();
+    }
+
+    /**
+     * 发送请求并以流的方式读取响应体，适合大文件或需要限制读取量的场景
+     * 等待响应头和之后的每次读取都受读取超时限制（读取量由调用方控制），返回的响应必须关闭
+     * @param request 请求（默认请求头、读取超时、gzip 会自动补上）
+     * @return
+     * @throws IOException
+     */
+    public StreamResponse openStream(HttpRequest.Builder request) throws IOException {
+        return openStream(request, null);
+    }
+
+    /**
+     * 发送请求并以流的方式读取响应体，整个响应（从发出请求到读完响应体）不超过截止时间
+     * @param request 请求（默认请求头、读取超时、gzip 会自动补上）
+     * @param deadline 整个响应的时间上限，为 null 时只限制每次读取
+     * @return
+     * @throws IOException 连接失败、超时或并发排队超时；读取超时时 body 的读取抛出 HttpTimeoutException
+     */
+    public StreamResponse openStream(HttpRequest.Builder request, Duration deadline) throws IOException {
+        HttpRequest built = prepare(request).build();
+        Semaphore permit = acquire(built.uri());
+        WatchedInputStream watched = null;
+        try {
+            long startNanos = System.nanoTime();
+            HttpResponse<InputStream> response = send(built);
+            watched = new WatchedInputStream(response.body(), built.uri(),
+                    deadline != null ? startNanos + deadline.toNanos() : null);
+            WatchedInputStream raw = watched;
+            AtomicBoolean released = new AtomicBoolean();
+            InputStream body = new FilterInputStream(decode(response.headers(), watched)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        raw.close();
+                        if (released.compareAndSet(false, true)) {
+                            release(permit);
+                        }
+                    }
+                }
+            };
+            return new StreamResponse(response.statusCode(), response.headers(), body);
+        } catch (IOException | RuntimeException e) {
+            // 解压流读取 gzip 头失败时，取消超时检查并释放连接
+            if (watched != null) {
+                try {
+                    watched.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            release(permit);
+            throw e;
+        }
+    }
+
+    /**
+     * GET 请求的流式读取
+     * @param url
+     * @param headers 请求头，可为 null
+     * @return
+     * @throws IOException
+     */
+    public StreamResponse openStream(String url, Map<String, String> headers) throws IOException {
+        return openStream(request(url, headers));
+    }
+
+    /**
+     * 创建带默认请求头的 GET 请求
+     * @param url
+     * @param headers 额外请求头，可为 null
+     * @return
+     */
+    public HttpRequest.Builder request(String url, Map<String, String> headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).GET();
+        if (headers != null) {
+            headers.forEach(builder::setHeader);
+        }
+        return builder;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    @Override
+    public void close() {
+        watchdog.shutdownNow();
+        httpClient.close();
+    }
+
+    /**
+     * 带读取超时的响应体流
+     * 后台线程定期检查：单次读取阻塞超过读取超时，或者超过整个响应的截止时间，就关闭底层流，
+     * 阻塞中的读取随即返回，抛出 HttpTimeoutException
+     */
+    private final class WatchedInputStream extends FilterInputStream {
+
+        private final URI uri;
+
+        // 整个响应的截止时间（System.nanoTime），为 null 时不限制
+        private final Long deadlineNanos;
+
+        // 当前读取开始的时间，没有在读取时为 0
+        private volatile long readStartNanos;
+
+        private volatile String timeoutMessage;
+
+        private final ScheduledFuture<?> check;
+
+        private WatchedInputStream(InputStream in, URI uri, Long deadlineNanos) {
+            super(in);
+            this.uri = uri;
+            this.deadlineNanos = deadlineNanos;
+            long limitMillis = deadlineNanos == null ? readTimeout.toMillis()
+                    : Math.min(readTimeout.toMillis(), TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+            long interval = Math.max(10, limitMillis / 4);
+            this.check = watchdog.scheduleWithFixedDelay(this::checkTimeout, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int read() throws IOException {
+            beginRead();
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw translate(e);
+            } finally {
+                readStartNanos = 0;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            beginRead();
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw translate(e);
+            } finally {
+                readStartNanos = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            check.cancel(false);
+            super.close();
+        }
+
+        private void beginRead() throws IOException {
+            if (timeoutMessage != null) {
+                throw new HttpTimeoutException(timeoutMessage);
+            }
+            if (deadlineExceeded(System.nanoTime())) {
+                throw new HttpTimeoutException("response deadline exceeded: " + uri);
+            }
+            readStartNanos = System.nanoTime();
+        }
+
+        private boolean deadlineExceeded(long now) {
+            return deadlineNanos != null && now - deadlineNanos > 0;
+        }
+
+        private IOException translate(IOException e) {
+            return timeoutMessage != null ? new HttpTimeoutException(timeoutMessage) : e;
+        }
+
+        private void checkTimeout() {
+            long now = System.nanoTime();
+            long readStart = readStartNanos;
+            if (deadlineExceeded(now)) {
+                timeoutMessage = "response deadline exceeded: " + uri;
+            } else if (readStart != 0 && now - readStart > readTimeout.toNanos()) {
+                timeoutMessage = "read timed out after " + readTimeout.toMillis() + " ms: " + uri;
+            } else {
+                return;
+            }
+            check.cancel(false);
+            try {
+                // 关闭后阻塞中的读取会立即返回
+                in.close();
+            } catch (IOException e) {
+                log.debug("关闭超时的响应流失败: {}", uri, e);
+            }
+        }
+    }
+
+    private HttpRequest.Builder prepare(HttpRequest.Builder request) {
+        HttpRequest probe = request.copy().build();
+        if (probe.headers().firstValue("User-Agent").isEmpty()) {
+            request.setHeader("User-Agent", USER_AGENT);
+        }
+        if (probe.headers().firstValue("Accept-Encoding").isEmpty()) {
+            request.setHeader("Accept-Encoding", "gzip");
+        }
+        if (probe.timeout().isEmpty()) {
+            request.timeout(readTimeout);
+        }
+        return request;
+    }
+
+    private HttpResponse<InputStream> send(HttpRequest request) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("request interrupted: " + request.uri());
+        } finally {
+            record(start);
+        }
+    }
+
+    /**
+     * 发送请求并读完响应体，整个过程受读取超时限制（HttpRequest.timeout 只管到收到响应头）
+     */
+    private HttpResponse<byte[]> sendWithDeadline(HttpRequest request) throws IOException {
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<byte[]>> future =
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        try {
+            return future.get(readTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new HttpTimeoutException("request timed out after " + readTimeout.toMillis() + " ms: " + request.uri());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("request interrupted: " + request.uri());
+        } finally {
+            record(start);
+        }
+    }
+
+    /**
+     * 获取主机的并发许可，等待超过读取超时时间则失败
+     */
+    private Semaphore acquire(URI uri) throws IOException {
+        String host = uri.getHost() != null ? uri.getHost().toLowerCase() : "";
+        Semaphore permit = hostPermits.computeIfAbsent(host, h -> new Semaphore(maxConnectionsPerHost, true));
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        try {
+            if (!permit.tryAcquire(readTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new HttpTimeoutException("too many concurrent requests to " + host);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + host);
+        } finally {
+            waiting.decrementAndGet();
+            permitWaitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        inFlight.incrementAndGet();
+        return permit;
+    }
+
+    private void release(Semaphore permit) {
+        inFlight.decrementAndGet();
+        permit.release();
+    }
+
+    private double utilization() {
+        int busiest = 0;
+        for (Semaphore permit : hostPermits.values()) {
+            busiest = Math.max(busiest, maxConnectionsPerHost - permit.availablePermits());
+        }
+        return (double) busiest / maxConnectionsPerHost;
+    }
+
+    private void record(long startNanos) {
+        requestTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String withParams(String url, Map<String, ?> params) {
+        if (params == null || params.isEmpty()) {
+            return url;
+        }
+        return HttpUtil.urlWithForm(url, (Map<String, Object>) params, StandardCharsets.UTF_8, false);
+    }
+
+    /**
+     * 按 Content-Encoding 解压响应体
+     */
+    private static InputStream decode(HttpHeaders headers, InputStream body) throws IOException {
+        String encoding = headers.firstValue("Content-Encoding").orElse("");
+        return "gzip".equalsIgnoreCase(encoding.strip()) ? new GZIPInputStream(body) : body;
+    }
+
+    static Charset charset(HttpHeaders headers) {
+        String contentType = headers.firstValue("Content-Type").orElse("");
+        for (String part : contentType.split(";")) {
+            String[] pair = part.strip().split("=", 2);
+            if (pair.length == 2 && pair[0].equalsIgnoreCase("charset")) {
+                try {
+                    return Charset.forName(pair[1].strip().replace("\"", ""));
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,131 @@
+package org.lpz.aiagent.advisor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+
+class SemanticCacheAdvisorTest {
+
+    /**
+     * 每次调用返回“回答N”，统计调用次数
+     */
+    static class CountingChatModel implements ChatModel {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            return response("回答" + calls.incrementAndGet());
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            String answer = "回答" + calls.incrementAndGet();
+            return Flux.just(response(answer.substring(0, 1)), response(answer.substring(1)));
+        }
+
+        private static ChatResponse response(String text) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+        }
+    }
+
+    /**
+     * 固定问题对应固定向量的假模型
+     */
+    static class MapEmbeddingModel implements EmbeddingModel {
+
+        private final Map<String, float[]> vectors = Map.of(
+                "怎么挽回前任", new float[]{1, 0, 0},
+                "如何挽回前任", new float[]{0.99f, 0.1f, 0},
+                "第一次约会去哪里", new float[]{0, 1, 0});
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            return new EmbeddingResponse(List.of(new Embedding(vectors.get(request.getInstructions().get(0)), 0)));
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vectors.get(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return 3;
+        }
+    }
+
+    private final CountingChatModel chatModel = new CountingChatModel();
+
+    private final ChatClient chatClient = ChatClient.builder(chatModel)
+            .defaultAdvisors(new MessageChatMemoryAdvisor(new InMemoryChatMemory()),
+                    new SemanticCacheAdvisor(new MapEmbeddingModel(), 0.95, 100, Duration.ofMinutes(10)))
+            .build();
+
+    private String call(String message, String chatId, boolean enabled) {
+        return chatClient.prompt()
+                .user(message)
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                        .param(SemanticCacheAdvisor.ENABLED_KEY, enabled))
+                .call()
+                .content();
+    }
+
+    @Test
+    void similarQuestionInNewConversationHitsCache() {
+        Assertions.assertEquals("回答1", call("怎么挽回前任", "a", true));
+        Assertions.assertEquals("回答1", call("如何挽回前任", "b", true));
+        Assertions.assertEquals("回答2", call("第一次约会去哪里", "c", true));
+        Assertions.assertEquals(2, chatModel.calls.get());
+    }
+
+    @Test
+    void conversationWithHistoryOrOptOutBypassesCache() {
+        call("怎么挽回前任", "a", true);
+        // 会话 a 已有历史消息，同样的问题也要重新生成
+        Assertions.assertEquals("回答2", call("怎么挽回前任", "a", true));
+        Assertions.assertEquals("回答3", call("怎么挽回前任", "b", false));
+    }
+
+    @Test
+    void cachedAnswerIsReplayedAsStream() {
+        String streamed = String.join("", chatClient.prompt()
+                .user("怎么挽回前任")
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, "a"))
+                .stream()
+                .content()
+                .collectList()
+                .block());
+        Assertions.assertEquals("回答1", streamed);
+
+        List<String> chunks = chatClient.prompt()
+                .user("如何挽回前任")
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, "b"))
+                .stream()
+                .content()
+                .collectList()
+                .block();
+        Assertions.assertEquals("回答1", String.join("", chunks));
+        Assertions.assertEquals(1, chatModel.calls.get());
+    }
+}
@@ -0,0 +1,83 @@
+package org.lpz.aiagent.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.lpz.aiagent.agent.model.AgentState;
+import org.lpz.aiagent.common.ErrorCode;
+import org.lpz.aiagent.exception.BusinessException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class AgentRunExecutorTest {
+
+    @Test
+    void rejectsWhenRunsAndQueueAreFull() throws Exception {
+        AgentRunExecutor executor = new AgentRunExecutor(2, 1, true);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(3);
+        Runnable blocking = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        };
+        try {
+            executor.execute(blocking);
+            executor.execute(blocking);
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            // 两个运行中，第三个排队，第四个被拒绝
+            executor.execute(blocking);
+            Assertions.assertEquals(1, executor.getQueueDepth());
+            BusinessException exception = Assertions.assertThrows(BusinessException.class, () -> executor.execute(blocking));
+            Assertions.assertEquals(ErrorCode.TOO_MANY_REQUEST.getCode(), exception.getCode());
+
+            release.countDown();
+            Assertions.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void platformThreadPoolRejectsWhenRunsAndQueueAreFull() throws Exception {
+        AgentRunExecutor executor = new AgentRunExecutor(1, 1, false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            executor.execute(blocking);
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            executor.execute(blocking);
+            Assertions.assertEquals(1, executor.getActiveCount());
+            Assertions.assertEquals(1, executor.getQueueDepth());
+            Assertions.assertThrows(BusinessException.class, () -> executor.execute(blocking));
+            release.countDown();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void streamingRunRequiresExecutor() {
+        BaseAgent agent = new BaseAgent() {
+            @Override
+            public String step() {
+                return "done";
+            }
+        };
+        Assertions.assertThrows(IllegalStateException.class, () -> agent.runStream("你好"));
+        Assertions.assertEquals(AgentState.IDLE, agent.getState());
+    }
+}
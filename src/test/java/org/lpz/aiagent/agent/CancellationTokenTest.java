@@ -0,0 +1,67 @@
+package org.lpz.aiagent.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.lpz.aiagent.agent.model.AgentState;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CancellationTokenTest {
+
+    @Test
+    void callbacksRunOnceAndNotAfterClose() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger fired = new AtomicInteger();
+        CancellationToken.Registration closed = token.onCancel(fired::incrementAndGet);
+        token.onCancel(fired::incrementAndGet);
+        closed.close();
+
+        token.cancel();
+        token.cancel();
+        Assertions.assertTrue(token.isCancelled());
+        Assertions.assertEquals(1, fired.get());
+
+        // 已取消后注册的回调立即执行
+        token.onCancel(fired::incrementAndGet);
+        Assertions.assertEquals(2, fired.get());
+    }
+
+    @Test
+    void cancelStopsRunningAgentWithinASecond() throws Exception {
+        CountDownLatch stepStarted = new CountDownLatch(1);
+        AtomicInteger steps = new AtomicInteger();
+        BaseAgent agent = new BaseAgent() {
+            @Override
+            public String step() {
+                steps.incrementAndGet();
+                stepStarted.countDown();
+                try {
+                    // 模拟一次很慢的大模型调用
+                    Thread.sleep(30_000);
+                    return "done";
+                } catch (InterruptedException e) {
+                    return "interrupted";
+                }
+            }
+        };
+        AgentRunExecutor executor = new AgentRunExecutor(1, 1, true);
+        agent.setExecutor(executor);
+        agent.setMaxSteps(5);
+        try {
+            agent.runStream("帮我制定减脂计划");
+            Assertions.assertTrue(stepStarted.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            agent.getCancellationToken().cancel();
+            while (agent.getState() != AgentState.CANCELLED && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1)) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(AgentState.CANCELLED, agent.getState());
+            Assertions.assertEquals(1, steps.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.lpz.aiagent.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+class ParallelToolExecutorTest {
+
+    @Test
+    void callsRunConcurrentlyAndKeepOrder() {
+        ToolCallback[] tools = {sleepingTool("slowSearch", 600), sleepingTool("fastSearch", 100)};
+        ChatResponse response = toolCallResponse(
+                new AssistantMessage.ToolCall("1", "function", "slowSearch", "a"),
+                new AssistantMessage.ToolCall("2", "function", "fastSearch", "b"),
+                new AssistantMessage.ToolCall("3", "function", "slowSearch", "c"));
+
+        long start = System.nanoTime();
+        ToolExecutionResult result = new ParallelToolExecutor(Duration.ofSeconds(10))
+                .executeToolCalls(new Prompt(new UserMessage("搜索")), response, tools);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // 串行需要 1300ms，并行约等于最慢的 600ms
+        Assertions.assertTrue(elapsedMillis < 1100, "elapsed " + elapsedMillis + "ms");
+        ToolResponseMessage toolResponseMessage = (ToolResponseMessage) result.conversationHistory().get(2);
+        List<ToolResponseMessage.ToolResponse> responses = toolResponseMessage.getResponses();
+        Assertions.assertEquals(List.of("1", "2", "3"), responses.stream().map(ToolResponseMessage.ToolResponse::id).toList());
+        Assertions.assertEquals(List.of("slowSearch:a", "fastSearch:b", "slowSearch:c"),
+                responses.stream().map(ToolResponseMessage.ToolResponse::responseData).toList());
+    }
+
+    @Test
+    void slowCallsAreCancelledAtStepDeadline() {
+        ToolCallback[] tools = {sleepingTool("hang", 10_000), sleepingTool("quick", 10)};
+        ChatResponse response = toolCallResponse(
+                new AssistantMessage.ToolCall("1", "function", "hang", "a"),
+                new AssistantMessage.ToolCall("2", "function", "quick", "b"));
+
+        long start = System.nanoTime();
+        ToolExecutionResult result = new ParallelToolExecutor(Duration.ofMillis(300))
+                .executeToolCalls(new Prompt(new UserMessage("搜索")), response, tools);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        Assertions.assertTrue(elapsedMillis < 2000, "elapsed " + elapsedMillis + "ms");
+        List<ToolResponseMessage.ToolResponse> responses =
+                ((ToolResponseMessage) result.conversationHistory().get(2)).getResponses();
+        Assertions.assertTrue(responses.get(0).responseData().contains("超时"));
+        Assertions.assertEquals("quick:b", responses.get(1).responseData());
+    }
+
+    private ChatResponse toolCallResponse(AssistantMessage.ToolCall... toolCalls) {
+        AssistantMessage assistantMessage = new AssistantMessage("", Map.of(), List.of(toolCalls));
+        return new ChatResponse(List.of(new Generation(assistantMessage)));
+    }
+
+    private ToolCallback sleepingTool(String name, long sleepMillis) {
+        ToolDefinition definition = ToolDefinition.builder().name(name).description(name).inputSchema("{}").build();
+        return new ToolCallback() {
+            @Override
+            public ToolDefinition getToolDefinition() {
+                return definition;
+            }
+
+            @Override
+            public String call(String toolInput) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return "interrupted";
+                }
+                return name + ":" + toolInput;
+            }
+        };
+    }
+}
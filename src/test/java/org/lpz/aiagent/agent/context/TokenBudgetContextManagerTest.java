@@ -0,0 +1,87 @@
+package org.lpz.aiagent.agent.context;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+class TokenBudgetContextManagerTest {
+
+    private static final String SYSTEM_PROMPT = "You are YuManus, an all-capable AI assistant.";
+
+    @Test
+    void historyWithinBudgetIsUnchanged() {
+        List<Message> messages = buildHistory(2, 100);
+        List<Message> result = new TokenBudgetContextManager(100_000).apply(messages, SYSTEM_PROMPT);
+        Assertions.assertEquals(messages, result);
+    }
+
+    @Test
+    void oldToolResultsAreTruncatedAndLatestTurnKept() {
+        List<Message> messages = buildHistory(10, 20_000);
+        int before = estimate(messages);
+        List<Message> result = new TokenBudgetContextManager(15000).apply(messages, SYSTEM_PROMPT);
+
+        Assertions.assertTrue(estimate(result) + TokenEstimator.estimate(SYSTEM_PROMPT) <= 15000);
+        Assertions.assertTrue(estimate(result) < before);
+        // 第一条用户消息和最近一轮保持原样
+        Assertions.assertSame(messages.get(0), result.get(0));
+        int size = messages.size();
+        Assertions.assertSame(messages.get(size - 1), result.get(result.size() - 1));
+        Assertions.assertSame(messages.get(size - 2), result.get(result.size() - 2));
+        Assertions.assertSame(messages.get(size - 3), result.get(result.size() - 3));
+        // 较早的工具结果被截断，HTML 标签被去掉
+        ToolResponseMessage first = (ToolResponseMessage) result.get(2);
+        String data = first.getResponses().get(0).responseData();
+        Assertions.assertTrue(data.startsWith("[已截断]"));
+        Assertions.assertFalse(data.contains("<div>"));
+    }
+
+    @Test
+    void wholeTurnsAreDroppedWhenTruncationIsNotEnough() {
+        List<Message> messages = buildHistory(50, 2000);
+        List<Message> result = new TokenBudgetContextManager(1500, 200).apply(messages, SYSTEM_PROMPT);
+
+        Assertions.assertTrue(result.size() < messages.size());
+        Assertions.assertSame(messages.get(0), result.get(0));
+        // 每条工具结果前面都必须是对应的工具调用消息
+        for (int i = 0; i < result.size(); i++) {
+            if (result.get(i) instanceof ToolResponseMessage) {
+                Assertions.assertTrue(result.get(i - 1) instanceof AssistantMessage assistantMessage
+                        && assistantMessage.hasToolCalls());
+            }
+        }
+    }
+
+    /**
+     * 构造 [任务, (工具调用, 工具结果, 下一步提示) × steps] 形式的上下文
+     */
+    private List<Message> buildHistory(int steps, int toolResultChars) {
+        List<Message> messages = new ArrayList<>();
+        messages.add(new UserMessage("帮我搜索上海适合约会的地点并生成 PDF"));
+        for (int step = 0; step < steps; step++) {
+            String id = "call-" + step;
+            messages.add(new AssistantMessage("", Map.of(),
+                    List.of(new AssistantMessage.ToolCall(id, "function", "scrapeWebPage", "{\"url\":\"https://example.com\"}"))));
+            StringBuilder html = new StringBuilder("<html><body>");
+            while (html.length() < toolResultChars) {
+                html.append("<div>第 ").append(step).append(" 步抓取到的网页内容 content</div>");
+            }
+            html.append("</body></html>");
+            messages.add(new ToolResponseMessage(List.of(
+                    new ToolResponseMessage.ToolResponse(id, "scrapeWebPage", html.toString()))));
+            messages.add(new UserMessage("Based on user needs, proactively select the most appropriate tool."));
+        }
+        return messages;
+    }
+
+    private int estimate(List<Message> messages) {
+        return messages.stream().mapToInt(TokenEstimator::estimate).sum();
+    }
+}
@@ -0,0 +1,120 @@
+package org.lpz.aiagent.chatmemory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class AppendOnlyFileChatMemoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void addAndGetLastN() {
+        try (AppendOnlyFileChatMemory chatMemory = new AppendOnlyFileChatMemory(tempDir.toString())) {
+            String chatId = "append-only";
+            for (int i = 0; i < 50; i++) {
+                chatMemory.add(chatId, new UserMessage("问题" + i));
+                chatMemory.add(chatId, new AssistantMessage("回答" + i));
+            }
+            List<Message> messages = chatMemory.get(chatId, 3);
+            Assertions.assertEquals(3, messages.size());
+            Assertions.assertEquals("回答48", messages.get(0).getText());
+            Assertions.assertEquals("问题49", messages.get(1).getText());
+            Assertions.assertEquals("回答49", messages.get(2).getText());
+            Assertions.assertEquals(100, chatMemory.get(chatId, 1000).size());
+
+            chatMemory.clear(chatId);
+            Assertions.assertTrue(chatMemory.get(chatId, 10).isEmpty());
+        }
+    }
+
+    @Test
+    void compactRollsSegmentsAndKeepsAllMessages() {
+        try (AppendOnlyFileChatMemory chatMemory = new AppendOnlyFileChatMemory(tempDir.toString(), 5, 3600)) {
+            String chatId = "compact";
+            for (int i = 0; i < 20; i++) {
+                chatMemory.add(chatId, new UserMessage("消息" + i));
+                chatMemory.compactPending();
+            }
+            // 活动段始终不超过上限，旧消息滚动到历史段
+            Assertions.assertTrue(Files.exists(tempDir.resolve(chatId + ".log.1")));
+            List<Message> messages = chatMemory.get(chatId, 100);
+            Assertions.assertEquals(20, messages.size());
+            for (int i = 0; i < 20; i++) {
+                Assertions.assertEquals("消息" + i, messages.get(i).getText());
+            }
+            // 跨段读取最近 N 条
+            List<Message> tail = chatMemory.get(chatId, 8);
+            Assertions.assertEquals("消息12", tail.get(0).getText());
+            Assertions.assertEquals("消息19", tail.get(7).getText());
+
+            chatMemory.clear(chatId);
+            Assertions.assertTrue(chatMemory.get(chatId, 100).isEmpty());
+            Assertions.assertFalse(Files.exists(tempDir.resolve(chatId + ".log.1")));
+        }
+    }
+
+    @Test
+    void retentionDropsOnlyWholeSegmentsBeyondTheLimit() {
+        try (AppendOnlyFileChatMemory chatMemory = new AppendOnlyFileChatMemory(tempDir.toString(), 5, 3600, 8)) {
+            String chatId = "retention";
+            for (int i = 0; i < 30; i++) {
+                chatMemory.add(chatId, new UserMessage("消息" + i));
+                chatMemory.compactPending();
+            }
+            List<Message> messages = chatMemory.get(chatId, 100);
+            // 至少保留 8 条，且保留的是连续的最新消息
+            Assertions.assertTrue(messages.size() >= 8 && messages.size() < 30, "kept " + messages.size());
+            Assertions.assertEquals("消息29", messages.get(messages.size() - 1).getText());
+            Assertions.assertEquals("消息" + (30 - messages.size()), messages.get(0).getText());
+        }
+    }
+
+    @Test
+    void interruptedRollIsCompletedOnNextAccess() throws Exception {
+        String chatId = "interrupted";
+        try (AppendOnlyFileChatMemory chatMemory = new AppendOnlyFileChatMemory(tempDir.toString(), 5, 3600)) {
+            for (int i = 0; i < 6; i++) {
+                chatMemory.add(chatId, new UserMessage("消息" + i));
+            }
+        }
+        // 模拟滚动时只移动了段文件就崩溃
+        Files.createFile(tempDir.resolve(chatId + ".rolling"));
+        Files.move(tempDir.resolve(chatId + ".log"), tempDir.resolve(chatId + ".log.1"));
+        try (AppendOnlyFileChatMemory chatMemory = new AppendOnlyFileChatMemory(tempDir.toString(), 5, 3600)) {
+            chatMemory.add(chatId, new UserMessage("消息6"));
+            List<Message> messages = chatMemory.get(chatId, 100);
+            Assertions.assertEquals(7, messages.size());
+            Assertions.assertEquals("消息0", messages.get(0).getText());
+            Assertions.assertEquals("消息6", messages.get(6).getText());
+        }
+    }
+
+    @Test
+    void unindexedRecordLeftByCrashIsOverwritten() throws Exception {
+        String chatId = "crashed";
+        try (AppendOnlyFileChatMemory chatMemory = new AppendOnlyFileChatMemory(tempDir.toString())) {
+            for (int i = 0; i < 3; i++) {
+                chatMemory.add(chatId, new UserMessage("消息" + i));
+            }
+        }
+        // 模拟写完记录、还没写索引就崩溃：段文件末尾多出一段没有索引的数据
+        Files.write(tempDir.resolve(chatId + ".log"), new byte[]{0, 0, 0, 5, 1, 2, 3},
+                java.nio.file.StandardOpenOption.APPEND);
+        try (AppendOnlyFileChatMemory chatMemory = new AppendOnlyFileChatMemory(tempDir.toString())) {
+            chatMemory.add(chatId, new UserMessage("消息3"));
+            chatMemory.add(chatId, new UserMessage("消息4"));
+            List<Message> messages = chatMemory.get(chatId, 100);
+            Assertions.assertEquals(List.of("消息0", "消息1", "消息2", "消息3", "消息4"),
+                    messages.stream().map(Message::getText).toList());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.lpz.aiagent.chatmemory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.List;
+
+class CachingChatMemoryTest {
+
+    @Test
+    void writesAreDeferredUntilFlush() {
+        InMemoryChatMemory delegate = new InMemoryChatMemory();
+        try (CachingChatMemory chatMemory = new CachingChatMemory(delegate, 1000, 100, 3_600_000)) {
+            chatMemory.add("chat", new UserMessage("你好"));
+            Assertions.assertEquals(1, chatMemory.get("chat", 10).size());
+            Assertions.assertTrue(delegate.get("chat", 10).isEmpty());
+
+            chatMemory.flushAll();
+            Assertions.assertEquals(1, delegate.get("chat", 10).size());
+        }
+    }
+
+    @Test
+    void evictionFlushesSynchronously() {
+        InMemoryChatMemory delegate = new InMemoryChatMemory();
+        try (CachingChatMemory chatMemory = new CachingChatMemory(delegate, 4, 100, 3_600_000)) {
+            for (int i = 0; i < 3; i++) {
+                chatMemory.add("first", new UserMessage("first-" + i));
+            }
+            // 超出 4 条的容量后，最久未访问的 first 被淘汰并写入底层存储
+            for (int i = 0; i < 3; i++) {
+                chatMemory.add("second", new UserMessage("second-" + i));
+            }
+            Assertions.assertEquals(3, delegate.get("first", 10).size());
+
+            // 淘汰后再次读取从底层存储加载
+            List<Message> messages = chatMemory.get("first", 10);
+            Assertions.assertEquals("first-2", messages.get(2).getText());
+        }
+        Assertions.assertEquals(3, delegate.get("second", 10).size());
+    }
+
+    @Test
+    void readsBeyondCachedWindowFallBackToDelegate() {
+        InMemoryChatMemory delegate = new InMemoryChatMemory();
+        try (CachingChatMemory chatMemory = new CachingChatMemory(delegate, 1000, 5, 3_600_000)) {
+            for (int i = 0; i < 10; i++) {
+                chatMemory.add("chat", new UserMessage(String.valueOf(i)));
+            }
+            Assertions.assertEquals(5, chatMemory.get("chat", 5).size());
+            List<Message> messages = chatMemory.get("chat", 8);
+            Assertions.assertEquals(8, messages.size());
+            Assertions.assertEquals("2", messages.get(0).getText());
+
+            chatMemory.clear("chat");
+            Assertions.assertTrue(chatMemory.get("chat", 10).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.lpz.aiagent.chatmemory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+class FileBasedChatMemoryTest {
+
+    private static final int THREADS = 8;
+
+    private static final int MESSAGES_PER_THREAD = 50;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void concurrentAddsToSameConversationLoseNothing() throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString());
+        String chatId = "same-conversation";
+        runConcurrently(thread -> {
+            for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                chatMemory.add(chatId, new UserMessage(thread + "-" + i));
+                // 读写交替，验证读操作不会读到写了一半的文件
+                Assertions.assertFalse(chatMemory.get(chatId, 1).isEmpty());
+            }
+        });
+
+        List<Message> messages = chatMemory.get(chatId, Integer.MAX_VALUE);
+        Assertions.assertEquals(THREADS * MESSAGES_PER_THREAD, messages.size());
+        Set<String> texts = new HashSet<>();
+        messages.forEach(message -> texts.add(message.getText()));
+        Assertions.assertEquals(THREADS * MESSAGES_PER_THREAD, texts.size());
+    }
+
+    @Test
+    void concurrentAddsToDifferentConversations() throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString());
+        runConcurrently(thread -> {
+            for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                chatMemory.add("conversation-" + thread, new UserMessage(String.valueOf(i)));
+            }
+        });
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            List<Message> messages = chatMemory.get("conversation-" + thread, Integer.MAX_VALUE);
+            Assertions.assertEquals(MESSAGES_PER_THREAD, messages.size());
+            Assertions.assertEquals(String.valueOf(MESSAGES_PER_THREAD - 1), messages.get(MESSAGES_PER_THREAD - 1).getText());
+        }
+    }
+
+    @Test
+    void tailReadAfterManyAppends() {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString());
+        for (int i = 0; i < 30; i++) {
+            chatMemory.add("tail", new UserMessage(String.valueOf(i)));
+        }
+        List<Message> messages = chatMemory.get("tail", 2);
+        Assertions.assertEquals(List.of("28", "29"), messages.stream().map(Message::getText).toList());
+        Assertions.assertEquals(30, chatMemory.get("tail", 100).size());
+    }
+
+    @Test
+    void legacyFileIsConverted() throws Exception {
+        ArrayList<Message> legacy = new ArrayList<>();
+        legacy.add(new UserMessage("旧消息1"));
+        legacy.add(new UserMessage("旧消息2"));
+        try (OutputStream outputStream = new FileOutputStream(tempDir.resolve("legacy.kryo").toFile())) {
+            KryoSerializer.writeObject(outputStream, legacy);
+        }
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString());
+        Assertions.assertEquals("旧消息2", chatMemory.get("legacy", 1).get(0).getText());
+
+        chatMemory.add("legacy", new UserMessage("新消息"));
+        Assertions.assertEquals(3, chatMemory.get("legacy", 10).size());
+    }
+
+    @Test
+    void idleConversationsAreSweptInBatches() throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString(),
+                Duration.ofHours(1), Duration.ofHours(1), 2);
+        for (int i = 0; i < 5; i++) {
+            chatMemory.add("idle-" + i, new UserMessage("消息"));
+        }
+        chatMemory.add("active", new UserMessage("消息"));
+        // 会话文件分散在子目录中，根目录下没有会话文件
+        try (Stream<Path> files = Files.list(tempDir)) {
+            Assertions.assertTrue(files.noneMatch(file -> file.toString().endsWith(".kryo")));
+        }
+        // 把 idle 会话的修改时间调到两小时前
+        long expired = System.currentTimeMillis() - Duration.ofHours(2).toMillis();
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            files.filter(file -> file.getFileName().toString().startsWith("idle-"))
+                    .forEach(file -> file.toFile().setLastModified(expired));
+        }
+        Assertions.assertEquals(6, chatMemory.getConversationCount());
+
+        // 每轮最多删除 2 个，一圈（65536 / 1024 = 64 轮）之后全部清理掉
+        for (int i = 0; i < 64; i++) {
+            long before = chatMemory.getConversationCount();
+            chatMemory.sweepExpired();
+            Assertions.assertTrue(before - chatMemory.getConversationCount() <= 2);
+        }
+        Assertions.assertEquals(1, chatMemory.getConversationCount());
+        Assertions.assertTrue(chatMemory.get("idle-0", 10).isEmpty());
+        Assertions.assertEquals(1, chatMemory.get("active", 10).size());
+        chatMemory.close();
+    }
+
+    @Test
+    void cachedConversationsAreNotSwept() throws Exception {
+        FileBasedChatMemory fileChatMemory = new FileBasedChatMemory(tempDir.toString(),
+                Duration.ofHours(1), Duration.ofHours(1), 100);
+        CachingChatMemory chatMemory = new CachingChatMemory(fileChatMemory, 1000, 200, 60_000);
+        fileChatMemory.setExpiryGuard(chatMemory::expireIfIdle);
+        chatMemory.add("cached", buildMessages(0, 5));
+        fileChatMemory.add("uncached", buildMessages(0, 5));
+        chatMemory.flushAll();
+        // 缓存命中的读写不经过文件，文件的修改时间一直停留在写回的时刻
+        long expired = System.currentTimeMillis() - Duration.ofHours(2).toMillis();
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            files.filter(Files::isRegularFile).forEach(file -> file.toFile().setLastModified(expired));
+        }
+        Assertions.assertEquals(5, chatMemory.get("cached", 100).size());
+
+        for (int i = 0; i < 64; i++) {
+            fileChatMemory.sweepExpired();
+        }
+        Assertions.assertTrue(fileChatMemory.get("uncached", 10).isEmpty());
+        // 缓存中的会话保留完整历史，写回后也不会被截断
+        chatMemory.add("cached", buildMessages(5, 6));
+        chatMemory.flushAll();
+        Assertions.assertEquals(6, fileChatMemory.get("cached", 100).size());
+        chatMemory.close();
+    }
+
+    /**
+     * 读取最近 10 条时实际读取的字节数：10 条和 10000 条消息的会话应基本相同
+     */
+    @Test
+    void tailReadCostIndependentOfHistoryLength() {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString());
+        chatMemory.add("short", buildMessages(990, 1000));
+        chatMemory.add("long", buildMessages(0, 10_000));
+
+        long shortBytes = bytesReadForLast10(chatMemory, "short");
+        long longBytes = bytesReadForLast10(chatMemory, "long");
+        // 两个会话最后 10 条的内容相同，读取量只差索引项和序列化的细微差异
+        Assertions.assertTrue(Math.abs(longBytes - shortBytes) <= 64, shortBytes + " vs " + longBytes);
+        Assertions.assertTrue(longBytes * 100 < chatMemory.getBytesOnDisk(), longBytes + " / " + chatMemory.getBytesOnDisk());
+    }
+
+    @Test
+    void appendWritesOnlyNewRecordsAndIndexEntries() throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString());
+        chatMemory.add("append", buildMessages(0, 1000));
+        long before = chatMemory.getBytesOnDisk();
+        chatMemory.add("append", buildMessages(1000, 1001));
+        long recordBytes = KryoSerializer.toBytes(buildMessages(1000, 1001).get(0)).length + Integer.BYTES;
+        Assertions.assertEquals(before + recordBytes + Long.BYTES, chatMemory.getBytesOnDisk());
+    }
+
+    @Test
+    void tornIndexEntryIsIgnored() throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString());
+        chatMemory.add("torn", buildMessages(0, 3));
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            Path index = files.filter(file -> file.getFileName().toString().equals("torn.idx")).findFirst().orElseThrow();
+            // 模拟追加索引时中断，只写了半条
+            Files.write(index, new byte[]{1, 2, 3}, java.nio.file.StandardOpenOption.APPEND);
+        }
+        Assertions.assertEquals(3, chatMemory.get("torn", 10).size());
+        chatMemory.add("torn", new UserMessage("新消息"));
+        List<Message> messages = chatMemory.get("torn", 10);
+        Assertions.assertEquals(4, messages.size());
+        Assertions.assertEquals("新消息", messages.get(3).getText());
+    }
+
+    private List<Message> buildMessages(int from, int to) {
+        List<Message> messages = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            messages.add(new UserMessage("我想在一个月内减重五公斤，晚餐应该怎么安排？第 " + (i % 1000) + " 轮"));
+        }
+        return messages;
+    }
+
+    private long bytesReadForLast10(FileBasedChatMemory chatMemory, String chatId) {
+        long before = chatMemory.getBytesRead();
+        Assertions.assertEquals(10, chatMemory.get(chatId, 10).size());
+        return chatMemory.getBytesRead() - before;
+    }
+
+    private void runConcurrently(ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int thread = 0; thread < THREADS; thread++) {
+                int threadNo = thread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run(threadNo);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+}
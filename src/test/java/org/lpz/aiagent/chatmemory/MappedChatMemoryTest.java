@@ -0,0 +1,202 @@
+package org.lpz.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+@Slf4j
+class MappedChatMemoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void addAndGetLastN() {
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 1024 * 1024)) {
+            String chatId = "mapped";
+            // 超过一个索引块的条数，验证跨块读取
+            for (int i = 0; i < 50; i++) {
+                chatMemory.add(chatId, List.of(new UserMessage("问题" + i), new AssistantMessage("回答" + i)));
+            }
+            List<Message> messages = chatMemory.get(chatId, 3);
+            Assertions.assertEquals(3, messages.size());
+            Assertions.assertEquals("回答48", messages.get(0).getText());
+            Assertions.assertEquals("问题49", messages.get(1).getText());
+            Assertions.assertEquals("回答49", messages.get(2).getText());
+            Assertions.assertEquals(100, chatMemory.get(chatId, 1000).size());
+            Assertions.assertEquals("问题0", chatMemory.get(chatId, 1000).get(0).getText());
+
+            chatMemory.clear(chatId);
+            Assertions.assertTrue(chatMemory.get(chatId, 10).isEmpty());
+        }
+    }
+
+    @Test
+    void indexIsRebuiltAfterRestart() {
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 4096)) {
+            for (int i = 0; i < 100; i++) {
+                chatMemory.add("kept-" + (i % 3), new UserMessage("消息" + i));
+                chatMemory.add("cleared", new UserMessage("消息" + i));
+            }
+            chatMemory.clear("cleared");
+            chatMemory.add("cleared", new UserMessage("清空后的消息"));
+        }
+
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 4096)) {
+            Assertions.assertEquals(34, chatMemory.get("kept-0", 1000).size());
+            Assertions.assertEquals("消息99", chatMemory.get("kept-0", 1).get(0).getText());
+            List<Message> cleared = chatMemory.get("cleared", 10);
+            Assertions.assertEquals(1, cleared.size());
+            Assertions.assertEquals("清空后的消息", cleared.get(0).getText());
+
+            // 重启后继续追加到最后一个段
+            chatMemory.add("kept-1", new UserMessage("重启后"));
+            Assertions.assertEquals("重启后", chatMemory.get("kept-1", 1).get(0).getText());
+        }
+    }
+
+    @Test
+    void segmentsWithoutLiveRecordsAreDeleted() throws Exception {
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 4096)) {
+            for (int i = 0; i < 500; i++) {
+                chatMemory.add("old", new UserMessage("很早以前的消息" + i));
+            }
+            int segmentsBefore = chatMemory.getSegmentCount();
+            Assertions.assertTrue(segmentsBefore > 1);
+
+            chatMemory.add("new", new UserMessage("新消息"));
+            chatMemory.clear("old");
+            // 空段在后台回收
+            chatMemory.awaitMaintenance();
+            Assertions.assertEquals(1, chatMemory.getSegmentCount());
+            Assertions.assertEquals("新消息", chatMemory.get("new", 1).get(0).getText());
+        }
+    }
+
+    @Test
+    void mostlyDeadSegmentsAreCompacted() throws Exception {
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 4096)) {
+            // 长期保留的会话和临时会话交替写入，每个段里都有少量存活记录
+            for (int i = 0; i < 200; i++) {
+                chatMemory.add("kept", new UserMessage("保留的消息" + i));
+                for (int j = 0; j < 4; j++) {
+                    chatMemory.add("temp-" + (i % 10), new UserMessage("临时消息" + i + "-" + j));
+                }
+            }
+            int segmentsBefore = chatMemory.getSegmentCount();
+            for (int i = 0; i < 10; i++) {
+                chatMemory.clear("temp-" + i);
+            }
+            chatMemory.awaitMaintenance();
+            // 只删除最旧的空段时，每个段都还有 kept 的记录，一个都删不掉
+            Assertions.assertTrue(chatMemory.getSegmentCount() * 3 < segmentsBefore,
+                    segmentsBefore + " -> " + chatMemory.getSegmentCount());
+            assertKeptMessagesInOrder(chatMemory);
+        }
+
+        // 重启后按搬移完成记录重建，消息不重复、不乱序
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 4096)) {
+            assertKeptMessagesInOrder(chatMemory);
+            Assertions.assertTrue(chatMemory.get("temp-0", 10).isEmpty());
+        }
+    }
+
+    @Test
+    void closedMemoryRejectsAccess() {
+        MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 4096);
+        chatMemory.add("closed", new UserMessage("消息"));
+        chatMemory.close();
+        // 重复关闭无影响，关闭后映射已释放，不能再读写
+        chatMemory.close();
+        Assertions.assertThrows(IllegalStateException.class, () -> chatMemory.get("closed", 10));
+        Assertions.assertThrows(IllegalStateException.class, () -> chatMemory.add("closed", new UserMessage("消息")));
+    }
+
+    private void assertKeptMessagesInOrder(MappedChatMemory chatMemory) {
+        List<Message> kept = chatMemory.get("kept", 1000);
+        Assertions.assertEquals(200, kept.size());
+        for (int i = 0; i < 200; i++) {
+            Assertions.assertEquals("保留的消息" + i, kept.get(i).getText());
+        }
+    }
+
+    @Test
+    void sameResultsAsFileBasedChatMemory() {
+        FileBasedChatMemory fileBased = new FileBasedChatMemory(tempDir.resolve("kryo").toString());
+        MappedChatMemory mapped = new MappedChatMemory(tempDir.resolve("mmap").toString());
+        try {
+            runRounds(fileBased, "bench", 100, 10);
+            runRounds(mapped, "bench", 100, 10);
+            Assertions.assertEquals(fileBased.get("bench-7", 100).stream().map(Message::getText).toList(),
+                    mapped.get("bench-7", 100).stream().map(Message::getText).toList());
+        } finally {
+            fileBased.close();
+            mapped.close();
+        }
+    }
+
+    /**
+     * 和每个会话一个 Kryo 文件的实现对比吞吐和延迟，受机器负载影响，只在 benchmark profile 下运行（mvn test -Pbenchmark）
+     */
+    @Test
+    @Tag("benchmark")
+    void throughputAgainstFileBasedChatMemory() {
+        FileBasedChatMemory fileBased = new FileBasedChatMemory(tempDir.resolve("kryo").toString());
+        MappedChatMemory mapped = new MappedChatMemory(tempDir.resolve("mmap").toString());
+        try {
+            // 预热
+            runRounds(fileBased, "warmup", 100, 5);
+            runRounds(mapped, "warmup", 100, 5);
+
+            int conversations = 200;
+            int rounds = 20;
+            Latency fileLatency = runRounds(fileBased, "bench", conversations, rounds);
+            Latency mappedLatency = runRounds(mapped, "bench", conversations, rounds);
+            for (Map.Entry<String, Latency> entry : Map.of("Kryo 文件", fileLatency, "内存映射", mappedLatency).entrySet()) {
+                Latency latency = entry.getValue();
+                log.info("{}：{} 个会话 × {} 轮，{} 轮/秒，add 平均 {} µs，get(10) 平均 {} µs",
+                        entry.getKey(), conversations, rounds,
+                        String.format("%.0f", latency.operations() * 1e9 / (latency.addNanos() + latency.getNanos())),
+                        latency.addNanos() / 1000 / latency.operations(),
+                        latency.getNanos() / 1000 / latency.operations());
+            }
+        } finally {
+            fileBased.close();
+            mapped.close();
+        }
+    }
+
+    /**
+     * 每轮对每个会话追加一条消息并读取最近 10 条
+     * @return 追加和读取的总耗时
+     */
+    private Latency runRounds(ChatMemory chatMemory, String prefix, int conversations, int rounds) {
+        long addNanos = 0;
+        long getNanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < conversations; i++) {
+                String chatId = prefix + "-" + i;
+                long t0 = System.nanoTime();
+                chatMemory.add(chatId, new UserMessage("第 " + round + " 轮：晚餐吃什么比较健康？"));
+                long t1 = System.nanoTime();
+                chatMemory.get(chatId, 10);
+                addNanos += t1 - t0;
+                getNanos += System.nanoTime() - t1;
+            }
+        }
+        return new Latency((long) conversations * rounds, addNanos, getNanos);
+    }
+
+    private record Latency(long operations, long addNanos, long getNanos) {
+    }
+}
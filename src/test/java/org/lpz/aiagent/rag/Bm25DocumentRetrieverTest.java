@@ -0,0 +1,48 @@
+package org.lpz.aiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.util.List;
+import java.util.Map;
+
+class Bm25DocumentRetrieverTest {
+
+    private final Bm25DocumentRetriever retriever = Bm25DocumentRetriever.builder()
+            .documents(List.of(
+                    new Document("减肥进入平台期，体重连续两周不下降，可以调整训练方式和热量摄入。", Map.of("status", "减重")),
+                    new Document("维持体重时每周称重一次即可，不必每天计算热量。", Map.of("status", "维持")),
+                    new Document("增肌期间要保证蛋白质摄入，比如鸡胸肉、鸡蛋和牛奶。", Map.of("status", "增肌")),
+                    new Document("聚餐时可以选择清蒸鱼、白灼虾等低脂菜品。", Map.of("status", "维持"))))
+            .topK(2)
+            .build();
+
+    @Test
+    void tokenizeChineseAndAscii() {
+        Assertions.assertEquals(List.of("平台", "台期", "bmi", "24"), ChineseTokenizer.tokenize("平台期？BMI 24"));
+        Assertions.assertEquals(List.of("鱼"), ChineseTokenizer.tokenize("鱼"));
+    }
+
+    @Test
+    void exactTermsRankFirst() {
+        List<Document> results = retriever.retrieve(new Query("到了平台期怎么办"));
+        Assertions.assertFalse(results.isEmpty());
+        Assertions.assertTrue(results.get(0).getText().contains("平台期"));
+
+        results = retriever.retrieve(new Query("鸡胸肉"));
+        Assertions.assertEquals(1, results.size());
+        Assertions.assertTrue(results.get(0).getText().contains("鸡胸肉"));
+        Assertions.assertTrue(retriever.retrieve(new Query("股票基金")).isEmpty());
+    }
+
+    @Test
+    void filterSharesIndex() {
+        Bm25DocumentRetriever maintain = retriever.with(5, new FilterExpressionBuilder().eq("status", "维持").build());
+        List<Document> results = maintain.retrieve(new Query("热量"));
+        Assertions.assertEquals(1, results.size());
+        Assertions.assertEquals("维持", results.get(0).getMetadata().get("status"));
+    }
+}
@@ -0,0 +1,156 @@
+package org.lpz.aiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CachingVectorStoreTest {
+
+    /**
+     * 按文本前两个字符生成向量的假模型，统计单条文本的向量化次数
+     */
+    static class CountingEmbeddingModel implements EmbeddingModel {
+
+        final AtomicInteger embedCalls = new AtomicInteger();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(vector(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(String text) {
+            embedCalls.incrementAndGet();
+            return vector(text);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return 3;
+        }
+
+        private static float[] vector(String text) {
+            String key = text.strip().toLowerCase();
+            return new float[]{key.charAt(0) % 7 + 1, key.length() > 1 ? key.charAt(1) % 5 + 1 : 1, 1};
+        }
+    }
+
+    /**
+     * 统计检索次数的向量库
+     */
+    static class CountingVectorStore implements VectorStore {
+
+        final VectorStore delegate;
+
+        final AtomicInteger searches = new AtomicInteger();
+
+        CountingVectorStore(VectorStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void add(List<Document> documents) {
+            delegate.add(documents);
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+            delegate.delete(idList);
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+            delegate.delete(filterExpression);
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            searches.incrementAndGet();
+            return delegate.similaritySearch(request);
+        }
+
+        @Override
+        public <T> Optional<T> getNativeClient() {
+            return Optional.empty();
+        }
+    }
+
+    private final CountingEmbeddingModel model = new CountingEmbeddingModel();
+
+    private CountingVectorStore store;
+
+    private CachingVectorStore create(Duration ttl) {
+        RetrievalCache cache = new RetrievalCache(100, 100, ttl);
+        EmbeddingModel cachingModel = new CachingEmbeddingModel(model, cache);
+        store = new CountingVectorStore(SimpleVectorStore.builder(cachingModel).build());
+        return new CachingVectorStore(store, cachingModel, cache);
+    }
+
+    @Test
+    void repeatedAndNormalizedQueriesHitCache() {
+        CachingVectorStore vectorStore = create(Duration.ofMinutes(10));
+        vectorStore.add(List.of(new Document("ab"), new Document("cd")));
+
+        List<Document> first = vectorStore.similaritySearch(SearchRequest.builder().query("ab").topK(1).build());
+        // 只比首尾空白、大小写、全角不同的查询规范化后相同
+        List<Document> second = vectorStore.similaritySearch(SearchRequest.builder().query("  ＡＢ ").topK(1).build());
+
+        Assertions.assertEquals(first, second);
+        Assertions.assertEquals(1, model.embedCalls.get());
+        Assertions.assertEquals(1, store.searches.get());
+
+        // topK 不同是不同的检索
+        vectorStore.similaritySearch(SearchRequest.builder().query("ab").topK(2).build());
+        Assertions.assertEquals(1, model.embedCalls.get());
+        Assertions.assertEquals(2, store.searches.get());
+    }
+
+    @Test
+    void writesInvalidateResults() {
+        CachingVectorStore vectorStore = create(Duration.ofMinutes(10));
+        vectorStore.add(List.of(new Document("cd")));
+        SearchRequest request = SearchRequest.builder().query("ab").topK(2).build();
+        Assertions.assertEquals(1, vectorStore.similaritySearch(request).size());
+
+        vectorStore.add(List.of(new Document("ab")));
+        Assertions.assertEquals(2, vectorStore.similaritySearch(request).size());
+        Assertions.assertEquals(2, store.searches.get());
+        // 查询向量不受写入影响
+        Assertions.assertEquals(1, model.embedCalls.get());
+    }
+
+    @Test
+    void entriesExpireAfterTtl() throws InterruptedException {
+        CachingVectorStore vectorStore = create(Duration.ofMillis(50));
+        vectorStore.add(List.of(new Document("ab")));
+        SearchRequest request = SearchRequest.builder().query("ab").topK(1).build();
+        vectorStore.similaritySearch(request);
+        Thread.sleep(100);
+        vectorStore.similaritySearch(request);
+        Assertions.assertEquals(2, model.embedCalls.get());
+        Assertions.assertEquals(2, store.searches.get());
+    }
+}
@@ -0,0 +1,113 @@
+package org.lpz.aiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class EmbeddingSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicInteger embedCalls = new AtomicInteger();
+
+    private final AtomicInteger enrichCalls = new AtomicInteger();
+
+    @Test
+    void warmRestartMakesNoModelCalls() {
+        File file = tempDir.resolve("love-app.snapshot").toFile();
+        List<Document> documents = List.of(doc("单身如何拓展社交圈"), doc("恋爱中如何沟通"), doc("婚后如何处理婆媳关系"));
+
+        SimpleVectorStore first = buildStore(file, documents);
+        Assertions.assertEquals(3, embedCalls.get());
+        Assertions.assertEquals(3, enrichCalls.get());
+
+        embedCalls.set(0);
+        enrichCalls.set(0);
+        SimpleVectorStore second = buildStore(file, documents);
+        Assertions.assertEquals(0, embedCalls.get());
+        Assertions.assertEquals(0, enrichCalls.get());
+        // 同样的内容得到同样的 id 和关键词
+        Assertions.assertEquals(ids(first), ids(second));
+        Document hit = second.similaritySearch(SearchRequest.builder().query("x").topK(3).build()).get(0);
+        Assertions.assertNotNull(hit.getMetadata().get("excerpt_keywords"));
+    }
+
+    @Test
+    void onlyChangedDocumentsAreReprocessed() {
+        File file = tempDir.resolve("love-app.snapshot").toFile();
+        buildStore(file, List.of(doc("单身如何拓展社交圈"), doc("恋爱中如何沟通")));
+
+        embedCalls.set(0);
+        enrichCalls.set(0);
+        buildStore(file, List.of(doc("单身如何拓展社交圈"), doc("恋爱中如何有效沟通")));
+        Assertions.assertEquals(1, embedCalls.get());
+        Assertions.assertEquals(1, enrichCalls.get());
+    }
+
+    private SimpleVectorStore buildStore(File file, List<Document> documents) {
+        EmbeddingSnapshot snapshot = EmbeddingSnapshot.load(file);
+        SimpleVectorStore store = SimpleVectorStore.builder(new SnapshotEmbeddingModel(new FakeEmbeddingModel(), snapshot)).build();
+        store.add(snapshot.enrich(documents, this::fakeEnrich));
+        snapshot.save();
+        return store;
+    }
+
+    private List<Document> fakeEnrich(List<Document> documents) {
+        for (Document document : documents) {
+            enrichCalls.incrementAndGet();
+            document.getMetadata().put("excerpt_keywords", "关键词:" + document.getText().length());
+        }
+        return documents;
+    }
+
+    private Document doc(String text) {
+        return new Document(text, Map.of("filename", "恋爱常见问题和回答 - 单身篇.md", "status", "单身"));
+    }
+
+    private List<String> ids(SimpleVectorStore store) {
+        List<String> ids = new ArrayList<>();
+        store.similaritySearch(SearchRequest.builder().query("x").topK(10).build()).forEach(d -> ids.add(d.getId()));
+        ids.sort(null);
+        return ids;
+    }
+
+    /**
+     * 按文本长度生成向量的假模型，统计文档向量化的调用次数
+     */
+    private class FakeEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(vector(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            embedCalls.incrementAndGet();
+            return vector(document.getText());
+        }
+
+        private float[] vector(String text) {
+            return new float[]{text.length(), text.hashCode() % 100, 1};
+        }
+    }
+}
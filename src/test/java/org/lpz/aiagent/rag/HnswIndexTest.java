@@ -0,0 +1,177 @@
+package org.lpz.aiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+@Slf4j
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 64;
+
+    @Test
+    void recallAgainstBruteForce() {
+        Random random = new Random(7);
+        HnswIndex index = buildIndex(random, 10000);
+        float[][] queryVectors = randomVectors(random, 200);
+        List<Set<Integer>> expected = exactNeighbors(index, queryVectors, 10);
+
+        double low = recall(index, queryVectors, expected, 10, 16);
+        double high = recall(index, queryVectors, expected, 10, 128);
+        Assertions.assertTrue(high >= 0.9, "recall " + high);
+        // 搜索宽度越大，召回越高
+        Assertions.assertTrue(high >= low, low + " vs " + high);
+    }
+
+    /**
+     * 建图和查询耗时（与机器相关，只输出不断言），通过 -Pbenchmark 运行
+     */
+    @Test
+    @Tag("benchmark")
+    void latencyAgainstBruteForce() {
+        Random random = new Random(7);
+        int queries = 200;
+        int k = 10;
+        long start = System.nanoTime();
+        HnswIndex index = buildIndex(random, 10000);
+        long buildMillis = (System.nanoTime() - start) / 1_000_000;
+        float[][] queryVectors = randomVectors(random, queries);
+
+        // 第一轮预热
+        List<Set<Integer>> expected = exactNeighbors(index, queryVectors, k);
+        long t0 = System.nanoTime();
+        exactNeighbors(index, queryVectors, k);
+        long exactNanos = System.nanoTime() - t0;
+        log.info("HNSW {} 个 {} 维向量：建图 {} ms，暴力扫描平均 {} µs",
+                index.size(), DIMENSIONS, buildMillis, exactNanos / 1000 / queries);
+
+        for (int ef : new int[]{16, 64, 128}) {
+            recall(index, queryVectors, expected, k, ef);
+            long t1 = System.nanoTime();
+            double recall = recall(index, queryVectors, expected, k, ef);
+            long hnswNanos = System.nanoTime() - t1;
+            log.info("efSearch={}：recall@{} = {}，平均查询 {} µs",
+                    ef, k, String.format("%.3f", recall), hnswNanos / 1000 / queries);
+        }
+    }
+
+    private HnswIndex buildIndex(Random random, int count) {
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 100);
+        for (int i = 0; i < count; i++) {
+            index.add(randomVector(random));
+        }
+        return index;
+    }
+
+    private float[][] randomVectors(Random random, int count) {
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            vectors[i] = randomVector(random);
+        }
+        return vectors;
+    }
+
+    private List<Set<Integer>> exactNeighbors(HnswIndex index, float[][] queryVectors, int k) {
+        List<Set<Integer>> expected = new ArrayList<>();
+        for (float[] query : queryVectors) {
+            Set<Integer> nodes = new HashSet<>();
+            index.exactSearch(query, k, null).forEach(neighbor -> nodes.add(neighbor.node()));
+            expected.add(nodes);
+        }
+        return expected;
+    }
+
+    private double recall(HnswIndex index, float[][] queryVectors, List<Set<Integer>> expected, int k, int ef) {
+        int hits = 0;
+        for (int i = 0; i < queryVectors.length; i++) {
+            for (HnswIndex.Neighbor neighbor : index.search(queryVectors[i], k, ef, null)) {
+                if (expected.get(i).contains(neighbor.node())) {
+                    hits++;
+                }
+            }
+        }
+        return (double) hits / (queryVectors.length * k);
+    }
+
+    @Test
+    void filterAndDeleteAreRespected() {
+        Random random = new Random(11);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 8, 100);
+        for (int i = 0; i < 2000; i++) {
+            index.add(randomVector(random));
+        }
+        float[] query = randomVector(random);
+        int nearest = index.exactSearch(query, 1, null).get(0).node();
+        index.delete(nearest);
+
+        List<HnswIndex.Neighbor> results = index.search(query, 10, 50, node -> node % 5 == 0);
+        Assertions.assertEquals(10, results.size());
+        for (HnswIndex.Neighbor neighbor : results) {
+            Assertions.assertEquals(0, neighbor.node() % 5);
+            Assertions.assertNotEquals(nearest, neighbor.node());
+        }
+        // 只有极少数节点满足条件时也能找到
+        Assertions.assertEquals(List.of(1234), index.search(query, 3, 10, node -> node == 1234)
+                .stream().map(HnswIndex.Neighbor::node).toList());
+    }
+
+    @Test
+    void writeAndReadProduceSameResults() throws IOException {
+        for (HnswIndex.Quantization quantization : HnswIndex.Quantization.values()) {
+            Random random = new Random(3);
+            try (HnswIndex index = new HnswIndex(DIMENSIONS, 8, 100, quantization, true)) {
+                for (int i = 0; i < 1000; i++) {
+                    index.add(randomVector(random));
+                }
+                index.delete(10);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (DataOutputStream out = new DataOutputStream(bytes)) {
+                    index.writeTo(out);
+                }
+                try (HnswIndex loaded = HnswIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())))) {
+                    Assertions.assertEquals(index.size(), loaded.size());
+                    Assertions.assertEquals(quantization, loaded.quantization());
+                    Assertions.assertTrue(loaded.isDeleted(10));
+                    for (int i = 0; i < 20; i++) {
+                        float[] query = randomVector(random);
+                        Assertions.assertEquals(index.search(query, 5, 32, null), loaded.search(query, 5, 32, null));
+                    }
+                }
+            }
+        }
+    }
+
+    private float[][] centers;
+
+    /**
+     * 在若干个主题中心附近生成向量，比各向同性的随机向量更接近真实的文本向量分布
+     */
+    private float[] randomVector(Random random) {
+        if (centers == null) {
+            centers = new float[32][DIMENSIONS];
+            for (float[] center : centers) {
+                for (int i = 0; i < DIMENSIONS; i++) {
+                    center[i] = (float) random.nextGaussian();
+                }
+            }
+        }
+        float[] center = centers[random.nextInt(centers.length)];
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = center[i] + (float) random.nextGaussian() * 0.5f;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,208 @@
+package org.lpz.aiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+class HnswVectorStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void statusFilterAndDelete() {
+        HnswVectorStore vectorStore = HnswVectorStore.builder(new FakeEmbeddingModel()).m(4).build();
+        vectorStore.add(documents());
+
+        SearchRequest request = SearchRequest.builder()
+                .query("如何沟通")
+                .topK(3)
+                .filterExpression(new FilterExpressionBuilder().eq("status", "已婚").build())
+                .build();
+        List<Document> results = vectorStore.similaritySearch(request);
+        Assertions.assertFalse(results.isEmpty());
+        results.forEach(document -> Assertions.assertEquals("已婚", document.getMetadata().get("status")));
+
+        vectorStore.delete(new FilterExpressionBuilder().eq("status", "已婚").build());
+        Assertions.assertTrue(vectorStore.similaritySearch(request).isEmpty());
+        Assertions.assertEquals(4, vectorStore.getIds().size());
+    }
+
+    @Test
+    void saveAndLoad() {
+        File file = tempDir.resolve("love-app.hnsw").toFile();
+        HnswVectorStore vectorStore = HnswVectorStore.builder(new FakeEmbeddingModel()).build();
+        vectorStore.add(documents());
+        vectorStore.delete(List.of("1"));
+        vectorStore.save(file);
+
+        HnswVectorStore loaded = HnswVectorStore.load(file, HnswVectorStore.builder(new FakeEmbeddingModel()));
+        Assertions.assertNotNull(loaded);
+        Assertions.assertEquals(vectorStore.getIds(), loaded.getIds());
+        Assertions.assertEquals(vectorStore.documentHashes(), loaded.documentHashes());
+        SearchRequest request = SearchRequest.builder().query("异地恋").topK(2).build();
+        Assertions.assertEquals(
+                vectorStore.similaritySearch(request).stream().map(Document::getId).toList(),
+                loaded.similaritySearch(request).stream().map(Document::getId).toList());
+    }
+
+    @Test
+    void quantizedModesAgainstSimpleVectorStore() {
+        // 1536 维、按状态过滤，对比各种存储方式和 SimpleVectorStore（暴力扫描）的 top 5
+        int dimensions = 1536;
+        int count = 1000;
+        int queries = 50;
+        String[] statuses = {"单身", "恋爱", "已婚"};
+        Random random = new Random(5);
+        float[][] centers = new float[16][dimensions];
+        for (float[] center : centers) {
+            for (int i = 0; i < dimensions; i++) {
+                center[i] = (float) random.nextGaussian();
+            }
+        }
+        Map<String, float[]> vectors = new HashMap<>();
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < count + queries; i++) {
+            float[] center = centers[random.nextInt(centers.length)];
+            float[] vector = new float[dimensions];
+            for (int j = 0; j < dimensions; j++) {
+                vector[j] = center[j] + (float) random.nextGaussian();
+            }
+            vectors.put("text-" + i, vector);
+            if (i < count) {
+                documents.add(new Document(String.valueOf(i), "text-" + i, Map.of("status", statuses[i % 3])));
+            }
+        }
+        EmbeddingModel embeddingModel = new MapEmbeddingModel(vectors);
+        SimpleVectorStore simpleVectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        simpleVectorStore.add(documents);
+
+        Object[][] modes = {
+                {HnswIndex.Quantization.NONE, false},
+                {HnswIndex.Quantization.INT8, false},
+                {HnswIndex.Quantization.INT8, true},
+                {HnswIndex.Quantization.BINARY, true}};
+        for (Object[] mode : modes) {
+            HnswIndex.Quantization quantization = (HnswIndex.Quantization) mode[0];
+            boolean rerank = (boolean) mode[1];
+            try (HnswVectorStore vectorStore = HnswVectorStore.builder(embeddingModel)
+                    .m(8).efConstruction(64).efSearch(64)
+                    .quantization(quantization).rerank(rerank).build()) {
+                vectorStore.add(documents);
+                int hits = 0;
+                for (int q = 0; q < queries; q++) {
+                    SearchRequest request = SearchRequest.builder()
+                            .query("text-" + (count + q))
+                            .topK(5)
+                            .similarityThresholdAll()
+                            .filterExpression(new FilterExpressionBuilder().eq("status", statuses[q % 3]).build())
+                            .build();
+                    Set<String> expected = new HashSet<>();
+                    simpleVectorStore.similaritySearch(request).forEach(document -> expected.add(document.getId()));
+                    for (Document document : vectorStore.similaritySearch(request)) {
+                        Assertions.assertEquals(statuses[q % 3], document.getMetadata().get("status"));
+                        if (expected.contains(document.getId())) {
+                            hits++;
+                        }
+                    }
+                }
+                double recall = (double) hits / (queries * 5);
+                // 每个文档向量占用的堆内存：float 4 字节/维，INT8 1 字节/维 + 缩放系数，BINARY 1 位/维
+                long expectedBytes = switch (quantization) {
+                    case NONE -> dimensions * Float.BYTES;
+                    case INT8 -> dimensions + Float.BYTES;
+                    case BINARY -> dimensions / Byte.SIZE;
+                };
+                Assertions.assertEquals(expectedBytes, vectorStore.getVectorHeapBytes() / count);
+                if (quantization != HnswIndex.Quantization.BINARY || rerank) {
+                    Assertions.assertTrue(recall >= 0.9, quantization + " recall " + recall);
+                }
+            }
+        }
+    }
+
+    private List<Document> documents() {
+        return List.of(
+                new Document("1", "单身如何拓展社交圈", Map.of("status", "单身")),
+                new Document("2", "第一次约会去哪里", Map.of("status", "单身")),
+                new Document("3", "恋爱中如何沟通", Map.of("status", "恋爱")),
+                new Document("4", "异地恋如何维持", Map.of("status", "恋爱")),
+                new Document("5", "婚后如何沟通家务分工", Map.of("status", "已婚")),
+                new Document("6", "婚后如何处理婆媳关系", Map.of("status", "已婚")));
+    }
+
+    /**
+     * 按文本查表返回向量的假模型
+     */
+    private static class MapEmbeddingModel implements EmbeddingModel {
+
+        private final Map<String, float[]> vectors;
+
+        MapEmbeddingModel(Map<String, float[]> vectors) {
+            this.vectors = vectors;
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(vectors.get(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vectors.get(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return vectors.values().iterator().next().length;
+        }
+    }
+
+    /**
+     * 按字符生成向量的假模型，包含相同汉字越多越相似
+     */
+    private static class FakeEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(vector(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        private float[] vector(String text) {
+            float[] vector = new float[32];
+            text.chars().forEach(c -> vector[c % 32] += 1);
+            return vector;
+        }
+    }
+}
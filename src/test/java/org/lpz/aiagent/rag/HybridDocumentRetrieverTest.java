@@ -0,0 +1,28 @@
+package org.lpz.aiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+
+import java.util.List;
+
+class HybridDocumentRetrieverTest {
+
+    @Test
+    void documentsFoundByBothRetrieversRankFirst() {
+        Document a = new Document("a");
+        Document b = new Document("b");
+        Document c = new Document("c");
+        Document d = new Document("d");
+        HybridDocumentRetriever retriever = HybridDocumentRetriever.builder()
+                .retrievers(query -> List.of(a, b, c), query -> List.of(new Document("c"), d))
+                .topK(3)
+                .build();
+
+        List<Document> results = retriever.retrieve(new Query("q"));
+        // c 在两路中都出现（第 3 名和第 1 名），得分最高；只出现一次的按排名排序，同分时保持先出现的
+        Assertions.assertEquals(List.of("c", "a", "b"), results.stream().map(Document::getText).toList());
+        Assertions.assertEquals(1.0 / 63 + 1.0 / 61, results.get(0).getScore(), 1e-9);
+    }
+}
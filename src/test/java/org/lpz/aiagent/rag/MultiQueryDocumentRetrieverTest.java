@@ -0,0 +1,62 @@
+package org.lpz.aiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class MultiQueryDocumentRetrieverTest {
+
+    private static Document doc(String id, String text) {
+        return Document.builder().id(id).text(text).build();
+    }
+
+    @Test
+    void variantsAreSearchedConcurrentlyAndDeduplicated() {
+        Map<String, List<Document>> results = Map.of(
+                "q1", List.of(doc("1", "a"), doc("2", "b")),
+                "q2", List.of(doc("2", "b"), doc("3", "c")),
+                // id 不同但正文相同，视为同一文档
+                "q3", List.of(doc("x", "b"), doc("1", "a")));
+        CountDownLatch started = new CountDownLatch(3);
+        MultiQueryDocumentRetriever retriever = MultiQueryDocumentRetriever.builder()
+                .queryExpander(query -> List.of(new Query("q1"), new Query("q2"), new Query("q3")))
+                .documentRetriever(query -> {
+                    started.countDown();
+                    try {
+                        // 串行检索时第一个变体会一直等到超时
+                        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS), "variants were not searched concurrently");
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return results.get(query.text());
+                })
+                .topK(3)
+                .build();
+
+        List<Document> documents = retriever.retrieve(new Query("q"));
+
+        Assertions.assertEquals(List.of("2", "1", "3"), documents.stream().map(Document::getId).toList());
+        // b 在三个变体中分别排第 2、1、1 名
+        Assertions.assertEquals(1.0 / 62 + 1.0 / 61 + 1.0 / 61, documents.get(0).getScore(), 1e-9);
+    }
+
+    @Test
+    void expansionFailureFallsBackToOriginalQuery() {
+        MultiQueryDocumentRetriever retriever = MultiQueryDocumentRetriever.builder()
+                .queryExpander(query -> {
+                    throw new IllegalStateException("model unavailable");
+                })
+                .documentRetriever(query -> List.of(doc("1", query.text())))
+                .build();
+
+        List<Document> documents = retriever.retrieve(new Query("原问题"));
+
+        Assertions.assertEquals("原问题", documents.get(0).getText());
+    }
+}
@@ -0,0 +1,217 @@
+package org.lpz.aiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+class PgVectorIngestionServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicInteger embedCalls = new AtomicInteger();
+
+    // 大于 0 时，向量化到第 N 个分片后模拟失败
+    private volatile int failAfter = -1;
+
+    private SimpleVectorStore vectorStore;
+
+    private Path checkpointFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        vectorStore = SimpleVectorStore.builder(new FakeEmbeddingModel()).build();
+        checkpointFile = tempDir.resolve("pgvector.checkpoint");
+        writeMarkdown("love-qa-single.md", "单身如何拓展社交圈", "如何判断对方是否喜欢自己", "第一次约会去哪里");
+        writeMarkdown("love-qa-dating.md", "恋爱中如何沟通", "异地恋如何维持");
+    }
+
+    @Test
+    void unchangedChunksAreSkipped() {
+        PgVectorIngestionService.IngestionResult first = buildService().ingest();
+        Assertions.assertEquals(5, first.added());
+        Assertions.assertEquals(5, embedCalls.get());
+        Assertions.assertEquals(5, count());
+
+        embedCalls.set(0);
+        PgVectorIngestionService.IngestionResult second = buildService().ingest();
+        Assertions.assertEquals(5, second.skipped());
+        Assertions.assertEquals(0, second.added());
+        Assertions.assertEquals(0, embedCalls.get());
+    }
+
+    @Test
+    void changedChunksReplaceOldVectors() throws IOException {
+        buildService().ingest();
+        writeMarkdown("love-qa-dating.md", "恋爱中如何有效沟通", "异地恋如何维持");
+
+        embedCalls.set(0);
+        PgVectorIngestionService.IngestionResult result = buildService().ingest();
+        Assertions.assertEquals(1, result.added());
+        Assertions.assertEquals(1, result.deleted());
+        Assertions.assertEquals(1, embedCalls.get());
+        Assertions.assertEquals(5, count());
+    }
+
+    @Test
+    void chunksMissingFromStoreAreRestored() {
+        buildService().ingest();
+        Assertions.assertFalse(Files.exists(checkpointFile));
+        // 向量表被清空后，下次导入以库中实际内容为准重新写入
+        vectorStore.delete(storedIds().stream().toList());
+
+        embedCalls.set(0);
+        PgVectorIngestionService.IngestionResult result = buildService().ingest();
+        Assertions.assertEquals(5, result.added());
+        Assertions.assertEquals(5, embedCalls.get());
+        Assertions.assertEquals(5, count());
+    }
+
+    @Test
+    void unfinishedRunResumesFromStore() throws IOException {
+        // 模拟上次导入提交了 2 个分片后崩溃：库中和检查点中都有这 2 个
+        failAfter = 2;
+        buildService().ingest();
+        Files.write(checkpointFile, storedIds());
+
+        failAfter = -1;
+        embedCalls.set(0);
+        PgVectorIngestionService.IngestionResult result = buildService().ingest();
+        Assertions.assertEquals(2, result.skipped());
+        Assertions.assertEquals(3, result.added());
+        Assertions.assertEquals(3, embedCalls.get());
+        Assertions.assertFalse(Files.exists(checkpointFile));
+    }
+
+    @Test
+    void checkpointDoesNotHideChunksMissingFromStore() throws IOException {
+        buildService().ingest();
+        // 崩溃后向量表又被清空：检查点中的分片不在库中，仍要重新写入
+        Files.write(checkpointFile, storedIds());
+        vectorStore.delete(storedIds().stream().toList());
+
+        embedCalls.set(0);
+        PgVectorIngestionService.IngestionResult result = buildService().ingest();
+        Assertions.assertEquals(5, result.added());
+        Assertions.assertEquals(5, embedCalls.get());
+        Assertions.assertEquals(5, count());
+    }
+
+    @Test
+    void oldChunksAreKeptWhenReplacementFails() throws IOException {
+        buildService().ingest();
+        writeMarkdown("love-qa-dating.md", "恋爱中如何有效沟通", "异地恋如何维持");
+
+        failAfter = 0;
+        PgVectorIngestionService.IngestionResult failedRun = buildService().ingest();
+        Assertions.assertEquals(1, failedRun.failed());
+        Assertions.assertEquals(0, failedRun.deleted());
+        // 旧分片还在，检索不缺内容
+        Assertions.assertEquals(5, count());
+
+        failAfter = -1;
+        PgVectorIngestionService.IngestionResult result = buildService().ingest();
+        Assertions.assertEquals(1, result.added());
+        Assertions.assertEquals(1, result.deleted());
+        Assertions.assertEquals(5, count());
+    }
+
+    @Test
+    void failedBatchesAreRetriedOnNextRun() {
+        failAfter = 2;
+        PgVectorIngestionService.IngestionResult first = buildService().ingest();
+        Assertions.assertTrue(first.failed() > 0);
+
+        failAfter = -1;
+        embedCalls.set(0);
+        PgVectorIngestionService.IngestionResult second = buildService().ingest();
+        // 只重做上次失败的分片
+        Assertions.assertEquals(first.failed(), second.added());
+        Assertions.assertEquals(first.failed(), embedCalls.get());
+        Assertions.assertEquals(5, count());
+    }
+
+    private PgVectorIngestionService buildService() {
+        LoveAppDocumentLoader loader = new LoveAppDocumentLoader(new PathMatchingResourcePatternResolver() {
+            @Override
+            public Resource[] getResources(String locationPattern) throws IOException {
+                try (var files = Files.list(tempDir)) {
+                    return files.filter(path -> path.toString().endsWith(".md"))
+                            .sorted()
+                            .map(FileSystemResource::new)
+                            .toArray(Resource[]::new);
+                }
+            }
+        });
+        // 每批 1 个分片，便于模拟部分批次失败
+        return new PgVectorIngestionService(vectorStore, this::storedIds, loader, 1, 1, 1000,
+                checkpointFile.toString());
+    }
+
+    /**
+     * 代替数据库查询：库中本服务写入过的分片 id
+     */
+    private Set<String> storedIds() {
+        return vectorStore.similaritySearch(SearchRequest.builder().query("x").topK(100).build()).stream()
+                .filter(document -> "love-app".equals(document.getMetadata().get("ingest_source")))
+                .map(Document::getId)
+                .collect(Collectors.toSet());
+    }
+
+    private void writeMarkdown(String fileName, String... sections) throws IOException {
+        StringBuilder markdown = new StringBuilder();
+        for (String section : sections) {
+            markdown.append("#### ").append(section).append("\n\n").append(section).append("的回答\n\n---\n\n");
+        }
+        Files.writeString(tempDir.resolve(fileName), markdown);
+    }
+
+    private int count() {
+        return vectorStore.similaritySearch(SearchRequest.builder().query("x").topK(100).build()).size();
+    }
+
+    private class FakeEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(vector(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            if (failAfter >= 0 && embedCalls.get() >= failAfter) {
+                throw new IllegalStateException("rate limited");
+            }
+            embedCalls.incrementAndGet();
+            return vector(document.getText());
+        }
+
+        private float[] vector(String text) {
+            return new float[]{text.length(), Math.abs(text.hashCode() % 100), 1};
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.lpz.aiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class QueryRewriterTest {
+
+    private static final String LONG_QUERY = "我和女朋友吵架了，她三天没理我，我应该怎么办才能让她原谅我呢";
+
+    @Test
+    void shortAndWellFormedQueriesAreNotRewritten() {
+        AtomicInteger calls = new AtomicInteger();
+        QueryRewriter rewriter = new QueryRewriter((QueryTransformer) query -> {
+            calls.incrementAndGet();
+            return new Query("重写");
+        }, 10, Duration.ofMinutes(1), Duration.ZERO, 8, 30);
+
+        Assertions.assertEquals("怎么挽回前任", rewriter.doQueryRewriter("怎么挽回前任"));
+        Assertions.assertEquals("第一次约会应该去哪里比较合适呢？", rewriter.doQueryRewriter("第一次约会应该去哪里比较合适呢？"));
+        Assertions.assertEquals(0, calls.get());
+        Assertions.assertEquals("重写", rewriter.doQueryRewriter(LONG_QUERY));
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    void repeatedQueriesUseCache() {
+        AtomicInteger calls = new AtomicInteger();
+        QueryRewriter rewriter = new QueryRewriter((QueryTransformer) query -> new Query("重写" + calls.incrementAndGet()),
+                10, Duration.ofMinutes(1), Duration.ZERO, 8, 30);
+
+        Assertions.assertEquals("重写1", rewriter.doQueryRewriter(LONG_QUERY));
+        Assertions.assertEquals("重写1", rewriter.doQueryRewriter("  " + LONG_QUERY + " "));
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    void slowRewriteFallsBackToOriginalAndIsCachedLater() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        QueryRewriter rewriter = new QueryRewriter((QueryTransformer) query -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+            return new Query("重写");
+        }, 10, Duration.ofMinutes(1), Duration.ofMillis(50), 8, 30);
+
+        Assertions.assertEquals(LONG_QUERY, rewriter.doQueryRewriter(LONG_QUERY));
+        release.countDown();
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        // 等待 whenComplete 写入缓存
+        for (int i = 0; i < 50 && !"重写".equals(rewriter.doQueryRewriter(LONG_QUERY)); i++) {
+            Thread.sleep(20);
+        }
+        Assertions.assertEquals("重写", rewriter.doQueryRewriter(LONG_QUERY));
+    }
+}
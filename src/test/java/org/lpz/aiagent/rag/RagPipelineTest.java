@@ -0,0 +1,57 @@
+package org.lpz.aiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class RagPipelineTest {
+
+    /**
+     * 等待另一个并行任务开始，串行执行时会超时
+     */
+    private static void awaitOther(CountDownLatch latch) {
+        latch.countDown();
+        try {
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS), "stages did not run concurrently");
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void rewriteAndHistoryRunConcurrently() {
+        CountDownLatch started = new CountDownLatch(2);
+        InMemoryChatMemory chatMemory = new InMemoryChatMemory() {
+            @Override
+            public List<Message> get(String conversationId, int lastN) {
+                awaitOther(started);
+                return super.get(conversationId, lastN);
+            }
+        };
+        chatMemory.add("c1", new UserMessage("上一轮"));
+        RagPipeline pipeline = RagPipeline.builder()
+                .queryRewriter(message -> {
+                    awaitOther(started);
+                    return "重写后的问题";
+                })
+                .chatMemory(chatMemory)
+                .documentRetriever(query -> List.of(new Document("关于" + query.text())))
+                .build();
+
+        RagPipeline.Prepared prepared = pipeline.prepare("原问题", "c1", 10);
+
+        Assertions.assertEquals("重写后的问题", prepared.query());
+        Assertions.assertEquals(1, prepared.history().size());
+        Assertions.assertEquals("关于重写后的问题", prepared.documents().get(0).getText());
+        Assertions.assertTrue(prepared.augmentedQuery().contains("关于重写后的问题"));
+        Assertions.assertTrue(prepared.timings().asMap().keySet()
+                .containsAll(List.of("rewrite", "history", "retrieval", "augment", "prepare")));
+    }
+}
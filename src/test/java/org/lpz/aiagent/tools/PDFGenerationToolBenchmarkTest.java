@@ -0,0 +1,171 @@
+package org.lpz.aiagent.tools;
+
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfTextExtractor;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.Paragraph;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.lpz.aiagent.utils.FontProgramPool;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * PDF 生成的耗时和内存分配对比：每个文档重新解析字体、按路径创建字体（改动前，依赖 iText 全局缓存）、
+ * 从字体程序池借用（改动后）
+ * 需要本地有 TrueType 字体，默认用 SimSun.ttf，没有时用系统的 DejaVuSans.ttf，都没有则跳过
+ */
+@Slf4j
+class PDFGenerationToolBenchmarkTest {
+
+    private static final int WARMUP = 5;
+
+    private static final int ITERATIONS = 20;
+
+    private static final String CONTENT = "Love is patient, love is kind. ".repeat(40);
+
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @TempDir
+    Path tempDir;
+
+    private String fontPath;
+
+    @BeforeEach
+    void findFont() {
+        for (String candidate : new String[]{"src/main/resources/" + FontProgramPool.DEFAULT_FONT,
+                "/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf"}) {
+            if (Files.isRegularFile(Paths.get(candidate))) {
+                fontPath = Paths.get(candidate).toAbsolutePath().toString();
+                return;
+            }
+        }
+        Assumptions.abort("no TrueType font available");
+    }
+
+    @Test
+    void pooledFontProgramAvoidsReparsing() throws IOException {
+        Stats reparse = measure(this::generateReparsed);
+        Stats pooled = measure(pooledGenerator());
+
+        // 分配量和文件大小是确定的，计时只在 benchmark 中对比
+        Assertions.assertTrue(pooled.allocatedBytes() < reparse.allocatedBytes());
+        // 只嵌入用到的字形，文件远小于字体本身
+        Assertions.assertTrue(pooled.fileBytes() < Files.size(Paths.get(fontPath)) / 4);
+    }
+
+    /**
+     * 耗时对比，受机器负载影响，只在 benchmark profile 下运行（mvn test -Pbenchmark）
+     */
+    @Test
+    @Tag("benchmark")
+    void pooledFontProgramIsFaster() throws IOException {
+        Stats reparse = measure(this::generateReparsed);
+        // 改动前的写法：按路径创建字体，依赖 iText 全局字体缓存（同一个实例被所有文档共用）
+        Stats pathCache = measure(file -> generateWithFont(file,
+                PdfFontFactory.createFont(fontPath, PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED)));
+        Stats pooled = measure(pooledGenerator());
+        log.info("PDF 生成（字体 {}，{} KB）：每次解析 {}；路径缓存 {}；字体池 {}",
+                Paths.get(fontPath).getFileName(), Files.size(Paths.get(fontPath)) / 1024, reparse, pathCache, pooled);
+
+        Assertions.assertTrue(pooled.millis() < reparse.millis());
+    }
+
+    @Test
+    void concurrentGenerationProducesValidPdfs() throws Exception {
+        PDFGenerationTool tool = new PDFGenerationTool(new FontProgramPool(fontPath, 2));
+        List<Future<?>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 16; i++) {
+                String file = tempDir.resolve("concurrent-" + i + ".pdf").toString();
+                futures.add(executor.submit(() -> {
+                    tool.generatePDFFile(file, CONTENT);
+                    return null;
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        for (int i = 0; i < 16; i++) {
+            try (PdfDocument pdf = new PdfDocument(new PdfReader(tempDir.resolve("concurrent-" + i + ".pdf").toString()))) {
+                Assertions.assertTrue(PdfTextExtractor.getTextFromPage(pdf.getFirstPage()).contains("Love is patient"));
+            }
+        }
+    }
+
+    /**
+     * 每个文档都重新解析字体（不走任何缓存）
+     */
+    private void generateReparsed(String filePath) throws IOException {
+        generateWithFont(filePath, PdfFontFactory.createFont(FontProgramFactory.createFont(fontPath, false),
+                PdfEncodings.IDENTITY_H, PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED));
+    }
+
+    /**
+     * 改动后：从字体程序池借用
+     */
+    private PdfGenerator pooledGenerator() {
+        PDFGenerationTool tool = new PDFGenerationTool(new FontProgramPool(fontPath, 2));
+        return file -> tool.generatePDFFile(file, CONTENT);
+    }
+
+    private static void generateWithFont(String filePath, PdfFont font) throws IOException {
+        try (PdfWriter writer = new PdfWriter(filePath);
+             PdfDocument pdf = new PdfDocument(writer);
+             Document document = new Document(pdf)) {
+            document.setFont(font);
+            document.add(new Paragraph(CONTENT));
+        }
+    }
+
+    private Stats measure(PdfGenerator generator) throws IOException {
+        String file = tempDir.resolve("bench.pdf").toString();
+        for (int i = 0; i < WARMUP; i++) {
+            generator.generate(file);
+        }
+        long threadId = Thread.currentThread().threadId();
+        long allocatedStart = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            generator.generate(file);
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+        long allocated = (threadMXBean.getThreadAllocatedBytes(threadId) - allocatedStart) / ITERATIONS;
+        return new Stats(millis, allocated, Files.size(Paths.get(file)));
+    }
+
+    private record Stats(double millis, long allocatedBytes, long fileBytes) {
+
+        @Override
+        public String toString() {
+            return String.format("%.2f ms, %d KB allocated, %d KB file", millis, allocatedBytes / 1024, fileBytes / 1024);
+        }
+    }
+
+    @FunctionalInterface
+    private interface PdfGenerator {
+        void generate(String filePath) throws IOException;
+    }
+}
@@ -0,0 +1,106 @@
+package org.lpz.aiagent.tools;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lpz.aiagent.utils.ToolHttpClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class WebSearchToolCacheTest {
+
+    private HttpServer server;
+
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+
+    private WebSearchTool webSearchTool;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/search", exchange -> {
+            upstreamCalls.incrementAndGet();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"organic_results\":[{\"title\":\"结果\",\"link\":\"https://example.com\"}]}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        ToolHttpClient httpClient = new ToolHttpClient("test", Duration.ofSeconds(2), Duration.ofSeconds(5), 8);
+        webSearchTool = new WebSearchTool("key", httpClient,
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/search");
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void concurrentIdenticalQueriesShareOneUpstreamCall() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                String query = i % 2 == 0 ? "恋爱技巧" : "  恋爱技巧 ";
+                futures.add(executor.submit(() -> webSearchTool.searchWeb(query)));
+            }
+            for (Future<String> future : futures) {
+                Assertions.assertTrue(future.get().contains("结果"));
+            }
+        }
+        // 之后的相同查询命中缓存
+        webSearchTool.searchWeb("恋爱技巧");
+        Assertions.assertEquals(1, upstreamCalls.get());
+    }
+
+    @Test
+    void quotaIsTrackedPerRun() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> first = executor.submit(() -> runWithQuota(2, "a", "b", "c"));
+            Future<String> second = executor.submit(() -> runWithQuota(2, "d", "e"));
+            Assertions.assertTrue(first.get().contains("搜索次数已达到限制"));
+            Assertions.assertFalse(second.get().contains("搜索次数已达到限制"));
+        }
+        Assertions.assertNull(SearchQuota.current());
+    }
+
+    private String runWithQuota(int maxCalls, String... queries) throws Exception {
+        SearchQuota.begin(maxCalls);
+        try {
+            StringBuilder results = new StringBuilder();
+            // 模拟并行工具执行器：子线程继承本次运行的配额
+            try (ExecutorService toolExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().factory())) {
+                List<Future<String>> futures = new ArrayList<>();
+                for (String query : queries) {
+                    futures.add(toolExecutor.submit(() -> webSearchTool.searchWeb(query)));
+                }
+                for (Future<String> future : futures) {
+                    results.append(future.get()).append('\n');
+                }
+            }
+            return results.toString();
+        } finally {
+            SearchQuota.end();
+        }
+    }
+}
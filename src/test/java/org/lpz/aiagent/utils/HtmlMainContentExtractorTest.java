@@ -0,0 +1,63 @@
+package org.lpz.aiagent.utils;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class HtmlMainContentExtractorTest {
+
+    private static final String PARAGRAPH = "恋爱中最重要的是沟通，双方需要坦诚表达自己的想法和感受。".repeat(5);
+
+    @Test
+    void extractKeepsMainContentAndDropsNoise() {
+        String html = """
+                <html><head><title>恋爱技巧</title><style>body{color:red}</style></head>
+                <body>
+                <nav><a href="/home">首页</a> 导航菜单</nav>
+                <script>var tracking = 1;</script>
+                <article>
+                  <h1>如何经营一段感情</h1>
+                  <p>%s</p>
+                  <h2>学会倾听</h2>
+                  <ul><li>不要打断对方</li><li>给出回应</li></ul>
+                  <p>更多内容见 <a href="/tips">相关文章</a></p>
+                </article>
+                <footer>版权所有</footer>
+                </body></html>
+                """.formatted(PARAGRAPH);
+        Document document = Jsoup.parse(html, "https://example.com/post");
+        String content = HtmlMainContentExtractor.extract(document, 8000);
+        Assertions.assertTrue(content.startsWith("标题: 恋爱技巧"));
+        Assertions.assertTrue(content.contains("# 如何经营一段感情"));
+        Assertions.assertTrue(content.contains("## 学会倾听"));
+        Assertions.assertTrue(content.contains("- 不要打断对方"));
+        Assertions.assertTrue(content.contains(PARAGRAPH));
+        Assertions.assertTrue(content.contains("相关文章: https://example.com/tips"));
+        Assertions.assertFalse(content.contains("导航菜单"));
+        Assertions.assertFalse(content.contains("tracking"));
+        Assertions.assertFalse(content.contains("color:red"));
+        Assertions.assertFalse(content.contains("版权所有"));
+    }
+
+    @Test
+    void extractFallsBackToDensestTextBlock() {
+        String html = """
+                <html><body>
+                <div class="sidebar"><p>广告</p></div>
+                <div class="body"><p>%s</p><p>%s</p></div>
+                </body></html>
+                """.formatted(PARAGRAPH, PARAGRAPH);
+        String content = HtmlMainContentExtractor.extract(Jsoup.parse(html), 8000);
+        Assertions.assertTrue(content.contains(PARAGRAPH));
+        Assertions.assertFalse(content.contains("广告"));
+    }
+
+    @Test
+    void extractTruncatesToMaxChars() {
+        String html = "<html><body><article>" + ("<p>" + PARAGRAPH + "</p>").repeat(100) + "</article></body></html>";
+        String content = HtmlMainContentExtractor.extract(Jsoup.parse(html), 500);
+        Assertions.assertTrue(content.length() <= 500 + 20);
+        Assertions.assertTrue(content.endsWith("已截断）"));
+    }
+}
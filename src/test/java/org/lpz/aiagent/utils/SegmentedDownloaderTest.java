@@ -0,0 +1,152 @@
+package org.lpz.aiagent.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SegmentedDownloaderTest {
+
+    private static final int SIZE = 1000_000;
+
+    private static final int SEGMENT_SIZE = 100_000;
+
+    private final byte[] content = new byte[SIZE];
+
+    // 收到的 Range 请求头
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    // 第几个分段请求起返回 500，模拟下载中断
+    private final AtomicInteger failAfter = new AtomicInteger(Integer.MAX_VALUE);
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    private ToolHttpClient httpClient;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        new Random(42).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/file", exchange -> serve(exchange, true));
+        server.createContext("/no-range", exchange -> serve(exchange, false));
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        httpClient = new ToolHttpClient("test", Duration.ofSeconds(2), Duration.ofSeconds(5), 8);
+    }
+
+    @AfterEach
+    void stopServer() {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange, boolean rangeSupported) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        exchange.getResponseHeaders().set("ETag", "\"v1\"");
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (!rangeSupported || range == null) {
+                exchange.sendResponseHeaders(200, content.length);
+                out.write(content);
+                return;
+            }
+            ranges.add(range);
+            if (ranges.size() > failAfter.get()) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Integer.parseInt(bounds[1]);
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            out.write(content, start, end - start + 1);
+        }
+    }
+
+    @Test
+    void downloadInParallelSegments() throws IOException {
+        SegmentedDownloader downloader = new SegmentedDownloader(httpClient, 4, SEGMENT_SIZE, SIZE * 2L, 0);
+        Path target = tempDir.resolve("file.bin");
+        SegmentedDownloader.Result result = downloader.download(baseUrl + "/file", target);
+        Assertions.assertEquals(SIZE, result.size());
+        Assertions.assertEquals(10, result.segments());
+        Assertions.assertArrayEquals(content, Files.readAllBytes(target));
+        // 探测请求 + 10 个分段
+        Assertions.assertEquals(11, ranges.size());
+        Assertions.assertFalse(Files.exists(tempDir.resolve("file.bin.part")));
+        Assertions.assertFalse(Files.exists(tempDir.resolve("file.bin.part.state")));
+    }
+
+    @Test
+    void resumeSkipsCompletedSegments() throws IOException {
+        // 单线程下载，探测 + 3 个分段成功后服务器开始报错
+        SegmentedDownloader downloader = new SegmentedDownloader(httpClient, 1, SEGMENT_SIZE, SIZE * 2L, 0);
+        Path target = tempDir.resolve("file.bin");
+        failAfter.set(4);
+        Assertions.assertThrows(IOException.class, () -> downloader.download(baseUrl + "/file", target));
+        Assertions.assertTrue(Files.exists(tempDir.resolve("file.bin.part.state")));
+        Assertions.assertFalse(Files.exists(target));
+
+        ranges.clear();
+        failAfter.set(Integer.MAX_VALUE);
+        SegmentedDownloader.Result result = downloader.download(baseUrl + "/file", target);
+        Assertions.assertEquals(3, result.resumedSegments());
+        Assertions.assertArrayEquals(content, Files.readAllBytes(target));
+        // 探测 + 剩下的 7 个分段
+        Assertions.assertEquals(8, ranges.size());
+        Assertions.assertFalse(ranges.contains("bytes=0-99999"));
+    }
+
+    @Test
+    void fallBackToSingleConnectionWithoutRangeSupport() throws IOException {
+        SegmentedDownloader downloader = new SegmentedDownloader(httpClient, 4, SEGMENT_SIZE, SIZE * 2L, 0);
+        Path target = tempDir.resolve("whole.bin");
+        SegmentedDownloader.Result result = downloader.download(baseUrl + "/no-range", target);
+        Assertions.assertEquals(1, result.segments());
+        Assertions.assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    void rejectFilesOverTheSizeLimit() {
+        SegmentedDownloader downloader = new SegmentedDownloader(httpClient, 4, SEGMENT_SIZE, SIZE / 2, 0);
+        IOException segmented = Assertions.assertThrows(IOException.class,
+                () -> downloader.download(baseUrl + "/file", tempDir.resolve("a.bin")));
+        Assertions.assertTrue(segmented.getMessage().contains("exceeds the limit"));
+        IOException whole = Assertions.assertThrows(IOException.class,
+                () -> downloader.download(baseUrl + "/no-range", tempDir.resolve("b.bin")));
+        Assertions.assertTrue(whole.getMessage().contains("exceeds the limit"));
+        Assertions.assertFalse(Files.exists(tempDir.resolve("b.bin.part")));
+    }
+
+    @Test
+    void bandwidthIsCapped() throws IOException {
+        // 每秒 400KB，桶里先有 400KB，剩下 600KB 约需 1.5 秒
+        SegmentedDownloader downloader = new SegmentedDownloader(httpClient, 4, SEGMENT_SIZE, SIZE * 2L, 400_000);
+        long start = System.nanoTime();
+        downloader.download(baseUrl + "/file", tempDir.resolve("slow.bin"));
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        Assertions.assertTrue(elapsedMillis >= 1200, "elapsed " + elapsedMillis);
+        Assertions.assertArrayEquals(content, Files.readAllBytes(tempDir.resolve("slow.bin")));
+    }
+}
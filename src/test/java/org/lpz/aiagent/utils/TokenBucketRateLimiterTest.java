@@ -0,0 +1,27 @@
+package org.lpz.aiagent.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketRateLimiterTest {
+
+    @Test
+    void burstUpToCapacityThenLimited() throws InterruptedException {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(20, 5);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.acquire();
+        }
+        // 桶内的 5 个令牌立即取到
+        Assertions.assertTrue(System.nanoTime() - start < 50_000_000L);
+        Assertions.assertFalse(rateLimiter.tryAcquire(1));
+
+        start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.acquire();
+        }
+        // 之后按每秒 20 个的速率发放，10 个约 500ms
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        Assertions.assertTrue(elapsedMillis >= 400, "elapsed " + elapsedMillis);
+    }
+}
@@ -0,0 +1,170 @@
+package org.lpz.aiagent.utils;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+class ToolHttpClientTest {
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/gzip", exchange -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                gzip.write(("你好 " + exchange.getRequestURI().getQuery()).getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, bytes.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes.toByteArray());
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(Long.parseLong(exchange.getRequestURI().getQuery()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            byte[] body = "done".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/trickle", exchange -> {
+            // 先发送响应头，之后每隔 query 毫秒发送一个字节
+            long interval = Long.parseLong(exchange.getRequestURI().getQuery());
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 50; i++) {
+                    out.write('x');
+                    out.flush();
+                    Thread.sleep(interval);
+                }
+            } catch (IOException | InterruptedException e) {
+                // 客户端超时后断开连接
+            }
+        });
+        server.createContext("/bad-gzip", exchange -> {
+            // 声明 gzip 但内容不是 gzip，之后持续发送数据，直到客户端断开连接
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("not gzip at all".getBytes(StandardCharsets.UTF_8));
+                for (int i = 0; i < 100; i++) {
+                    out.flush();
+                    Thread.sleep(50);
+                    out.write('x');
+                }
+            } catch (IOException | InterruptedException e) {
+                disconnected.countDown();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void decodesGzipAndEncodesParams() throws IOException {
+        try (ToolHttpClient client = new ToolHttpClient("test", Duration.ofSeconds(2), Duration.ofSeconds(5), 4)) {
+            Assertions.assertEquals("你好 q=a b", client.getString(baseUrl + "/gzip", Map.of("q", "a b"), null));
+        }
+    }
+
+    @Test
+    void slowResponseHitsReadTimeout() {
+        try (ToolHttpClient client = new ToolHttpClient("test", Duration.ofSeconds(2), Duration.ofMillis(200), 4)) {
+            Assertions.assertThrows(HttpTimeoutException.class, () -> client.getString(baseUrl + "/slow?2000", null, null));
+        }
+    }
+
+    @Test
+    void concurrentRequestsPerHostAreLimited() throws Exception {
+        try (ToolHttpClient client = new ToolHttpClient("test", Duration.ofSeconds(2), Duration.ofSeconds(5), 2);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                futures.add(executor.submit(() -> client.getString(baseUrl + "/slow?100", null, null)));
+            }
+            for (Future<String> future : futures) {
+                Assertions.assertEquals("done", future.get());
+            }
+        }
+        Assertions.assertEquals(2, maxActive.get());
+    }
+
+    @Test
+    void stalledStreamBodyHitsReadTimeout() throws IOException {
+        try (ToolHttpClient client = new ToolHttpClient("test", Duration.ofSeconds(2), Duration.ofMillis(300), 4);
+             ToolHttpClient.StreamResponse response = client.openStream(baseUrl + "/trickle?5000", null)) {
+            InputStream body = response.body();
+            Assertions.assertEquals('x', body.read());
+            long start = System.nanoTime();
+            // 响应头已收到，之后服务器不再发送数据
+            Assertions.assertThrows(HttpTimeoutException.class, () -> body.read());
+            Assertions.assertTrue(System.nanoTime() - start < Duration.ofSeconds(3).toNanos());
+        }
+    }
+
+    @Test
+    void slowStreamBodyHitsDeadline() throws IOException {
+        // 每 100ms 发送一个字节，单次读取不超时，但整个响应超过截止时间
+        try (ToolHttpClient client = new ToolHttpClient("test", Duration.ofSeconds(2), Duration.ofSeconds(1), 4);
+             ToolHttpClient.StreamResponse response = client.openStream(
+                     client.request(baseUrl + "/trickle?100", null), Duration.ofMillis(500))) {
+            Assertions.assertThrows(HttpTimeoutException.class, () -> response.body().readAllBytes());
+        }
+    }
+
+    @Test
+    void invalidGzipBodyReleasesConnectionAndPermit() throws Exception {
+        try (ToolHttpClient client = new ToolHttpClient("test", Duration.ofSeconds(2), Duration.ofSeconds(5), 1)) {
+            Assertions.assertThrows(IOException.class, () -> client.openStream(baseUrl + "/bad-gzip", null));
+            // 响应体被关闭，服务器端写入失败
+            Assertions.assertTrue(disconnected.await(3, TimeUnit.SECONDS));
+            // 唯一的并发许可已归还
+            Assertions.assertEquals("你好 q=1", client.getString(baseUrl + "/gzip", Map.of("q", "1"), null));
+        }
+    }
+}
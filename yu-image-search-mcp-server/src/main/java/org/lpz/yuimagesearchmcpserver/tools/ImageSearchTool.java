@@ -4,14 +4,33 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.http.HttpUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import jakarta.annotation.PreDestroy;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 @Service
 public class ImageSearchTool {
@@ -22,6 +41,28 @@ public class ImageSearchTool {
     // Pexels 常规搜索接口（请以文档为准）
     private static final String API_URL = "https://api.pexels.com/v1/search";
 
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+
+    // 从发出请求到读完响应的超时时间
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(15);
+
+    // 同时请求 Pexels 的数量上限
+    private static final int MAX_CONNECTIONS = 8;
+
+    // 复用连接的 HTTP 客户端（优先 HTTP/2）
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    private final Semaphore permits = new Semaphore(MAX_CONNECTIONS, true);
+
+    @PreDestroy
+    public void destroy() {
+        httpClient.close();
+    }
+
     @Tool(description = "search image from web")
     public String searchImage(@ToolParam(description = "Search query keyword") String query) {
         try {
@@ -37,22 +78,20 @@ public class ImageSearchTool {
      * @param query
      * @return
      */
-    public List<String> searchMediumImages(String query) {
-        // 设置请求头（包含API密钥）
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Authorization", API_KEY);
-
+    public List<String> searchMediumImages(String query) throws IOException {
         // 设置请求参数（仅包含query，可根据文档补充page、per_page等参数）
         Map<String, Object> params = new HashMap<>();
         params.put("query", query);
 //        params.put("per_page", 5);
 
-        // 发送 GET 请求
-        String response = HttpUtil.createGet(API_URL)
-                .addHeaders(headers)
-                .form(params)
-                .execute()
-                .body();
+        // 发送 GET 请求（请求头包含API密钥）
+        HttpRequest request = HttpRequest.newBuilder(URI.create(HttpUtil.urlWithForm(API_URL, params, StandardCharsets.UTF_8, false)))
+                .header("Authorization", API_KEY)
+                .header("Accept-Encoding", "gzip")
+                .timeout(READ_TIMEOUT)
+                .GET()
+                .build();
+        String response = send(request);
 
         // 解析响应JSON（假设响应结构包含"photos"数组，每个元素包含"medium"字段）
         return JSONUtil.parseObj(response)
@@ -64,4 +103,39 @@ public class ImageSearchTool {
                 .filter(StrUtil::isNotBlank)
                 .collect(Collectors.toList());
     }
+
+    /**
+     * 发送请求并读取响应文本，整个请求受读取超时限制，同时进行的请求数超过上限时排队
+     * @param request
+     * @return
+     * @throws IOException
+     */
+    private String send(HttpRequest request) throws IOException {
+        CompletableFuture<HttpResponse<byte[]>> future = null;
+        try {
+            if (!permits.tryAcquire(READ_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new HttpTimeoutException("too many concurrent requests to " + request.uri().getHost());
+            }
+            try {
+                future = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+                HttpResponse<byte[]> response = future.get(READ_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+                boolean gzip = "gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(""));
+                try (InputStream body = gzip
+                        ? new GZIPInputStream(new ByteArrayInputStream(response.body()))
+                        : new ByteArrayInputStream(response.body())) {
+                    return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            } finally {
+                permits.release();
+            }
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new HttpTimeoutException("request timed out after " + READ_TIMEOUT.toMillis() + " ms");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("request interrupted");
+        }
+    }
 }